@@ -3,28 +3,49 @@ package me.shawlaf.varlight.persistence;
 import me.shawlaf.varlight.persistence.vldb.VLDBFile;
 import me.shawlaf.varlight.util.ChunkCoords;
 import me.shawlaf.varlight.util.IntPosition;
+import me.shawlaf.varlight.util.Short2ObjectMap;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.*;
-
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Caches the Light sources of a VLDB Region per chunk.
+ * <p>
+ * Every chunk is guarded by its own lock, so threads working on different chunks do not block each other.
+ * Where both are needed, the chunk lock is always acquired before the lock of {@link RegionPersistor#file}.
+ */
 @Deprecated
 public abstract class RegionPersistor<L extends ICustomLightSource> {
 
+    private static final Logger LOGGER = Logger.getLogger(RegionPersistor.class.getSimpleName());
+
     private static final int REGION_SIZE = 32;
-    private static final int CHUNK_SIZE = 16 * 16 * 256;
+    private static final int CHUNKS = REGION_SIZE * REGION_SIZE;
 
     public final int regionX, regionZ;
 
     public final VLDBFile<L> file;
 
-    private final Object chunkLock = new Object();
+    private final Object[] chunkLocks = new Object[CHUNKS];
 
-    private final L[][] chunkCache = createMultiArr(REGION_SIZE * REGION_SIZE);
-    private final int[] chunkSizes = new int[REGION_SIZE * REGION_SIZE];
-    private final List<ChunkCoords> dirtyChunks = new ArrayList<>(REGION_SIZE * REGION_SIZE);
+    // Light sources of loaded chunks, keyed by their block index within the chunk, null if the chunk is not loaded
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private final Short2ObjectMap<L>[] chunkCache = new Short2ObjectMap[CHUNKS];
+
+    // One bit per chunk index, set by markDirty, cleared once the chunk has been flushed
+    private final AtomicLongArray dirtyChunks = new AtomicLongArray(CHUNKS / Long.SIZE);
 
     public RegionPersistor(@NotNull File vldbRoot, int regionX, int regionZ, boolean deflated) throws IOException {
         Objects.requireNonNull(vldbRoot);
@@ -42,6 +63,10 @@ public abstract class RegionPersistor<L extends ICustomLightSource> {
         this.regionX = regionX;
         this.regionZ = regionZ;
 
+        for (int i = 0; i < CHUNKS; ++i) {
+            chunkLocks[i] = new Object();
+        }
+
         File vldbFile = new File(vldbRoot, String.format(VLDBFile.FILE_NAME_FORMAT, regionX, regionZ));
 
         if (!vldbFile.exists()) {
@@ -92,11 +117,39 @@ public abstract class RegionPersistor<L extends ICustomLightSource> {
     public void markDirty(ChunkCoords chunkCoords) {
         assertInRegion(chunkCoords);
 
-        synchronized (chunkLock) {
-            dirtyChunks.add(chunkCoords);
+        final int chunkIndex = chunkIndex(chunkCoords);
+
+        // Synchronized with flushing, a flush clears the bit only after it took its snapshot of the chunk
+
+        synchronized (chunkLocks[chunkIndex]) {
+            setDirty(chunkIndex);
         }
     }
 
+    /**
+     * @param chunkCoords The Position of the Chunk to check
+     * @return true, if the Chunk has been marked dirty and not been flushed since.
+     */
+    public boolean isDirty(@NotNull ChunkCoords chunkCoords) {
+        Objects.requireNonNull(chunkCoords);
+        assertInRegion(chunkCoords);
+
+        return isDirty(chunkIndex(chunkCoords));
+    }
+
+    /**
+     * @return The amount of Chunks waiting to be flushed.
+     */
+    public int getDirtyChunkCount() {
+        int count = 0;
+
+        for (int i = 0; i < dirtyChunks.length(); ++i) {
+            count += Long.bitCount(dirtyChunks.get(i));
+        }
+
+        return count;
+    }
+
     /**
      * <p>Loads The Light sources of the specified Chunk from the raw data into the cache.</p>
      *
@@ -109,30 +162,22 @@ public abstract class RegionPersistor<L extends ICustomLightSource> {
 
         final int chunkIndex = chunkIndex(chunkCoords);
 
-        synchronized (chunkLock) {
+        synchronized (chunkLocks[chunkIndex]) {
             L[] lightSources;
 
             synchronized (file) {
                 lightSources = file.readChunk(chunkCoords);
             }
 
-            L[] fullChunk = createArray(CHUNK_SIZE);
-
-            int count = 0;
+            Short2ObjectMap<L> chunk = new Short2ObjectMap<>(lightSources.length);
 
             for (L ls : lightSources) {
-                int index = indexOf(ls.getPosition());
-
-                if (fullChunk[index] != null) {
+                if (chunk.put(indexOf(ls.getPosition()), ls) != null) {
                     throw new IllegalStateException("Duplicate Lightsource at Position " + ls.getPosition().toShortString());
                 }
-
-                fullChunk[index] = ls;
-                ++count;
             }
 
-            chunkSizes[chunkIndex] = count;
-            chunkCache[chunkIndex] = fullChunk;
+            chunkCache[chunkIndex] = chunk;
         }
     }
 
@@ -146,8 +191,10 @@ public abstract class RegionPersistor<L extends ICustomLightSource> {
         Objects.requireNonNull(chunkCoords);
         assertInRegion(chunkCoords);
 
-        synchronized (chunkLock) {
-            return chunkCache[chunkIndex(chunkCoords)] != null;
+        final int chunkIndex = chunkIndex(chunkCoords);
+
+        synchronized (chunkLocks[chunkIndex]) {
+            return chunkCache[chunkIndex] != null;
         }
     }
 
@@ -164,18 +211,15 @@ public abstract class RegionPersistor<L extends ICustomLightSource> {
 
         final int chunkIndex = chunkIndex(chunkCoords);
 
-        synchronized (chunkLock) {
-            L[] toUnload = chunkCache[chunkIndex];
+        synchronized (chunkLocks[chunkIndex]) {
+            Short2ObjectMap<L> toUnload = chunkCache[chunkIndex];
 
             if (toUnload == null) { // There was no mapping for the chunk
                 return;
             }
 
-            if (dirtyChunks.contains(chunkCoords)) {
-                flushChunk(chunkCoords, getNonNullFromChunk(chunkCoords));
-            }
+            flushChunk(chunkIndex);
 
-            chunkSizes[chunkIndex] = 0;
             chunkCache[chunkIndex] = null;
         }
     }
@@ -191,16 +235,12 @@ public abstract class RegionPersistor<L extends ICustomLightSource> {
         Objects.requireNonNull(chunkCoords);
         assertInRegion(chunkCoords);
 
-        List<L> chunk;
+        final int chunkIndex = chunkIndex(chunkCoords);
 
-        synchronized (chunkLock) {
-            L[] chunkArray = chunkCache[chunkIndex(chunkCoords)];
+        List<L> chunk;
 
-            if (chunkArray == null) {
-                chunk = new ArrayList<>();
-            } else {
-                chunk = new ArrayList<>(getNonNullFromChunk(chunkCoords));
-            }
+        synchronized (chunkLocks[chunkIndex]) {
+            chunk = getNonNullFromChunk(chunkIndex);
         }
 
         return Collections.unmodifiableList(chunk);
@@ -222,12 +262,12 @@ public abstract class RegionPersistor<L extends ICustomLightSource> {
         final ChunkCoords chunkCoords = position.toChunkCoords();
         final int chunkIndex = chunkIndex(chunkCoords);
 
-        synchronized (chunkLock) {
+        synchronized (chunkLocks[chunkIndex]) {
             if (chunkCache[chunkIndex] == null) {
                 loadChunk(chunkCoords);
             }
 
-            return chunkCache[chunkIndex][indexOf(position)];
+            return chunkCache[chunkIndex].get(indexOf(position));
         }
     }
 
@@ -250,7 +290,7 @@ public abstract class RegionPersistor<L extends ICustomLightSource> {
         final ChunkCoords chunkCoords = lightSource.getPosition().toChunkCoords();
         final int chunkIndex = chunkIndex(chunkCoords);
 
-        synchronized (chunkLock) {
+        synchronized (chunkLocks[chunkIndex]) {
             if (chunkCache[chunkIndex] == null) {
                 loadChunk(chunkCoords);
             }
@@ -268,17 +308,12 @@ public abstract class RegionPersistor<L extends ICustomLightSource> {
         final int chunkIndex = chunkIndex(chunkCoords);
         final int index = indexOf(position);
 
-        synchronized (chunkLock) {
+        synchronized (chunkLocks[chunkIndex]) {
             if (chunkCache[chunkIndex] == null) {
                 loadChunk(chunkCoords);
             }
 
-            L[] chunkArray = chunkCache[chunkIndex];
-
-            if (chunkArray[index] != null) {
-                chunkArray[index] = null;
-                --chunkSizes[chunkIndex];
-
+            if (chunkCache[chunkIndex].remove(index) != null) {
                 markDirty(chunkCoords);
             }
         }
@@ -290,13 +325,49 @@ public abstract class RegionPersistor<L extends ICustomLightSource> {
      * @throws IOException If an {@link IOException} occurs during flushing.
      */
     public void flushAll() throws IOException {
-        synchronized (chunkLock) {
-            synchronized (file) {
-                for (ChunkCoords key : dirtyChunks.toArray(new ChunkCoords[dirtyChunks.size()])) {
-                    flushChunk(key);
-                }
+        flushDirty();
+    }
+
+    /**
+     * <p>Flushes all dirty chunks on the given {@link Executor}, the calling thread only submits the task.</p>
+     * <p>Chunks that are modified while flushing stay dirty and are flushed by the next call.</p>
+     *
+     * @param executor The {@link Executor} to flush on
+     * @return A {@link CompletableFuture} completed with the amount of flushed chunks, or exceptionally with the first failure.
+     */
+    public CompletableFuture<Integer> flushAllAsync(@NotNull Executor executor) {
+        Objects.requireNonNull(executor);
+
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return flushDirty();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
             }
-        }
+        }, executor);
+    }
+
+    /**
+     * <p>Periodically flushes all dirty chunks on the given {@link ScheduledExecutorService} until the returned {@link ScheduledFuture} is cancelled.</p>
+     * <p>Failures are logged, the affected chunks stay dirty and are retried on the next run.
+     * Flushed chunks are only written to disk by {@link RegionPersistor#save()}.</p>
+     *
+     * @param executor The {@link ScheduledExecutorService} to flush on
+     * @param period   The time between two flushes
+     * @param unit     The {@link TimeUnit} of {@code period}
+     * @return The {@link ScheduledFuture} of the flushing task
+     */
+    public ScheduledFuture<?> startBackgroundFlushing(@NotNull ScheduledExecutorService executor, long period, @NotNull TimeUnit unit) {
+        Objects.requireNonNull(executor);
+        Objects.requireNonNull(unit);
+
+        return executor.scheduleWithFixedDelay(() -> {
+            try {
+                flushDirty();
+            } catch (IOException | RuntimeException e) {
+                LOGGER.log(Level.WARNING, String.format("Failed to flush Region [%d, %d], retrying on the next run", regionX, regionZ), e);
+            }
+        }, period, period, unit);
     }
 
     /**
@@ -313,23 +384,10 @@ public abstract class RegionPersistor<L extends ICustomLightSource> {
      * @throws IOException If an {@link IOException} occurs while flushing or reading.
      */
     public List<L> loadAll() throws IOException {
-        synchronized (file) {
-            synchronized (chunkLock) {
-                int cx, cz;
+        flushDirty(); // Outside the lock of file, chunk locks must be acquired first
 
-                for (int z = 0; z < REGION_SIZE; ++z) {
-                    for (int x = 0; x < REGION_SIZE; ++x) {
-                        int chunkIndex = chunkIndex(cx = regionX + x, cz = regionZ + z);
-                        ChunkCoords chunkCoords = new ChunkCoords(cx, cz);
-
-                        if (chunkCache[chunkIndex] != null && dirtyChunks.contains(chunkCoords)) {
-                            flushChunk(chunkCoords, getNonNullFromChunk(chunkCoords));
-                        }
-                    }
-                }
-
-                return file.readAll();
-            }
+        synchronized (file) {
+            return file.readAll();
         }
     }
 
@@ -357,13 +415,43 @@ public abstract class RegionPersistor<L extends ICustomLightSource> {
         }
     }
 
-    private void flushChunk(ChunkCoords chunkCoords, Collection<L> lightData) throws IOException {
-        final int chunkIndex = chunkIndex(chunkCoords);
+    /**
+     * @return The amount of flushed chunks
+     */
+    private int flushDirty() throws IOException {
+        int flushed = 0;
 
-        synchronized (chunkLock) {
-            if (!dirtyChunks.contains(chunkCoords)) {
-                return;
+        for (int word = 0; word < dirtyChunks.length(); ++word) {
+            long bits = dirtyChunks.get(word);
+
+            while (bits != 0) {
+                int chunkIndex = word * Long.SIZE + Long.numberOfTrailingZeros(bits);
+                bits &= bits - 1;
+
+                synchronized (chunkLocks[chunkIndex]) {
+                    if (flushChunk(chunkIndex)) {
+                        ++flushed;
+                    }
+                }
             }
+        }
+
+        return flushed;
+    }
+
+    /**
+     * Encodes the chunk into {@link RegionPersistor#file}, if it is dirty. The caller must hold the lock of the chunk.
+     *
+     * @return true, if the chunk was dirty
+     */
+    private boolean flushChunk(int chunkIndex) throws IOException {
+        if (!isDirty(chunkIndex)) {
+            return false;
+        }
+
+        if (chunkCache[chunkIndex] != null) { // Chunks marked dirty while not loaded have nothing to write
+            Collection<L> lightData = getNonNullFromChunk(chunkIndex);
+            ChunkCoords chunkCoords = new ChunkCoords(regionX * REGION_SIZE + (chunkIndex & 0x1F), regionZ * REGION_SIZE + (chunkIndex >>> 5));
 
             synchronized (file) {
                 if (lightData.size() == 0) {
@@ -372,20 +460,31 @@ public abstract class RegionPersistor<L extends ICustomLightSource> {
                     }
 
                     chunkCache[chunkIndex] = null;
-                    chunkSizes[chunkIndex] = 0;
+                } else {
+                    file.putChunk(lightData.toArray(createArray(lightData.size())));
                 }
-
-                file.putChunk(lightData.toArray(createArray(lightData.size())));
             }
-
-            dirtyChunks.remove(chunkCoords);
         }
+
+        clearDirty(chunkIndex); // Only cleared on success, modifications need the chunk lock held by the caller
+
+        return true;
     }
 
-    private void flushChunk(ChunkCoords chunkCoords) throws IOException {
-        synchronized (chunkLock) {
-            flushChunk(chunkCoords, getNonNullFromChunk(chunkCoords));
-        }
+    private void setDirty(int chunkIndex) {
+        final long bit = 1L << (chunkIndex & 63);
+
+        dirtyChunks.getAndAccumulate(chunkIndex >>> 6, bit, (word, b) -> word | b);
+    }
+
+    private void clearDirty(int chunkIndex) {
+        final long bit = 1L << (chunkIndex & 63);
+
+        dirtyChunks.getAndAccumulate(chunkIndex >>> 6, bit, (word, b) -> word & ~b);
+    }
+
+    private boolean isDirty(int chunkIndex) {
+        return (dirtyChunks.get(chunkIndex >>> 6) & (1L << (chunkIndex & 63))) != 0;
     }
 
     private void putInternal(L lightSource) {
@@ -395,60 +494,42 @@ public abstract class RegionPersistor<L extends ICustomLightSource> {
         final int chunkIndex = chunkIndex(chunkCoords);
         final int index = indexOf(lightSource.getPosition());
 
-        synchronized (chunkLock) {
-            L[] chunkArray = chunkCache[chunkIndex];
+        synchronized (chunkLocks[chunkIndex]) {
+            Short2ObjectMap<L> chunkMap = chunkCache[chunkIndex];
 
-            if (chunkArray == null) {
+            if (chunkMap == null) {
                 throw new IllegalArgumentException("No Data present for chunk");
             }
 
-            L removed = chunkArray[index];
-            chunkArray[index] = null;
-
             if (lightSource.getCustomLuminance() > 0) { // New or modified
-                chunkArray[index] = lightSource;
-
-                if (removed == null) {
-                    ++chunkSizes[chunkIndex]; // One new light source added
-                }
-
-                // When a light source was modified, aka removed != null, then the amount of Light sources stays the same
+                chunkMap.put(index, lightSource);
 
                 markDirty(chunkCoords);
             } else { // Removed, or no-op
-                if (removed != null) {
+                if (chunkMap.remove(index) != null) {
                     markDirty(chunkCoords);
-                    --chunkSizes[chunkIndex]; // One Light source was removed
                 }
             }
         }
     }
 
-    private Collection<L> getNonNullFromChunk(ChunkCoords chunkCoords) {
-        final int chunkIndex = chunkIndex(chunkCoords);
-
-        synchronized (chunkLock) {
-            int chunkSize = chunkSizes[chunkIndex];
+    private List<L> getNonNullFromChunk(int chunkIndex) {
+        synchronized (chunkLocks[chunkIndex]) {
+            Short2ObjectMap<L> chunkMap = chunkCache[chunkIndex];
 
-            List<L> list = new ArrayList<>(chunkSize);
-            L[] rawArr = chunkCache[chunkIndex];
-
-            if (rawArr == null || rawArr.length == 0) {
-                return list; // Will have size 0
+            if (chunkMap == null || chunkMap.isEmpty()) {
+                return new ArrayList<>(0);
             }
 
-            int added = 0;
+            // Sorted by block index, the order Light sources were returned in before chunks were cached sparsely
 
-            for (L l : rawArr) {
-                if (l == null) {
-                    continue;
-                }
+            int[] indices = chunkMap.keys();
+            Arrays.sort(indices);
 
-                list.add(l);
+            List<L> list = new ArrayList<>(indices.length);
 
-                if (++added == chunkSize) {
-                    break;
-                }
+            for (int index : indices) {
+                list.add(chunkMap.get(index));
             }
 
             return list;
@@ -474,7 +555,11 @@ public abstract class RegionPersistor<L extends ICustomLightSource> {
     @NotNull
     protected abstract L[] createArray(int size);
 
+    /**
+     * @deprecated No longer called, loaded chunks are kept in a {@link Short2ObjectMap} instead of an array spanning the whole chunk.
+     */
     @NotNull
+    @Deprecated
     protected abstract L[][] createMultiArr(int size);
 
     @NotNull
@@ -484,10 +569,12 @@ public abstract class RegionPersistor<L extends ICustomLightSource> {
      * Unloads this Region, discarding any not-flushed changes.
      */
     public void unload() {
-        Arrays.fill(chunkCache, null);
-        Arrays.fill(chunkSizes, 0);
-
-        dirtyChunks.clear();
+        for (int i = 0; i < CHUNKS; ++i) {
+            synchronized (chunkLocks[i]) {
+                chunkCache[i] = null;
+                clearDirty(i);
+            }
+        }
 
         file.unload();
     }
@@ -0,0 +1,198 @@
+package me.shawlaf.varlight.persistence.migrate;
+
+import me.shawlaf.varlight.persistence.nls.NLSFile;
+import me.shawlaf.varlight.persistence.vldb.VLDBInputStream;
+import me.shawlaf.varlight.persistence.world.WorldOccupancyIndex;
+import me.shawlaf.varlight.util.FileUtil;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Converts the legacy VLDB Region files of a World directory to the NLS Format.
+ * <p>
+ * Light sources are streamed from the VLDB file straight into the nibble arrays of the {@link NLSFile}, no Light source objects or material strings are created.
+ * {@link VLDBToNLSMigration#migrate(File)} converts the single VLDB file passed to it,
+ * {@link VLDBToNLSMigration#convertDirectory(File)} converts all Region files of a directory in parallel, every worker holding at most one Region in memory at a time.
+ */
+@SuppressWarnings("deprecation") // Reads the legacy format through VLDBInputStream
+public class VLDBToNLSMigration implements Migration<File> {
+
+    public static final String VLDB_EXTENSION = ".vldb2";
+
+    private static final AtomicInteger POOL_COUNTER = new AtomicInteger();
+
+    private final int threads;
+    private final boolean deflate;
+    private final WorldOccupancyIndex occupancy;
+
+    public VLDBToNLSMigration() {
+        this(Math.max(1, Runtime.getRuntime().availableProcessors() - 1), true);
+    }
+
+    /**
+     * @param threads The maximum amount of Region files converted at the same time
+     * @param deflate Whether the NLS files should be written compressed
+     */
+    public VLDBToNLSMigration(int threads, boolean deflate) {
+        this(threads, deflate, null);
+    }
+
+    /**
+     * @param threads   The maximum amount of Region files converted at the same time
+     * @param deflate   Whether the NLS files should be written compressed
+     * @param occupancy The {@link WorldOccupancyIndex} of the World, converted Regions are dropped from it once written
+     */
+    public VLDBToNLSMigration(int threads, boolean deflate, @Nullable WorldOccupancyIndex occupancy) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be >= 1");
+        }
+
+        this.threads = threads;
+        this.deflate = deflate;
+        this.occupancy = occupancy;
+    }
+
+    @Override
+    public boolean migrate(File toMigrate) throws Exception {
+        if (!toMigrate.isFile() || !toMigrate.getName().endsWith(VLDB_EXTENSION)) {
+            return false;
+        }
+
+        convertAndDelete(toMigrate);
+
+        return true;
+    }
+
+    /**
+     * Converts all VLDB files in {@code directory}, deleting each VLDB file once its NLS file has been written.
+     *
+     * @return The amount of converted Region files
+     * @throws IOException If a Region file could not be converted, all other Region files are still converted
+     */
+    public int convertDirectory(@NotNull File directory) throws IOException, InterruptedException {
+        Objects.requireNonNull(directory);
+
+        File[] files = directory.listFiles((dir, name) -> name.endsWith(VLDB_EXTENSION));
+
+        if (files == null || files.length == 0) {
+            return 0;
+        }
+
+        final int pool = POOL_COUNTER.incrementAndGet();
+        final AtomicInteger threadCounter = new AtomicInteger();
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, files.length), r -> {
+            Thread thread = new Thread(r, String.format("VarLight-VLDBToNLS-%d-%d", pool, threadCounter.incrementAndGet()));
+            thread.setDaemon(true);
+
+            return thread;
+        });
+
+        try {
+            List<Future<?>> futures = new ArrayList<>(files.length);
+
+            for (File file : files) {
+                futures.add(executor.submit(() -> {
+                    convertAndDelete(file);
+
+                    return null;
+                }));
+            }
+
+            int converted = 0;
+            IOException failure = null;
+
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                    ++converted;
+                } catch (ExecutionException e) {
+                    IOException cause = e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+
+                    if (failure == null) {
+                        failure = cause;
+                    } else {
+                        failure.addSuppressed(cause);
+                    }
+                }
+            }
+
+            if (failure != null) {
+                throw failure;
+            }
+
+            return converted;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private void convertAndDelete(File vldbFile) throws IOException {
+        String name = vldbFile.getName();
+
+        convert(vldbFile, new File(vldbFile.getAbsoluteFile().getParentFile(), name.substring(0, name.length() - VLDB_EXTENSION.length()) + ".nls"));
+
+        if (!vldbFile.delete()) {
+            throw new IOException("Could not delete " + vldbFile.getAbsolutePath());
+        }
+    }
+
+    /**
+     * Converts a single VLDB file, merging its Light sources into {@code target} if it already exists.
+     *
+     * @return The amount of converted Light sources
+     */
+    public int convert(@NotNull File vldbFile, @NotNull File target) throws IOException {
+        Objects.requireNonNull(vldbFile);
+        Objects.requireNonNull(target);
+
+        try (VLDBInputStream in = new VLDBInputStream(FileUtil.openStreamInflate(vldbFile))) {
+            if (!in.readVLDBMagic()) {
+                throw new IllegalStateException(String.format("%s is not a VLDB file", vldbFile.getAbsolutePath()));
+            }
+
+            final int regionX = in.readInt32();
+            final int regionZ = in.readInt32();
+
+            NLSFile nlsFile = target.exists() ? NLSFile.existingFile(target, deflate) : NLSFile.newFile(target, regionX, regionZ, deflate);
+
+            if (nlsFile.getRegionX() != regionX || nlsFile.getRegionZ() != regionZ) {
+                throw new IllegalStateException(String.format("%s belongs to Region %d %d, not %d %d", target.getAbsolutePath(), nlsFile.getRegionX(), nlsFile.getRegionZ(), regionX, regionZ));
+            }
+
+            int[] converted = new int[1];
+            IOException[] failure = new IOException[1];
+
+            nlsFile.edit(editor -> {
+                try {
+                    converted[0] = in.visitAll(regionX, regionZ, editor::setCustomLuminance);
+                } catch (IOException e) {
+                    failure[0] = e;
+                }
+            });
+
+            if (failure[0] != null) {
+                throw failure[0];
+            }
+
+            nlsFile.saveAndUnload();
+
+            if (occupancy != null) {
+                occupancy.invalidate(regionX, regionZ);
+            }
+
+            return converted[0];
+        }
+    }
+}
@@ -2,38 +2,64 @@ package me.shawlaf.varlight.persistence.nls;
 
 import lombok.Getter;
 import me.shawlaf.varlight.persistence.nls.exception.PositionOutOfBoundsException;
-import me.shawlaf.varlight.persistence.nls.io.NLSInputStream;
-import me.shawlaf.varlight.persistence.nls.io.NLSOutputStream;
+import me.shawlaf.varlight.persistence.nls.io.NLSChannelReader;
+import me.shawlaf.varlight.persistence.nls.io.NLSChannelWriter;
+import me.shawlaf.varlight.util.BlockVolume;
 import me.shawlaf.varlight.util.ChunkCoords;
 import me.shawlaf.varlight.util.IntPosition;
+import me.shawlaf.varlight.util.Preconditions;
 
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class ChunkLightStorage {
 
     private static final int SECTION_SIZE = 16 * 16 * 16;
     private static final byte[] EMPTY_CHUNK_SECTION = new byte[SECTION_SIZE / 2];
 
+    // Shared by all chunks, so that a stamp is never reused, not even after a chunk has been unloaded and loaded again
+    private static final AtomicLong STAMPS = new AtomicLong();
+
     @Getter
     private final int chunkX;
     @Getter
     private final int chunkZ;
+    @Getter
+    private final NibbleOrder order;
     private final NibbleArray[] lightData = new NibbleArray[16];
 
+    // Sections also referenced by an NLSSnapshot, they are copied before their next modification
+    private int sharedMask = 0;
+
+    @Getter
+    private long modificationStamp = STAMPS.incrementAndGet();
+
     public ChunkLightStorage(ChunkCoords coords) {
         this(coords.x, coords.z);
     }
 
     public ChunkLightStorage(int x, int z) {
+        this(x, z, NibbleOrder.VARLIGHT);
+    }
+
+    /**
+     * @param order The {@link NibbleOrder} sections are kept in, {@link NibbleOrder#NATIVE} allows handing them to Minecraft without conversion
+     */
+    public ChunkLightStorage(int x, int z, NibbleOrder order) {
         this.chunkX = x;
         this.chunkZ = z;
+        this.order = order;
+    }
+
+    protected static ChunkLightStorage read(int encodedPosition, int regionX, int regionZ, NLSChannelReader in) throws IOException {
+        return read(encodedPosition, regionX, regionZ, in, NibbleOrder.VARLIGHT);
     }
 
-    protected static ChunkLightStorage read(int encodedPosition, int regionX, int regionZ, NLSInputStream in) throws IOException {
-        ChunkLightStorage cls = new ChunkLightStorage(32 * regionX + (encodedPosition & 0x1F), 32 * regionZ + ((encodedPosition >>> 5) & 0x1F));
+    protected static ChunkLightStorage read(int encodedPosition, int regionX, int regionZ, NLSChannelReader in, NibbleOrder order) throws IOException {
+        ChunkLightStorage cls = new ChunkLightStorage(32 * regionX + (encodedPosition & 0x1F), 32 * regionZ + ((encodedPosition >>> 5) & 0x1F), order);
         int mask = in.readInt16();
 
         for (int y = 0; y < 16; ++y) {
@@ -41,7 +67,18 @@ public class ChunkLightStorage {
                 continue;
             }
 
-            cls.lightData[y] = in.readNibbleArray(SECTION_SIZE);
+            NibbleArray section = new NibbleArray(SECTION_SIZE, order);
+            in.readFully(section.array);
+
+            if (Arrays.equals(section.array, EMPTY_CHUNK_SECTION)) {
+                continue; // Only non-empty sections are ever held
+            }
+
+            if (order != NibbleOrder.VARLIGHT) {
+                NibbleArray.swapNibbles(section.array, 0, section.array, 0, section.array.length);
+            }
+
+            cls.lightData[y] = section;
         }
 
         return cls;
@@ -78,15 +115,24 @@ public class ChunkLightStorage {
             throw new PositionOutOfBoundsException(position);
         }
 
+        // Validated before allocating, an empty section must never be held
+        Preconditions.assertInRange("value", value, 0x0, 0xF);
+
         if (lightData[y] == null) {
             if (value > 0) {
-                lightData[y] = new NibbleArray(16 * 16 * 16);
+                lightData[y] = new NibbleArray(SECTION_SIZE, order);
             } else {
                 return;
             }
         }
 
+        if ((sharedMask & (1 << y)) != 0) {
+            lightData[y] = new NibbleArray(lightData[y].array, order);
+            sharedMask &= ~(1 << y);
+        }
+
         lightData[y].set(indexOf(position), value);
+        modificationStamp = STAMPS.incrementAndGet();
 
         if (value == 0 && Arrays.equals(lightData[y].array, EMPTY_CHUNK_SECTION)) {
             lightData[y] = null;
@@ -115,6 +161,153 @@ public class ChunkLightStorage {
         return lightSources;
     }
 
+    /**
+     * Visits all Light sources of this chunk within the {@link BlockVolume}, only sections intersecting the volume are scanned.
+     *
+     * @return The amount of visited Light sources
+     */
+    public int forEachLightSource(BlockVolume volume, LightSourceVisitor visitor) {
+        final int baseX = chunkX << 4;
+        final int baseZ = chunkZ << 4;
+
+        final int minY = Math.max(volume.minY, 0);
+        final int maxY = Math.min(volume.maxY, 255);
+        final int minZ = Math.max(volume.minZ, baseZ);
+        final int maxZ = Math.min(volume.maxZ, baseZ + 15);
+
+        if (minY > maxY || minZ > maxZ) {
+            return 0;
+        }
+
+        int visited = 0;
+
+        for (int sectionY = minY >> 4; sectionY <= maxY >> 4; ++sectionY) {
+            NibbleArray section = lightData[sectionY];
+            final int baseY = sectionY << 4;
+
+            if (section == null || !volume.intersects(baseX, baseY, baseZ, baseX + 15, baseY + 15, baseZ + 15)) {
+                continue;
+            }
+
+            for (int y = Math.max(minY, baseY); y <= Math.min(maxY, baseY + 15); ++y) {
+                for (int z = minZ; z <= maxZ; ++z) {
+                    int x0 = Math.max(volume.rowStartX(y, z), baseX);
+                    int x1 = Math.min(volume.rowEndX(y, z), baseX + 15);
+
+                    int row = indexOf(0, y & 0xF, z - baseZ);
+
+                    for (int x = x0; x <= x1; ++x) {
+                        int lightLevel = section.get(row | (x - baseX));
+
+                        if (lightLevel > 0) {
+                            visitor.visit(x, y, z, lightLevel);
+                            ++visited;
+                        }
+                    }
+                }
+            }
+        }
+
+        return visited;
+    }
+
+    /**
+     * Visits all Light sources in the specified section of this chunk.
+     *
+     * @return The amount of visited Light sources
+     */
+    public int forEachLightSource(int sectionY, LightSourceVisitor visitor) {
+        if (sectionY < 0 || sectionY >= 16 || lightData[sectionY] == null) {
+            return 0;
+        }
+
+        final byte[] data = lightData[sectionY].array;
+        final int evenShift = order.evenShift;
+        int visited = 0;
+
+        for (int i = 0; i < data.length; ++i) {
+            if (data[i] == 0) {
+                continue; // Both nibbles empty
+            }
+
+            for (int index = i << 1; index <= (i << 1 | 1); ++index) {
+                int lightLevel = (data[i] >>> ((index & 1) == 0 ? evenShift : 4 - evenShift)) & 0xF;
+
+                if (lightLevel > 0) {
+                    visitor.visit((chunkX << 4) | (index & 0xF), (sectionY << 4) | ((index >>> 8) & 0xF), (chunkZ << 4) | ((index >>> 4) & 0xF), lightLevel);
+                    ++visited;
+                }
+            }
+        }
+
+        return visited;
+    }
+
+    /**
+     * Copies the light data of a section into {@code dst}, e.g. to hand it to Minecraft's light engine using {@link NibbleOrder#NATIVE}.
+     * No conversion takes place if {@code order} matches the {@link NibbleOrder} of this chunk.
+     *
+     * @param dst    Receives the 2048 bytes of light data
+     * @param offset The offset in {@code dst} at which to start writing
+     * @return {@code false} if the section is empty, {@code dst} is left untouched in that case
+     */
+    public boolean copySection(int sectionY, byte[] dst, int offset, NibbleOrder order) {
+        if (sectionY < 0 || sectionY >= 16 || lightData[sectionY] == null) {
+            return false;
+        }
+
+        lightData[sectionY].copyTo(dst, offset, order);
+
+        return true;
+    }
+
+    /**
+     * Replaces the light data of a section.
+     *
+     * @param src    The 2048 bytes of light data
+     * @param offset The offset in {@code src} at which the light data starts
+     * @param order  The {@link NibbleOrder} of {@code src}
+     */
+    public void setSection(int sectionY, byte[] src, int offset, NibbleOrder order) {
+        if (sectionY < 0 || sectionY >= 16) {
+            throw new IllegalArgumentException(String.format("Section %d out of bounds", sectionY));
+        }
+
+        NibbleArray section = new NibbleArray(SECTION_SIZE, this.order);
+
+        if (order == this.order) {
+            System.arraycopy(src, offset, section.array, 0, section.array.length);
+        } else {
+            NibbleArray.swapNibbles(src, offset, section.array, 0, section.array.length);
+        }
+
+        lightData[sectionY] = Arrays.equals(section.array, EMPTY_CHUNK_SECTION) ? null : section;
+        sharedMask &= ~(1 << sectionY);
+        modificationStamp = STAMPS.incrementAndGet();
+    }
+
+    /**
+     * Encodes the light data of this chunk as {@code [int16 mask]} followed by the 2048 bytes of every non-empty section, lowest section first.
+     *
+     * @param order The {@link NibbleOrder} of the encoded sections
+     */
+    public byte[] encodePayload(NibbleOrder order) {
+        int mask = getMask();
+        byte[] payload = new byte[2 + Integer.bitCount(mask) * (SECTION_SIZE / 2)];
+
+        payload[0] = (byte) (mask >>> 8);
+        payload[1] = (byte) mask;
+
+        for (int y = 0, offset = 2; y < 16; ++y) {
+            if (lightData[y] != null) {
+                lightData[y].copyTo(payload, offset, order);
+                offset += SECTION_SIZE / 2;
+            }
+        }
+
+        return payload;
+    }
+
     public boolean isEmpty() {
         return getMask() == 0;
     }
@@ -123,16 +316,18 @@ public class ChunkLightStorage {
         int mask = 0;
 
         for (int y = 0; y < 16; ++y) {
-            if (lightData[y] == null || Arrays.equals(lightData[y].array, EMPTY_CHUNK_SECTION)) {
-                continue;
+            if (lightData[y] != null) { // Sections are discarded as soon as they become empty
+                mask |= 1 << y;
             }
-
-            mask |= 1 << y;
         }
 
         return mask;
     }
 
+    public int getSectionCount() {
+        return Integer.bitCount(getMask());
+    }
+
     public void unload() {
         for (int i = 0; i < lightData.length; ++i) {
             lightData[i] = null;
@@ -143,8 +338,28 @@ public class ChunkLightStorage {
         return new ChunkCoords(chunkX, chunkZ);
     }
 
-    protected void writeData(NLSOutputStream out) throws IOException {
-        int mask = getMask();
+    protected void writeData(NLSChannelWriter out) throws IOException {
+        writeSections(out, lightData);
+    }
+
+    /**
+     * Marks all sections as shared and returns them, the returned sections will not be modified anymore.
+     */
+    protected NibbleArray[] share() {
+        sharedMask = getMask();
+
+        return lightData.clone();
+    }
+
+    protected static void writeSections(NLSChannelWriter out, NibbleArray[] sections) throws IOException {
+        byte[] converted = null;
+        int mask = 0;
+
+        for (int y = 0; y < 16; ++y) {
+            if (sections[y] != null) {
+                mask |= 1 << y;
+            }
+        }
 
         out.writeInt16(mask);
 
@@ -153,9 +368,18 @@ public class ChunkLightStorage {
                 continue;
             }
 
-            NibbleArray nibbleArray = lightData[y];
+            NibbleArray nibbleArray = sections[y];
 
-            out.write(nibbleArray.array, 0, nibbleArray.array.length);
+            if (nibbleArray.order == NibbleOrder.VARLIGHT) {
+                out.write(nibbleArray.array, 0, nibbleArray.array.length);
+            } else {
+                if (converted == null) {
+                    converted = new byte[nibbleArray.array.length];
+                }
+
+                nibbleArray.copyTo(converted, 0, NibbleOrder.VARLIGHT);
+                out.write(converted, 0, converted.length);
+            }
         }
     }
 
@@ -0,0 +1,275 @@
+package me.shawlaf.varlight.persistence.nls;
+
+import me.shawlaf.varlight.util.ChunkCoords;
+import me.shawlaf.varlight.util.Long2ObjectMap;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Objects;
+import java.util.zip.Deflater;
+
+/**
+ * Caches the encoded light data of chunks (see {@link ChunkLightStorage#encodePayload(NibbleOrder)}), so that the same bytes can be sent to every player viewing a chunk.
+ * <p>
+ * Entries are validated against the modification stamp of the chunk (see {@link NLSFile#getModificationStamp(int, int)}), a modified chunk is encoded again on its next request.
+ * The cache is bounded by the total size of the cached payloads, once exceeded the least recently requested payloads are dropped.
+ */
+public class ChunkPayloadCache {
+
+    private final Object lock = new Object();
+    private final long maxBytes;
+    private final NibbleOrder order;
+    private final boolean compress;
+
+    private final Long2ObjectMap<Entry> entries = new Long2ObjectMap<>();
+    private Entry mostRecent, leastRecent;
+    private long usedBytes = 0;
+
+    private long hits = 0, misses = 0, evictions = 0;
+
+    /**
+     * @param maxBytes The maximum total size of all cached payloads
+     * @param order    The {@link NibbleOrder} of the encoded sections
+     * @param compress Whether payloads are compressed using {@link Deflater} (zlib)
+     */
+    public ChunkPayloadCache(long maxBytes, @NotNull NibbleOrder order, boolean compress) {
+        Objects.requireNonNull(order);
+
+        if (maxBytes < 0) {
+            throw new IllegalArgumentException("maxBytes must be >= 0");
+        }
+
+        this.maxBytes = maxBytes;
+        this.order = order;
+        this.compress = compress;
+    }
+
+    /**
+     * Returns the encoded light data of a chunk, encoding it only if it has been modified since it was last cached.
+     * The returned array is shared and must not be modified.
+     *
+     * @param file   The {@link NLSFile} containing the chunk
+     * @param chunkX The X Coordinate of the chunk
+     * @param chunkZ The Z Coordinate of the chunk
+     * @return The payload, or {@code null} if the chunk holds no light data
+     */
+    @Nullable
+    public byte[] get(@NotNull NLSFile file, int chunkX, int chunkZ) {
+        Objects.requireNonNull(file);
+
+        final long key = ChunkCoords.encode(chunkX, chunkZ);
+
+        // The stamp is read before encoding: the encoded data is at least as recent as the stamp, never older
+
+        long stamp = file.getModificationStamp(chunkX, chunkZ);
+
+        synchronized (lock) {
+            Entry entry = entries.get(key);
+
+            if (entry != null && entry.stamp == stamp) {
+                ++hits;
+                touch(entry);
+
+                return entry.payload;
+            }
+
+            ++misses;
+
+            if (entry != null) {
+                remove(entry);
+            }
+        }
+
+        if (stamp == 0) {
+            return null;
+        }
+
+        byte[] payload = file.encodeChunkPayload(chunkX, chunkZ, order);
+
+        if (payload == null) {
+            return null; // The chunk was cleared in the meantime
+        }
+
+        if (compress) {
+            payload = deflate(payload);
+        }
+
+        synchronized (lock) {
+            Entry entry = entries.get(key);
+
+            if (entry != null) {
+                if (entry.stamp >= stamp) {
+                    return payload; // Another thread cached the same or a more recent payload
+                }
+
+                remove(entry);
+            }
+
+            if (payload.length <= maxBytes) {
+                entry = new Entry(key, stamp, payload);
+
+                entries.put(key, entry);
+                linkFirst(entry);
+                usedBytes += payload.length;
+
+                enforceBudget();
+            }
+        }
+
+        return payload;
+    }
+
+    /**
+     * Drops the cached payload of a chunk, e.g. after its {@link NLSFile} has been unloaded.
+     */
+    public void invalidate(int chunkX, int chunkZ) {
+        synchronized (lock) {
+            Entry entry = entries.get(ChunkCoords.encode(chunkX, chunkZ));
+
+            if (entry != null) {
+                remove(entry);
+            }
+        }
+    }
+
+    public void clear() {
+        synchronized (lock) {
+            entries.clear();
+            mostRecent = leastRecent = null;
+            usedBytes = 0;
+        }
+    }
+
+    public int getEntryCount() {
+        synchronized (lock) {
+            return entries.size();
+        }
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public long getUsedBytes() {
+        synchronized (lock) {
+            return usedBytes;
+        }
+    }
+
+    public long getHits() {
+        synchronized (lock) {
+            return hits;
+        }
+    }
+
+    public long getMisses() {
+        synchronized (lock) {
+            return misses;
+        }
+    }
+
+    /**
+     * @return The amount of payloads dropped to stay within the size bound
+     */
+    public long getEvictions() {
+        synchronized (lock) {
+            return evictions;
+        }
+    }
+
+    /**
+     * @return The fraction of requests answered from the cache, {@code 0} if there were no requests yet
+     */
+    public double getHitRate() {
+        synchronized (lock) {
+            long requests = hits + misses;
+
+            return requests == 0 ? 0 : (double) hits / requests;
+        }
+    }
+
+    private static byte[] deflate(byte[] data) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 4 + 16);
+            byte[] buffer = new byte[4096];
+
+            while (!deflater.finished()) {
+                out.write(buffer, 0, deflater.deflate(buffer));
+            }
+
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private void enforceBudget() {
+        while (usedBytes > maxBytes && leastRecent != null) {
+            remove(leastRecent);
+            ++evictions;
+        }
+    }
+
+    private void remove(Entry entry) {
+        entries.remove(entry.key);
+        unlink(entry);
+
+        usedBytes -= entry.payload.length;
+    }
+
+    private void touch(Entry entry) {
+        if (entry != mostRecent) {
+            unlink(entry);
+            linkFirst(entry);
+        }
+    }
+
+    private void linkFirst(Entry entry) {
+        entry.prev = null;
+        entry.next = mostRecent;
+
+        if (mostRecent != null) {
+            mostRecent.prev = entry;
+        } else {
+            leastRecent = entry;
+        }
+
+        mostRecent = entry;
+    }
+
+    private void unlink(Entry entry) {
+        if (entry.prev != null) {
+            entry.prev.next = entry.next;
+        } else {
+            mostRecent = entry.next;
+        }
+
+        if (entry.next != null) {
+            entry.next.prev = entry.prev;
+        } else {
+            leastRecent = entry.prev;
+        }
+
+        entry.prev = entry.next = null;
+    }
+
+    private static class Entry {
+        private final long key;
+        private final long stamp;
+        private final byte[] payload;
+
+        private Entry prev, next;
+
+        private Entry(long key, long stamp, byte[] payload) {
+            this.key = key;
+            this.stamp = stamp;
+            this.payload = payload;
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package me.shawlaf.varlight.persistence.nls;
+
+import me.shawlaf.varlight.util.IntPosition;
+
+/**
+ * A batch of Custom Luminance changes, at most one per block. Changes are stored in primitive arrays, accessed by index.
+ */
+public class LightChangeBatch {
+
+    private final long[] positions;
+    private final byte[] levels; // old light level << 4 | new light level
+    private final int size;
+
+    LightChangeBatch(long[] positions, byte[] levels, int size) {
+        this.positions = positions;
+        this.levels = levels;
+        this.size = size;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return The position of the changed block, packed using {@link IntPosition#encode(int, int, int)}
+     */
+    public long getPackedPosition(int index) {
+        return positions[checkIndex(index)];
+    }
+
+    public int getX(int index) {
+        return (int) (positions[checkIndex(index)] >> 38);
+    }
+
+    public int getY(int index) {
+        return (int) (positions[checkIndex(index)] & 0xFFF);
+    }
+
+    public int getZ(int index) {
+        return (int) (positions[checkIndex(index)] << 26 >> 38);
+    }
+
+    public IntPosition getPosition(int index) {
+        return new IntPosition(getX(index), getY(index), getZ(index));
+    }
+
+    /**
+     * @return The Custom Luminance of the block before the first change since the previous flush
+     */
+    public int getOldLightLevel(int index) {
+        return (levels[checkIndex(index)] >>> 4) & 0xF;
+    }
+
+    /**
+     * @return The Custom Luminance of the block after the last change since the previous flush
+     */
+    public int getNewLightLevel(int index) {
+        return levels[checkIndex(index)] & 0xF;
+    }
+
+    private int checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException(String.format("Index %d out of bounds for size %d", index, size));
+        }
+
+        return index;
+    }
+}
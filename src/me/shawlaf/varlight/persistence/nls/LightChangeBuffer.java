@@ -0,0 +1,92 @@
+package me.shawlaf.varlight.persistence.nls;
+
+import me.shawlaf.varlight.util.IntPosition;
+import me.shawlaf.varlight.util.Long2IntMap;
+
+import java.util.Arrays;
+
+/**
+ * Collects Custom Luminance changes until they are drained into a {@link LightChangeBatch}.
+ * <p>
+ * Repeated changes to the same block are coalesced, keeping the first old and the last new light level.
+ * Blocks changed back to their original light level are dropped when draining. Not thread safe.
+ */
+public class LightChangeBuffer {
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private final Long2IntMap indices = new Long2IntMap(INITIAL_CAPACITY, -1);
+
+    private long[] positions = new long[INITIAL_CAPACITY];
+    private byte[] levels = new byte[INITIAL_CAPACITY];
+    private int size = 0;
+
+    public void record(int x, int y, int z, int oldLightLevel, int newLightLevel) {
+        record(IntPosition.encode(x, y, z), oldLightLevel, newLightLevel);
+    }
+
+    /**
+     * @param position The position of the changed block, packed using {@link IntPosition#encode(int, int, int)}
+     */
+    public void record(long position, int oldLightLevel, int newLightLevel) {
+        int index = indices.get(position);
+
+        if (index >= 0) {
+            levels[index] = (byte) ((levels[index] & 0xF0) | (newLightLevel & 0xF));
+            return;
+        }
+
+        if (size == positions.length) {
+            positions = Arrays.copyOf(positions, size << 1);
+            levels = Arrays.copyOf(levels, size << 1);
+        }
+
+        indices.put(position, size);
+
+        positions[size] = position;
+        levels[size] = (byte) ((oldLightLevel & 0xF) << 4 | (newLightLevel & 0xF));
+        ++size;
+    }
+
+    /**
+     * Records all changes of {@code batch}, coalescing them with the changes already recorded.
+     */
+    public void recordAll(LightChangeBatch batch) {
+        for (int i = 0; i < batch.size(); ++i) {
+            record(batch.getPackedPosition(i), batch.getOldLightLevel(i), batch.getNewLightLevel(i));
+        }
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @return All recorded changes in the order the blocks were first changed, or {@code null} if nothing changed. The buffer is empty afterwards.
+     */
+    public LightChangeBatch drain() {
+        int kept = 0;
+
+        for (int i = 0; i < size; ++i) {
+            if ((levels[i] >>> 4 & 0xF) != (levels[i] & 0xF)) {
+                positions[kept] = positions[i];
+                levels[kept] = levels[i];
+                ++kept;
+            }
+        }
+
+        LightChangeBatch batch = kept == 0 ? null : new LightChangeBatch(Arrays.copyOf(positions, kept), Arrays.copyOf(levels, kept), kept);
+
+        indices.clear();
+        size = 0;
+
+        if (positions.length > INITIAL_CAPACITY * 64) {
+            // Do not hold on to the memory of a single huge edit
+
+            positions = new long[INITIAL_CAPACITY];
+            levels = new byte[INITIAL_CAPACITY];
+        }
+
+        return batch;
+    }
+}
@@ -0,0 +1,16 @@
+package me.shawlaf.varlight.persistence.nls;
+
+/**
+ * Receives coalesced batches of Custom Luminance changes, see {@link NLSFile#addChangeListener(LightChangeListener)}.
+ */
+@FunctionalInterface
+public interface LightChangeListener {
+
+    /**
+     * Called without any lock held, after the changes have been applied.
+     *
+     * @param batch The changes since the previous flush, never empty. Shared between all listeners, must not be retained after returning.
+     */
+    void onChanges(LightChangeBatch batch);
+
+}
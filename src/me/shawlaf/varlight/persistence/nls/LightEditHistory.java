@@ -0,0 +1,336 @@
+package me.shawlaf.varlight.persistence.nls;
+
+import me.shawlaf.varlight.util.IntPosition;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.function.Consumer;
+
+/**
+ * An undo / redo history of edits made to an {@link NLSFile}, or to a Region through any other {@link Target}.
+ * <p>
+ * Edits are recorded as deltas of the changed blocks (position, old and new light level),
+ * consecutive blocks along the X axis with the same old and new light level are collapsed into a single run, so that bulk fills stay small.
+ * The deltas are kept in a ring buffer bounded by a byte budget, once it is exceeded the oldest edits are forgotten.
+ * Edits, undos and redos are each applied under a single lock of the {@link NLSFile}.
+ * An undo or redo, that fails halfway, stays on its stack, so it can be retried.
+ */
+public class LightEditHistory {
+
+    // [int64 start position][int16 length][int8 old light level << 4 | new light level]
+    private static final int SIZEOF_RUN = 11;
+    private static final int MAX_RUN_LENGTH = 0xFFFF;
+
+    private final Object lock = new Object();
+    private final Target target;
+    private final long maxBytes;
+
+    private final ArrayDeque<Delta> undo = new ArrayDeque<>();
+    private final ArrayDeque<Delta> redo = new ArrayDeque<>();
+    private long usedBytes = 0;
+
+    /**
+     * @param file     The {@link NLSFile} to edit
+     * @param maxBytes The maximum amount of bytes used by all recorded edits, edits larger than this cannot be undone
+     */
+    public LightEditHistory(@NotNull NLSFile file, long maxBytes) {
+        this(Objects.requireNonNull(file)::edit, maxBytes);
+    }
+
+    /**
+     * @param target   Applies the edits, e.g. to a Region held by a {@code WorldLightStore}, so they are journaled and count against its budget
+     * @param maxBytes The maximum amount of bytes used by all recorded edits, edits larger than this cannot be undone
+     */
+    public LightEditHistory(@NotNull Target target, long maxBytes) {
+        Objects.requireNonNull(target);
+
+        if (maxBytes < 0) {
+            throw new IllegalArgumentException("maxBytes must be >= 0");
+        }
+
+        this.target = target;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Applies {@code edit} to the {@link NLSFile} and records its changes as a single undoable step, clearing all redoable steps.
+     *
+     * @param edit Performs the changes through the passed {@link NLSFile.Editor}
+     * @return The amount of blocks changed by the edit
+     */
+    public long edit(@NotNull Consumer<NLSFile.Editor> edit) {
+        Objects.requireNonNull(edit);
+
+        DeltaBuilder builder = new DeltaBuilder();
+
+        try {
+            target.edit(editor -> edit.accept(new NLSFile.Editor() {
+                @Override
+                public int getCustomLuminance(int x, int y, int z) {
+                    return editor.getCustomLuminance(x, y, z);
+                }
+
+                @Override
+                public void setCustomLuminance(int x, int y, int z, int value) {
+                    int old = editor.getCustomLuminance(x, y, z);
+
+                    editor.setCustomLuminance(x, y, z, value);
+                    builder.record(x, y, z, old, value);
+                }
+            }));
+        } finally {
+            // Also record the changes of an edit that failed halfway, so it can still be undone
+
+            Delta delta = builder.build();
+
+            if (delta.blocks > 0) {
+                synchronized (lock) {
+                    while (!redo.isEmpty()) {
+                        usedBytes -= redo.removeLast().size();
+                    }
+
+                    push(undo, delta);
+                }
+            }
+        }
+
+        return builder.blocks;
+    }
+
+    /**
+     * Reverts the most recent edit.
+     *
+     * @return Whether there was an edit to undo
+     */
+    public boolean undo() {
+        synchronized (lock) {
+            Delta delta = undo.pollLast();
+
+            if (delta == null) {
+                return false;
+            }
+
+            usedBytes -= delta.size();
+
+            try {
+                target.edit(delta::revert);
+            } catch (RuntimeException | Error e) {
+                // Setting the old light levels again is harmless, so the step can simply be retried
+
+                undo.addLast(delta);
+                usedBytes += delta.size();
+
+                throw e;
+            }
+
+            push(redo, delta);
+
+            return true;
+        }
+    }
+
+    /**
+     * Re-applies the most recently undone edit.
+     *
+     * @return Whether there was an edit to redo
+     */
+    public boolean redo() {
+        synchronized (lock) {
+            Delta delta = redo.pollLast();
+
+            if (delta == null) {
+                return false;
+            }
+
+            usedBytes -= delta.size();
+
+            try {
+                target.edit(delta::apply);
+            } catch (RuntimeException | Error e) {
+                redo.addLast(delta);
+                usedBytes += delta.size();
+
+                throw e;
+            }
+
+            push(undo, delta);
+
+            return true;
+        }
+    }
+
+    public boolean canUndo() {
+        synchronized (lock) {
+            return !undo.isEmpty();
+        }
+    }
+
+    public boolean canRedo() {
+        synchronized (lock) {
+            return !redo.isEmpty();
+        }
+    }
+
+    public int getUndoCount() {
+        synchronized (lock) {
+            return undo.size();
+        }
+    }
+
+    public int getRedoCount() {
+        synchronized (lock) {
+            return redo.size();
+        }
+    }
+
+    /**
+     * @return The amount of bytes used by all recorded edits
+     */
+    public long getUsedBytes() {
+        synchronized (lock) {
+            return usedBytes;
+        }
+    }
+
+    public void clear() {
+        synchronized (lock) {
+            undo.clear();
+            redo.clear();
+            usedBytes = 0;
+        }
+    }
+
+    private void push(ArrayDeque<Delta> stack, Delta delta) {
+        stack.addLast(delta);
+        usedBytes += delta.size();
+
+        // Forget the oldest steps, undoable ones first
+
+        while (usedBytes > maxBytes && !undo.isEmpty()) {
+            usedBytes -= undo.removeFirst().size();
+        }
+
+        while (usedBytes > maxBytes && !redo.isEmpty()) {
+            usedBytes -= redo.removeFirst().size();
+        }
+    }
+
+    /**
+     * Applies the edits of a {@link LightEditHistory}.
+     */
+    @FunctionalInterface
+    public interface Target {
+
+        /**
+         * Runs {@code action} while the edited {@link NLSFile} is locked, see {@link NLSFile#edit(Consumer)}.
+         */
+        void edit(@NotNull Consumer<NLSFile.Editor> action);
+
+    }
+
+    private static class Delta {
+        private final byte[] runs;
+        private final long blocks;
+
+        private Delta(byte[] runs, long blocks) {
+            this.runs = runs;
+            this.blocks = blocks;
+        }
+
+        private int size() {
+            return runs.length;
+        }
+
+        private void apply(NLSFile.Editor editor) {
+            for (int offset = 0; offset < runs.length; offset += SIZEOF_RUN) {
+                applyRun(editor, offset, false);
+            }
+        }
+
+        private void revert(NLSFile.Editor editor) {
+            for (int offset = runs.length - SIZEOF_RUN; offset >= 0; offset -= SIZEOF_RUN) {
+                applyRun(editor, offset, true);
+            }
+        }
+
+        private void applyRun(NLSFile.Editor editor, int offset, boolean revert) {
+            long position = 0;
+
+            for (int i = 0; i < 8; ++i) {
+                position = position << 8 | (runs[offset + i] & 0xFF);
+            }
+
+            int length = (runs[offset + 8] & 0xFF) << 8 | (runs[offset + 9] & 0xFF);
+            int levels = runs[offset + 10] & 0xFF;
+            int value = revert ? levels >>> 4 : levels & 0xF;
+
+            int x = (int) (position >> 38);
+            int y = (int) (position & 0xFFF);
+            int z = (int) (position << 26 >> 38);
+
+            for (int i = 0; i < length; ++i) {
+                editor.setCustomLuminance(x + i, y, z, value);
+            }
+        }
+    }
+
+    private static class DeltaBuilder {
+        private byte[] runs = new byte[SIZEOF_RUN * 16];
+        private int size = 0;
+        private long blocks = 0;
+
+        private int runX, runY, runZ, runLength = 0, runOld, runNew;
+
+        private void record(int x, int y, int z, int oldValue, int newValue) {
+            if (oldValue == newValue) {
+                return;
+            }
+
+            ++blocks;
+
+            if (runLength > 0 && runLength < MAX_RUN_LENGTH && x == runX + runLength && y == runY && z == runZ && oldValue == runOld && newValue == runNew) {
+                ++runLength;
+                return;
+            }
+
+            flush();
+
+            runX = x;
+            runY = y;
+            runZ = z;
+            runOld = oldValue;
+            runNew = newValue;
+            runLength = 1;
+        }
+
+        private void flush() {
+            if (runLength == 0) {
+                return;
+            }
+
+            if (size + SIZEOF_RUN > runs.length) {
+                runs = Arrays.copyOf(runs, runs.length * 2);
+            }
+
+            long position = IntPosition.encode(runX, runY, runZ);
+
+            for (int i = 7; i >= 0; --i) {
+                runs[size++] = (byte) (position >>> (i * 8));
+            }
+
+            runs[size++] = (byte) (runLength >>> 8);
+            runs[size++] = (byte) runLength;
+            runs[size++] = (byte) (runOld << 4 | runNew);
+
+            runLength = 0;
+        }
+
+        private Delta build() {
+            flush();
+
+            return new Delta(Arrays.copyOf(runs, size), blocks);
+        }
+    }
+}
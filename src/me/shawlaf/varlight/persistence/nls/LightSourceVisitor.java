@@ -0,0 +1,17 @@
+package me.shawlaf.varlight.persistence.nls;
+
+/**
+ * Receives the Custom Light sources found by a spatial query, without allocating a position per result.
+ */
+@FunctionalInterface
+public interface LightSourceVisitor {
+
+    /**
+     * @param x          The X Coordinate of the Light source
+     * @param y          The Y Coordinate of the Light source
+     * @param z          The Z Coordinate of the Light source
+     * @param lightLevel The Custom Luminance of the Light source, always in range 1-15
+     */
+    void visit(int x, int y, int z, int lightLevel);
+
+}
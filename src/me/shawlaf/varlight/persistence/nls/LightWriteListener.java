@@ -0,0 +1,21 @@
+package me.shawlaf.varlight.persistence.nls;
+
+/**
+ * Notified about every change of Custom Luminance in an {@link NLSFile} as it happens, see {@link NLSFile#setWriteListener(LightWriteListener)}.
+ * Unlike {@link LightChangeListener}s, changes are neither buffered nor coalesced, e.g. to append them to a write-ahead log.
+ */
+@FunctionalInterface
+public interface LightWriteListener {
+
+    /**
+     * Called while the {@link NLSFile} is locked, after the change has been applied. Implementations must not access the file.
+     * Exceptions are passed on to the caller of the change, the change itself is kept.
+     *
+     * @param x          The X Coordinate of the block
+     * @param y          The Y Coordinate of the block
+     * @param z          The Z Coordinate of the block
+     * @param lightLevel The new Custom Luminance, {@code 0} if the Light source was removed
+     */
+    void onWrite(int x, int y, int z, int lightLevel);
+
+}
@@ -1,23 +1,24 @@
 package me.shawlaf.varlight.persistence.nls;
 
 import lombok.Getter;
-import me.shawlaf.varlight.persistence.nls.io.NLSInputStream;
-import me.shawlaf.varlight.persistence.nls.io.NLSOutputStream;
+import me.shawlaf.varlight.persistence.nls.io.NLSChannelReader;
+import me.shawlaf.varlight.persistence.nls.io.NLSChannelWriter;
+import me.shawlaf.varlight.util.BlockVolume;
 import me.shawlaf.varlight.util.ChunkCoords;
 import me.shawlaf.varlight.util.FileUtil;
 import me.shawlaf.varlight.util.IntPosition;
 import me.shawlaf.varlight.util.RegionCoords;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.io.EOFException;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
+import java.util.function.Consumer;
 import java.util.logging.Logger;
-import java.util.zip.GZIPOutputStream;
 
 public class NLSFile {
 
@@ -31,15 +32,38 @@ public class NLSFile {
     @Getter
     private final int regionX, regionZ;
     private final boolean deflate;
+    @Getter
+    private final NibbleOrder order;
 
     private boolean modified;
+    private boolean unloaded; // Unloaded files reject all changes, their contents are gone
 
     private ChunkLightStorage[] chunks = new ChunkLightStorage[32 * 32];
     @Getter
     private int nonEmptyChunks = 0;
+    private int sectionCount = 0;
+
+    private SectionMaskListener maskListener;
+    private LightWriteListener writeListener;
+
+    private final List<LightChangeListener> changeListeners = new ArrayList<>();
+    private LightChangeBuffer changes; // Only recording while there are change listeners
+
+    private final Editor editor = new Editor() {
+        @Override
+        public int getCustomLuminance(int x, int y, int z) {
+            return getCustomLuminance0(new IntPosition(x, y, z));
+        }
+
+        @Override
+        public void setCustomLuminance(int x, int y, int z, int value) {
+            setCustomLuminance0(new IntPosition(x, y, z), value);
+        }
+    };
 
-    private NLSFile(@NotNull File file, int regionX, int regionZ, boolean deflate) {
+    private NLSFile(@NotNull File file, int regionX, int regionZ, boolean deflate, @NotNull NibbleOrder order) {
         Objects.requireNonNull(file);
+        Objects.requireNonNull(order);
 
         if (file.exists()) {
             throw new IllegalArgumentException("File already exists!");
@@ -47,13 +71,15 @@ public class NLSFile {
 
         this.file = file;
         this.deflate = deflate;
+        this.order = order;
 
         this.regionX = regionX;
         this.regionZ = regionZ;
     }
 
-    private NLSFile(@NotNull File file, boolean deflate) throws IOException {
+    private NLSFile(@NotNull File file, boolean deflate, @NotNull NibbleOrder order) throws IOException {
         Objects.requireNonNull(file);
+        Objects.requireNonNull(order);
 
         if (!file.exists()) {
             throw new IllegalArgumentException("File does not exist");
@@ -61,9 +87,10 @@ public class NLSFile {
 
         this.file = file;
         this.deflate = deflate;
+        this.order = order;
 
         synchronized (lock) {
-            try (NLSInputStream in = openNLSFile(file)) {
+            try (NLSChannelReader in = NLSChannelReader.open(file)) {
                 in.verifyNLSMagic();
 
                 int version = in.readInt32();
@@ -83,13 +110,14 @@ public class NLSFile {
                             throw new IllegalStateException(String.format("Duplicate Chunk Information for Chunk %s found in File %s", NLSUtil.fromEncoded(regionX, regionZ, position), file.getAbsolutePath()));
                         }
 
-                        ChunkLightStorage cls = ChunkLightStorage.read(position, regionX, regionZ, in);
+                        ChunkLightStorage cls = ChunkLightStorage.read(position, regionX, regionZ, in, order);
 
                         if (cls.isEmpty()) {
                             LOGGER.warning(String.format("Not loading Chunk %s because it is empty", NLSUtil.fromEncoded(regionX, regionZ, position).toShortString()));
                         } else {
                             chunks[position] = cls;
                             ++nonEmptyChunks;
+                            sectionCount += cls.getSectionCount();
                         }
                     }
                 } catch (EOFException e) {
@@ -100,19 +128,33 @@ public class NLSFile {
     }
 
     public static NLSFile newFile(@NotNull File file, int regionX, int regionZ) {
-        return new NLSFile(file, regionX, regionZ, true);
+        return new NLSFile(file, regionX, regionZ, true, NibbleOrder.VARLIGHT);
     }
 
     public static NLSFile newFile(@NotNull File file, int regionX, int regionZ, boolean deflate) {
-        return new NLSFile(file, regionX, regionZ, deflate);
+        return new NLSFile(file, regionX, regionZ, deflate, NibbleOrder.VARLIGHT);
+    }
+
+    /**
+     * @param order The {@link NibbleOrder} sections are kept in memory, the file on disk always uses {@link NibbleOrder#VARLIGHT}
+     */
+    public static NLSFile newFile(@NotNull File file, int regionX, int regionZ, boolean deflate, @NotNull NibbleOrder order) {
+        return new NLSFile(file, regionX, regionZ, deflate, order);
     }
 
     public static NLSFile existingFile(@NotNull File file) throws IOException {
-        return new NLSFile(file, true);
+        return new NLSFile(file, true, NibbleOrder.VARLIGHT);
     }
 
     public static NLSFile existingFile(@NotNull File file, boolean deflate) throws IOException {
-        return new NLSFile(file, deflate);
+        return new NLSFile(file, deflate, NibbleOrder.VARLIGHT);
+    }
+
+    /**
+     * @param order The {@link NibbleOrder} sections are kept in memory, the file on disk always uses {@link NibbleOrder#VARLIGHT}
+     */
+    public static NLSFile existingFile(@NotNull File file, boolean deflate, @NotNull NibbleOrder order) throws IOException {
+        return new NLSFile(file, deflate, order);
     }
 
     public RegionCoords getRegionCoords() {
@@ -121,51 +163,92 @@ public class NLSFile {
 
     public int getCustomLuminance(IntPosition position) {
         synchronized (lock) {
-            ChunkLightStorage chunk = chunks[chunkIndex(position.toChunkCoords())];
+            return getCustomLuminance0(position);
+        }
+    }
 
-            if (chunk == null) {
-                return 0;
-            }
+    public void setCustomLuminance(IntPosition position, int value) {
+        synchronized (lock) {
+            assertLoaded();
+            setCustomLuminance0(position, value);
+        }
+    }
 
-            return chunk.getCustomLuminance(position);
+    /**
+     * Runs {@code action} while this file is locked, so that many changes are applied at once, e.g. a large paste.
+     * The {@link Editor} passed to {@code action} must not be used after {@code action} returns.
+     */
+    public void edit(@NotNull Consumer<Editor> action) {
+        Objects.requireNonNull(action);
+
+        synchronized (lock) {
+            assertLoaded();
+            action.accept(editor);
         }
     }
 
-    public void setCustomLuminance(IntPosition position, int value) {
+    private int getCustomLuminance0(IntPosition position) {
+        ChunkLightStorage chunk = chunks[chunkIndex(position.toChunkCoords())];
+
+        if (chunk == null) {
+            return 0;
+        }
+
+        return chunk.getCustomLuminance(position);
+    }
+
+    private void setCustomLuminance0(IntPosition position, int value) {
         ChunkCoords chunkCoords = position.toChunkCoords();
         int index = chunkIndex(chunkCoords);
 
-        synchronized (lock) {
-            ChunkLightStorage chunk = chunks[index];
+        ChunkLightStorage chunk = chunks[index];
 
-            if (chunk == null) {
-                if (value == 0) {
-                    return;
-                }
+        if (chunk == null) {
+            if (value == 0) {
+                return;
+            }
 
-                chunk = new ChunkLightStorage(chunkCoords);
+            chunk = new ChunkLightStorage(chunkCoords.x, chunkCoords.z, order);
 
-                chunk.setCustomLuminance(position, value);
+            chunk.setCustomLuminance(position, value);
 
-                // The value set is not 0 -> The chunk is not empty, if the value is illegal, an exception will be thrown
+            // The value set is not 0 -> The chunk is not empty, if the value is illegal, an exception will be thrown
 
-                chunks[index] = chunk;
-                ++nonEmptyChunks;
+            chunks[index] = chunk;
+            ++nonEmptyChunks;
+            ++sectionCount;
+            modified = true;
 
-            } else {
-                if (chunk.getCustomLuminance(position) == value) {
-                    return;
-                }
+            notifyMaskChanged(chunk.getChunkX(), chunk.getChunkZ(), chunk.getMask());
+            recordChange(position.x, position.y, position.z, 0, value);
 
-                chunk.setCustomLuminance(position, value);
+        } else {
+            int old = chunk.getCustomLuminance(position);
 
-                if (value == 0 && chunk.isEmpty()) { // If the last Light source was removed
-                    chunks[index] = null;
-                    --nonEmptyChunks;
-                }
+            if (old == value) {
+                return;
+            }
+
+            int maskBefore = chunk.getMask();
+
+            chunk.setCustomLuminance(position, value);
+
+            int mask = chunk.getMask();
+
+            sectionCount += Integer.bitCount(mask) - Integer.bitCount(maskBefore);
+
+            if (value == 0 && chunk.isEmpty()) { // If the last Light source was removed
+                chunks[index] = null;
+                --nonEmptyChunks;
             }
 
             modified = true;
+
+            if (mask != maskBefore) {
+                notifyMaskChanged(chunk.getChunkX(), chunk.getChunkZ(), mask);
+            }
+
+            recordChange(position.x, position.y, position.z, old, value);
         }
     }
 
@@ -199,13 +282,26 @@ public class NLSFile {
         int index = chunkIndex(chunkCoords);
 
         synchronized (lock) {
-            if (chunks[index] == null || chunks[index].isEmpty()) {
+            assertLoaded();
+
+            ChunkLightStorage cleared = chunks[index];
+
+            if (cleared == null || cleared.isEmpty()) {
                 return;
             }
 
+            sectionCount -= cleared.getSectionCount();
             chunks[index] = null;
             --nonEmptyChunks;
             modified = true;
+
+            notifyMaskChanged(chunkCoords.x, chunkCoords.z, 0);
+
+            if (changes != null || writeListener != null) {
+                for (int sectionY = 0; sectionY < 16; ++sectionY) {
+                    cleared.forEachLightSource(sectionY, (x, y, z, lightLevel) -> recordChange(x, y, z, lightLevel, 0));
+                }
+            }
         }
     }
 
@@ -221,20 +317,172 @@ public class NLSFile {
         }
     }
 
+    /**
+     * @param chunkX The X Coordinate of a chunk within this Region
+     * @param chunkZ The Z Coordinate of a chunk within this Region
+     * @return The mask of non-empty sections of the chunk
+     */
+    public int getMask(int chunkX, int chunkZ) {
+        synchronized (lock) {
+            ChunkLightStorage cls = chunks[chunkIndex(chunkX & 0x1F, chunkZ & 0x1F)];
+
+            if (cls == null) {
+                return 0;
+            }
+
+            return cls.getMask();
+        }
+    }
+
+    /**
+     * <p>Sets the {@link SectionMaskListener} notified about changes to the section masks of this file, replacing any previous listener.</p>
+     * <p>The new listener is immediately notified about the masks of all chunks currently holding light data.</p>
+     *
+     * @param listener The listener, or {@code null} to remove the current listener
+     */
+    public void setMaskListener(@Nullable SectionMaskListener listener) {
+        synchronized (lock) {
+            this.maskListener = listener;
+
+            if (listener == null) {
+                return;
+            }
+
+            for (ChunkLightStorage cls : chunks) {
+                if (cls != null) {
+                    listener.onMaskChanged(cls.getChunkX(), cls.getChunkZ(), cls.getMask());
+                }
+            }
+        }
+    }
+
+    /**
+     * Sets the {@link LightWriteListener} notified about every change made to this file from now on, replacing any previous listener.
+     *
+     * @param listener The listener, or {@code null} to remove the current listener
+     */
+    public void setWriteListener(@Nullable LightWriteListener listener) {
+        synchronized (lock) {
+            this.writeListener = listener;
+        }
+    }
+
+    /**
+     * <p>Registers a {@link LightChangeListener}, from now on changes to this file are collected until {@link NLSFile#flushChanges()} is called.</p>
+     * <p>Repeated changes to the same block are coalesced, so flushing once per tick delivers at most one change per block and tick.</p>
+     */
+    public void addChangeListener(@NotNull LightChangeListener listener) {
+        Objects.requireNonNull(listener);
+
+        synchronized (lock) {
+            changeListeners.add(listener);
+
+            if (changes == null) {
+                changes = new LightChangeBuffer();
+            }
+        }
+    }
+
+    /**
+     * Unregisters a {@link LightChangeListener}, once the last listener is removed, collected changes are discarded and no further changes are collected.
+     */
+    public void removeChangeListener(@NotNull LightChangeListener listener) {
+        synchronized (lock) {
+            changeListeners.remove(listener);
+
+            if (changeListeners.isEmpty()) {
+                changes = null;
+            }
+        }
+    }
+
+    /**
+     * Delivers all changes collected since the previous flush to the registered {@link LightChangeListener}s as a single batch.
+     *
+     * @return The amount of delivered changes
+     */
+    public int flushChanges() {
+        LightChangeBatch batch;
+        LightChangeListener[] listeners;
+
+        synchronized (lock) {
+            if (changes == null || (batch = changes.drain()) == null) {
+                return 0;
+            }
+
+            listeners = changeListeners.toArray(new LightChangeListener[0]);
+        }
+
+        for (LightChangeListener listener : listeners) {
+            listener.onChanges(batch);
+        }
+
+        return batch.size();
+    }
+
+    /**
+     * @return The amount of non-empty chunk sections (2048 bytes of light data each) currently held in memory.
+     */
+    public int getSectionCount() {
+        synchronized (lock) {
+            return sectionCount;
+        }
+    }
+
+    public boolean isModified() {
+        synchronized (lock) {
+            return modified;
+        }
+    }
+
+    /**
+     * Unloads this file, unless it has been modified since it was last saved.
+     *
+     * @return Whether the file was unloaded
+     */
+    public boolean unloadIfSaved() {
+        synchronized (lock) {
+            if (modified) {
+                return false;
+            }
+
+            unload();
+
+            return true;
+        }
+    }
+
+    /**
+     * @return Whether {@link NLSFile#unload()} has been called, changes and saves are rejected from then on
+     */
+    public boolean isUnloaded() {
+        synchronized (lock) {
+            return unloaded;
+        }
+    }
+
     public boolean saveAndUnload() throws IOException {
-        boolean saved = save();
-        unload();
+        synchronized (lock) { // No change may slip in between saving and unloading
+            boolean saved = save();
+            unload();
 
-        return saved;
+            return saved;
+        }
     }
 
     public boolean save() throws IOException {
         synchronized (lock) {
             if (!modified) {
-                return false;
+                return false; // Also covers Regions, that were saved before being unloaded
             }
 
-            try (NLSOutputStream out = new NLSOutputStream(deflate ? new GZIPOutputStream(new FileOutputStream(file)) : new FileOutputStream(file))) {
+            assertLoaded(); // Only a Region unloaded while dirty gets here, writing it would lose all data not in memory anymore
+
+            // Write to a temporary file first, so the Region file is never seen half written
+
+            File tmp = new File(file.getAbsoluteFile().getParentFile(), file.getName() + ".tmp");
+
+            try (NLSChannelWriter out = NLSChannelWriter.open(tmp, deflate)) {
                 out.writeHeader(regionX, regionZ);
                 ChunkLightStorage cls;
 
@@ -250,12 +498,39 @@ public class NLSFile {
                 }
             }
 
+            FileUtil.moveAtomically(tmp, file);
+
             modified = false;
         }
 
         return true;
     }
 
+    /**
+     * <p>Captures the current contents of this file without copying any light data.</p>
+     * <p>Sections are shared between this file and the snapshot until this file modifies them, only then the affected section is copied.</p>
+     *
+     * @return A {@link NLSSnapshot} that can be written while this file continues to be modified
+     */
+    @NotNull
+    public NLSSnapshot createSnapshot() {
+        synchronized (lock) {
+            int[] chunkIndices = new int[nonEmptyChunks];
+            NibbleArray[][] sections = new NibbleArray[nonEmptyChunks][];
+
+            for (int i = 0, j = 0; i < chunks.length; ++i) {
+                if (chunks[i] == null) {
+                    continue;
+                }
+
+                chunkIndices[j] = i;
+                sections[j++] = chunks[i].share();
+            }
+
+            return new NLSSnapshot(regionX, regionZ, deflate, chunkIndices, sections);
+        }
+    }
+
     public List<ChunkCoords> getAffectedChunks() {
         List<ChunkCoords> list = new ArrayList<>(nonEmptyChunks);
         int found = 0;
@@ -305,6 +580,175 @@ public class NLSFile {
         return all;
     }
 
+    /**
+     * <p>Visits all Light sources of this Region within the {@link BlockVolume}.</p>
+     * <p>Only chunks holding light data and sections intersecting the volume are scanned.
+     * The {@link LightSourceVisitor} is called while this file is locked and must not modify it.</p>
+     *
+     * @return The amount of visited Light sources
+     */
+    public int forEachLightSource(@NotNull BlockVolume volume, @NotNull LightSourceVisitor visitor) {
+        Objects.requireNonNull(volume);
+        Objects.requireNonNull(visitor);
+
+        final int baseX = regionX << 5;
+        final int baseZ = regionZ << 5;
+
+        final int minCx = Math.max(volume.minX >> 4, baseX);
+        final int maxCx = Math.min(volume.maxX >> 4, baseX + 31);
+        final int minCz = Math.max(volume.minZ >> 4, baseZ);
+        final int maxCz = Math.min(volume.maxZ >> 4, baseZ + 31);
+
+        int visited = 0;
+
+        synchronized (lock) {
+            for (int cz = minCz; cz <= maxCz; ++cz) {
+                for (int cx = minCx; cx <= maxCx; ++cx) {
+                    ChunkLightStorage cls = chunks[chunkIndex(cx - baseX, cz - baseZ)];
+
+                    if (cls == null || !volume.intersects(cx << 4, 0, cz << 4, (cx << 4) + 15, 255, (cz << 4) + 15)) {
+                        continue;
+                    }
+
+                    visited += cls.forEachLightSource(volume, visitor);
+                }
+            }
+        }
+
+        return visited;
+    }
+
+    /**
+     * Visits all Light sources in a single chunk section of this Region, the {@link LightSourceVisitor} must not modify this file.
+     *
+     * @return The amount of visited Light sources
+     */
+    public int forEachLightSource(int chunkX, int sectionY, int chunkZ, @NotNull LightSourceVisitor visitor) {
+        Objects.requireNonNull(visitor);
+
+        synchronized (lock) {
+            ChunkLightStorage cls = chunks[chunkIndex(chunkX & 0x1F, chunkZ & 0x1F)];
+
+            if (cls == null) {
+                return 0;
+            }
+
+            return cls.forEachLightSource(sectionY, visitor);
+        }
+    }
+
+    /**
+     * Copies the light data of a single chunk section into {@code dst}, e.g. to build a packet or to feed the server's light engine.
+     * No conversion takes place if {@code order} matches the {@link NibbleOrder} of this file.
+     *
+     * @param dst    Receives the 2048 bytes of light data
+     * @param offset The offset in {@code dst} at which to start writing
+     * @return {@code false} if the section holds no light data, {@code dst} is left untouched in that case
+     */
+    public boolean exportSection(int chunkX, int sectionY, int chunkZ, byte[] dst, int offset, @NotNull NibbleOrder order) {
+        Objects.requireNonNull(order);
+
+        synchronized (lock) {
+            ChunkLightStorage cls = chunks[chunkIndex(chunkX & 0x1F, chunkZ & 0x1F)];
+
+            if (cls == null) {
+                return false;
+            }
+
+            return cls.copySection(sectionY, dst, offset, order);
+        }
+    }
+
+    /**
+     * Replaces the light data of a single chunk section.
+     *
+     * @param src    The 2048 bytes of light data
+     * @param offset The offset in {@code src} at which the light data starts
+     * @param order  The {@link NibbleOrder} of {@code src}
+     */
+    public void importSection(int chunkX, int sectionY, int chunkZ, byte[] src, int offset, @NotNull NibbleOrder order) {
+        Objects.requireNonNull(order);
+
+        int index = chunkIndex(chunkX & 0x1F, chunkZ & 0x1F);
+
+        synchronized (lock) {
+            assertLoaded();
+
+            ChunkLightStorage chunk = chunks[index];
+
+            if (chunk == null) {
+                chunk = new ChunkLightStorage((regionX << 5) + (chunkX & 0x1F), (regionZ << 5) + (chunkZ & 0x1F), this.order);
+            }
+
+            byte[] before = null;
+
+            if (changes != null || writeListener != null) {
+                before = new byte[2048];
+                chunk.copySection(sectionY, before, 0, NibbleOrder.VARLIGHT);
+            }
+
+            int maskBefore = chunk.getMask();
+
+            chunk.setSection(sectionY, src, offset, order);
+
+            int mask = chunk.getMask();
+
+            if (maskBefore == 0 && mask == 0) {
+                return; // An empty section was imported into an empty chunk
+            }
+
+            sectionCount += Integer.bitCount(mask) - Integer.bitCount(maskBefore);
+
+            if (maskBefore == 0 && mask != 0) {
+                chunks[index] = chunk;
+                ++nonEmptyChunks;
+            } else if (maskBefore != 0 && mask == 0) {
+                chunks[index] = null;
+                --nonEmptyChunks;
+            }
+
+            modified = true;
+
+            if (mask != maskBefore) {
+                notifyMaskChanged(chunk.getChunkX(), chunk.getChunkZ(), mask);
+            }
+
+            if (before != null) {
+                recordSectionChanges(chunk, sectionY, before);
+            }
+        }
+    }
+
+    /**
+     * @return The modification stamp of the chunk, which changes whenever its light data changes, {@code 0} if the chunk holds no light data
+     * @see ChunkPayloadCache
+     */
+    public long getModificationStamp(int chunkX, int chunkZ) {
+        synchronized (lock) {
+            ChunkLightStorage cls = chunks[chunkIndex(chunkX & 0x1F, chunkZ & 0x1F)];
+
+            return cls == null ? 0 : cls.getModificationStamp();
+        }
+    }
+
+    /**
+     * @return The light data of the chunk, see {@link ChunkLightStorage#encodePayload(NibbleOrder)}, or {@code null} if the chunk holds no light data
+     */
+    @Nullable
+    public byte[] encodeChunkPayload(int chunkX, int chunkZ, @NotNull NibbleOrder order) {
+        Objects.requireNonNull(order);
+
+        synchronized (lock) {
+            ChunkLightStorage cls = chunks[chunkIndex(chunkX & 0x1F, chunkZ & 0x1F)];
+
+            return cls == null ? null : cls.encodePayload(order);
+        }
+    }
+
+    /**
+     * <p>Drops all light data held in memory. Afterwards, this file rejects all changes with an {@link IllegalStateException}, as well as saves if it was unloaded while modified.
+     * The Region has to be read again through {@link NLSFile#existingFile(File)}.</p>
+     */
     public void unload() {
         if (modified) {
             LOGGER.warning("Unloading dirty NLS File " + file.getName());
@@ -312,6 +756,8 @@ public class NLSFile {
         }
 
         synchronized (lock) {
+            unloaded = true;
+
             for (int i = 0; i < chunks.length; ++i) {
                 if (chunks[i] == null) {
                     continue;
@@ -320,11 +766,64 @@ public class NLSFile {
                 chunks[i].unload();
                 chunks[i] = null;
             }
+
+            nonEmptyChunks = 0;
+            sectionCount = 0;
+        }
+    }
+
+    /**
+     * Accesses an {@link NLSFile} while it is locked, see {@link NLSFile#edit(Consumer)}.
+     */
+    public interface Editor {
+
+        int getCustomLuminance(int x, int y, int z);
+
+        void setCustomLuminance(int x, int y, int z, int value);
+
+    }
+
+    private void recordSectionChanges(ChunkLightStorage chunk, int sectionY, byte[] before) {
+        byte[] after = new byte[before.length];
+        chunk.copySection(sectionY, after, 0, NibbleOrder.VARLIGHT);
+
+        for (int i = 0; i < before.length; ++i) {
+            if (before[i] == after[i]) {
+                continue;
+            }
+
+            for (int index = i << 1; index <= (i << 1 | 1); ++index) {
+                int shift = (index & 1) == 0 ? 4 : 0;
+                int old = (before[i] >>> shift) & 0xF;
+                int value = (after[i] >>> shift) & 0xF;
+
+                if (old != value) {
+                    recordChange((chunk.getChunkX() << 4) | (index & 0xF), (sectionY << 4) | ((index >>> 8) & 0xF), (chunk.getChunkZ() << 4) | ((index >>> 4) & 0xF), old, value);
+                }
+            }
         }
     }
 
-    private NLSInputStream openNLSFile(File file) throws IOException {
-        return new NLSInputStream(FileUtil.openStreamInflate(file));
+    private void assertLoaded() {
+        if (unloaded) {
+            throw new IllegalStateException(String.format("NLS File %s has been unloaded", file.getName()));
+        }
+    }
+
+    private void recordChange(int x, int y, int z, int old, int value) {
+        if (changes != null) {
+            changes.record(x, y, z, old, value);
+        }
+
+        if (writeListener != null) {
+            writeListener.onWrite(x, y, z, value);
+        }
+    }
+
+    private void notifyMaskChanged(int chunkX, int chunkZ, int mask) {
+        if (maskListener != null) {
+            maskListener.onMaskChanged(chunkX, chunkZ, mask);
+        }
     }
 
     private int chunkIndex(ChunkCoords chunkCoords) {
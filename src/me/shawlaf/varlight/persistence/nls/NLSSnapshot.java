@@ -0,0 +1,60 @@
+package me.shawlaf.varlight.persistence.nls;
+
+import lombok.Getter;
+import me.shawlaf.varlight.persistence.nls.io.NLSChannelWriter;
+import me.shawlaf.varlight.util.FileUtil;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Objects;
+
+/**
+ * A point-in-time view of an {@link NLSFile}, see {@link NLSFile#createSnapshot()}.
+ * <p>
+ * The snapshot shares the section data with the {@link NLSFile} it was taken from, sections are only copied once the {@link NLSFile} modifies them.
+ */
+public class NLSSnapshot {
+
+    @Getter
+    private final int regionX, regionZ;
+    private final boolean deflate;
+
+    private final int[] chunkIndices;
+    private final NibbleArray[][] sections;
+
+    NLSSnapshot(int regionX, int regionZ, boolean deflate, int[] chunkIndices, NibbleArray[][] sections) {
+        this.regionX = regionX;
+        this.regionZ = regionZ;
+        this.deflate = deflate;
+        this.chunkIndices = chunkIndices;
+        this.sections = sections;
+    }
+
+    public int getChunkCount() {
+        return chunkIndices.length;
+    }
+
+    /**
+     * Writes the snapshot in the NLS Format, replacing {@code target} once it has been written completely.
+     *
+     * @param target The file to write
+     * @throws IOException If an {@link IOException} occurs while writing.
+     */
+    public void write(@NotNull File target) throws IOException {
+        Objects.requireNonNull(target);
+
+        File tmp = new File(target.getAbsoluteFile().getParentFile(), target.getName() + ".tmp");
+
+        try (NLSChannelWriter out = NLSChannelWriter.open(tmp, deflate)) {
+            out.writeHeader(regionX, regionZ);
+
+            for (int i = 0; i < chunkIndices.length; ++i) {
+                out.writeInt16(chunkIndices[i]);
+                ChunkLightStorage.writeSections(out, sections[i]);
+            }
+        }
+
+        FileUtil.moveAtomically(tmp, target);
+    }
+}
@@ -4,50 +4,64 @@ import me.shawlaf.varlight.util.Preconditions;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.Arrays;
+import java.util.Objects;
 
 public class NibbleArray {
 
+    private static final long LOW_NIBBLES = 0x0F0F0F0F0F0F0F0FL;
+
     protected final byte[] array;
+    protected final NibbleOrder order;
 
     public NibbleArray(int size) {
+        this(size, NibbleOrder.VARLIGHT);
+    }
+
+    public NibbleArray(int size, NibbleOrder order) {
         if ((size & 1) != 0) {
             throw new IllegalArgumentException("Odd values not allowed");
         }
 
         this.array = new byte[size >> 1];
+        this.order = Objects.requireNonNull(order);
     }
 
     public NibbleArray(byte[] array) {
+        this(array, NibbleOrder.VARLIGHT);
+    }
+
+    /**
+     * @param array The data to copy
+     * @param order The {@link NibbleOrder} of {@code array}, which is also used to store the data
+     */
+    public NibbleArray(byte[] array, NibbleOrder order) {
         this.array = Arrays.copyOf(array, array.length);
+        this.order = Objects.requireNonNull(order);
     }
 
     public int length() {
         return array.length * 2;
     }
 
-    public int get(int index) {
-        int b = array[index / 2];
+    public NibbleOrder getOrder() {
+        return order;
+    }
 
-        if ((index & 1) == 0) {
-            return (b >>> 4) & 0xF;
-        }
+    public int get(int index) {
+        int shift = (index & 1) == 0 ? order.evenShift : 4 - order.evenShift;
 
-        return b & 0xF;
+        return (array[index >> 1] >>> shift) & 0xF;
     }
 
     public void set(int index, int value) {
         Preconditions.assertInRange("value", value, 0x0, 0xF);
 
-        int b = array[index >> 1];
+        int shift = (index & 1) == 0 ? order.evenShift : 4 - order.evenShift;
 
-        if ((index & 1) == 0) {
-            b = (value << 4) | (b & 0x0F);
-        } else {
-            b = (b & 0xF0) | value;
-        }
-
-        array[index >> 1] = (byte) b;
+        array[index >> 1] = (byte) ((array[index >> 1] & ~(0xF << shift)) | (value << shift));
     }
 
     @Deprecated
@@ -61,13 +75,75 @@ public class NibbleArray {
         return true;
     }
 
+    /**
+     * @return A copy of the data in the {@link NibbleOrder} of this array
+     */
     public byte[] toByteArray() {
         return Arrays.copyOf(array, array.length);
     }
 
+    /**
+     * @return A copy of the data in the specified {@link NibbleOrder}
+     */
+    public byte[] toByteArray(NibbleOrder order) {
+        byte[] result = new byte[array.length];
+
+        copyTo(result, 0, order);
+
+        return result;
+    }
+
+    /**
+     * Copies the data into {@code dst} in the specified {@link NibbleOrder}, without any conversion if it matches the order of this array.
+     */
+    public void copyTo(byte[] dst, int offset, NibbleOrder order) {
+        if (order == this.order) {
+            System.arraycopy(array, 0, dst, offset, array.length);
+        } else {
+            swapNibbles(array, 0, dst, offset, array.length);
+        }
+    }
+
+    /**
+     * @return This array if it already uses the specified {@link NibbleOrder}, otherwise a converted copy
+     */
+    public NibbleArray withOrder(NibbleOrder order) {
+        if (order == this.order) {
+            return this;
+        }
+
+        NibbleArray result = new NibbleArray(length(), order);
+        swapNibbles(array, 0, result.array, 0, array.length);
+
+        return result;
+    }
+
     public void write(OutputStream out) throws IOException {
         out.write(array, 0, array.length);
     }
 
+    /**
+     * Swaps the high and low nibble of {@code length} bytes, converting between the two {@link NibbleOrder}s.
+     * Eight bytes are swapped at once, {@code src} and {@code dst} may be the same array.
+     */
+    public static void swapNibbles(byte[] src, int srcOffset, byte[] dst, int dstOffset, int length) {
+        // Heap ByteBuffer accesses in native byte order compile down to plain 8 byte loads and stores
 
+        ByteBuffer in = ByteBuffer.wrap(src).order(ByteOrder.nativeOrder());
+        ByteBuffer out = ByteBuffer.wrap(dst).order(ByteOrder.nativeOrder());
+
+        int i = 0;
+
+        for (; i + 8 <= length; i += 8) {
+            long word = in.getLong(srcOffset + i);
+
+            out.putLong(dstOffset + i, ((word >>> 4) & LOW_NIBBLES) | ((word & LOW_NIBBLES) << 4));
+        }
+
+        for (; i < length; ++i) {
+            int b = src[srcOffset + i];
+
+            dst[dstOffset + i] = (byte) (((b >>> 4) & 0xF) | ((b & 0xF) << 4));
+        }
+    }
 }
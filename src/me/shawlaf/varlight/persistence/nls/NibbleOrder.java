@@ -0,0 +1,23 @@
+package me.shawlaf.varlight.persistence.nls;
+
+/**
+ * The order in which the two nibbles of a byte in a {@link NibbleArray} are assigned to indices.
+ */
+public enum NibbleOrder {
+
+    /**
+     * The even index is stored in the high nibble, used by the NLS Format.
+     */
+    VARLIGHT(4),
+
+    /**
+     * The even index is stored in the low nibble, used by Minecraft's block light arrays.
+     */
+    NATIVE(0);
+
+    final int evenShift;
+
+    NibbleOrder(int evenShift) {
+        this.evenShift = evenShift;
+    }
+}
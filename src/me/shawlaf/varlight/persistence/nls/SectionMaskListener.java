@@ -0,0 +1,18 @@
+package me.shawlaf.varlight.persistence.nls;
+
+/**
+ * Notified whenever the mask of non-empty sections of a chunk in an {@link NLSFile} changes, see {@link NLSFile#setMaskListener(SectionMaskListener)}.
+ */
+@FunctionalInterface
+public interface SectionMaskListener {
+
+    /**
+     * Called while the {@link NLSFile} is locked, implementations must not access the file.
+     *
+     * @param chunkX The X Coordinate of the chunk
+     * @param chunkZ The Z Coordinate of the chunk
+     * @param mask   The new mask of non-empty sections, {@code 0} if the chunk no longer holds any light data
+     */
+    void onMaskChanged(int chunkX, int chunkZ, int mask);
+
+}
@@ -0,0 +1,141 @@
+package me.shawlaf.varlight.persistence.nls.io;
+
+import me.shawlaf.varlight.persistence.nls.NLSUtil;
+import me.shawlaf.varlight.util.CompressedFileInput;
+import me.shawlaf.varlight.util.FileUtil;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Reads the NLS Format (see {@link NLSOutputStream}) from a {@link ReadableByteChannel} through a single, reusable {@link ByteBuffer}.
+ * <p>
+ * Header fields are decoded straight from the buffer, bulk data is read directly into the destination array.
+ */
+public class NLSChannelReader implements Closeable {
+
+    public static final int BUFFER_SIZE = 8192;
+
+    private final ReadableByteChannel channel;
+    private final ByteBuffer buffer;
+
+    public NLSChannelReader(ReadableByteChannel channel) {
+        this(channel, BUFFER_SIZE);
+    }
+
+    public NLSChannelReader(ReadableByteChannel channel, int bufferSize) {
+        this.channel = channel;
+        this.buffer = ByteBuffer.allocate(bufferSize);
+
+        this.buffer.flip(); // Start out empty
+    }
+
+    public static NLSChannelReader open(File file) throws IOException {
+        CompressedFileInput in = FileUtil.openInflated(file);
+
+        try {
+            return new NLSChannelReader(in.getChannel());
+        } catch (IOException | RuntimeException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    public void verifyNLSMagic() throws IOException {
+        if (readInt32() != NLSUtil.NLS_MAGIC) {
+            throw new IllegalStateException("Could not Identify NLS Header");
+        }
+    }
+
+    public int readByte() throws IOException {
+        require(1);
+
+        return buffer.get() & 0xFF;
+    }
+
+    public int readInt16() throws IOException {
+        require(NLSUtil.SIZEOF_INT16);
+
+        return buffer.getShort() & 0xFFFF;
+    }
+
+    public int readInt32() throws IOException {
+        require(NLSUtil.SIZEOF_INT32);
+
+        return buffer.getInt();
+    }
+
+    public void readFully(byte[] dest) throws IOException {
+        readFully(dest, 0, dest.length);
+    }
+
+    public void readFully(byte[] dest, int off, int len) throws IOException {
+        int buffered = Math.min(len, buffer.remaining());
+
+        buffer.get(dest, off, buffered);
+
+        off += buffered;
+        len -= buffered;
+
+        if (len == 0) {
+            return;
+        }
+
+        if (len < buffer.capacity() / 2) {
+            require(len);
+            buffer.get(dest, off, len);
+
+            return;
+        }
+
+        // Large read, bypass the buffer and fill the destination array directly
+
+        ByteBuffer target = ByteBuffer.wrap(dest, off, len);
+
+        while (target.hasRemaining()) {
+            if (channel.read(target) == -1) {
+                throw new EOFException();
+            }
+        }
+    }
+
+    public void skip(int n) throws IOException {
+        while (n > 0) {
+            if (!buffer.hasRemaining()) {
+                require(1);
+            }
+
+            int skipped = Math.min(n, buffer.remaining());
+
+            buffer.position(buffer.position() + skipped);
+            n -= skipped;
+        }
+    }
+
+    private void require(int bytes) throws IOException {
+        if (buffer.remaining() >= bytes) {
+            return;
+        }
+
+        buffer.compact();
+
+        try {
+            while (buffer.position() < bytes) {
+                if (channel.read(buffer) == -1) {
+                    throw new EOFException();
+                }
+            }
+        } finally {
+            buffer.flip();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
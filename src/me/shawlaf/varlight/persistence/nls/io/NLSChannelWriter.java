@@ -0,0 +1,125 @@
+package me.shawlaf.varlight.persistence.nls.io;
+
+import me.shawlaf.varlight.persistence.nls.NLSUtil;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.Flushable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes the NLS Format (see {@link NLSOutputStream}) to a {@link WritableByteChannel} through a single, reusable {@link ByteBuffer}.
+ * <p>
+ * No allocations are made per written field, bulk data larger than the buffer is handed to the channel directly.
+ */
+public class NLSChannelWriter implements Flushable, Closeable, AutoCloseable {
+
+    public static final int BUFFER_SIZE = 8192;
+
+    private final WritableByteChannel channel;
+    private final ByteBuffer buffer;
+
+    public NLSChannelWriter(WritableByteChannel channel) {
+        this(channel, BUFFER_SIZE);
+    }
+
+    public NLSChannelWriter(WritableByteChannel channel, int bufferSize) {
+        this.channel = channel;
+        this.buffer = ByteBuffer.allocate(bufferSize);
+    }
+
+    public static NLSChannelWriter open(File file, boolean deflate) throws IOException {
+        FileChannel fileChannel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+
+        if (deflate) {
+            return new NLSChannelWriter(Channels.newChannel(new GZIPOutputStream(Channels.newOutputStream(fileChannel), BUFFER_SIZE)));
+        }
+
+        return new NLSChannelWriter(fileChannel);
+    }
+
+    public void writeHeader(int regionX, int regionZ) throws IOException {
+        writeInt32(NLSUtil.NLS_MAGIC);
+        writeInt32(NLSUtil.CURRENT_VERSION);
+        writeInt32(regionX);
+        writeInt32(regionZ);
+    }
+
+    public void writeByte(int b) throws IOException {
+        reserve(1);
+
+        buffer.put((byte) b);
+    }
+
+    public void writeInt16(int i16) throws IOException {
+        reserve(NLSUtil.SIZEOF_INT16);
+
+        buffer.putShort((short) i16);
+    }
+
+    public void writeInt32(int i32) throws IOException {
+        reserve(NLSUtil.SIZEOF_INT32);
+
+        buffer.putInt(i32);
+    }
+
+    public void write(byte[] data) throws IOException {
+        write(data, 0, data.length);
+    }
+
+    public void write(byte[] data, int off, int len) throws IOException {
+        if (len <= buffer.remaining()) {
+            buffer.put(data, off, len);
+            return;
+        }
+
+        drain();
+
+        if (len < buffer.capacity()) {
+            buffer.put(data, off, len);
+            return;
+        }
+
+        ByteBuffer source = ByteBuffer.wrap(data, off, len);
+
+        while (source.hasRemaining()) {
+            channel.write(source);
+        }
+    }
+
+    private void reserve(int bytes) throws IOException {
+        if (buffer.remaining() < bytes) {
+            drain();
+        }
+    }
+
+    private void drain() throws IOException {
+        buffer.flip();
+
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+
+        buffer.clear();
+    }
+
+    @Override
+    public void flush() throws IOException {
+        drain();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package me.shawlaf.varlight.persistence.vldb;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * Interns material names read from VLDB files, so that all Light sources of the same material share a single {@link String}.
+ * <p>
+ * Lookups compare the raw ASCII bytes, a known material neither decodes nor allocates anything. Thread safe.
+ */
+@Deprecated
+public class MaterialDictionary {
+
+    /**
+     * The dictionary used by {@link VLDBInputStream} unless another one is set, the amount of distinct materials is small enough to keep them for the lifetime of the server.
+     */
+    public static final MaterialDictionary SHARED = new MaterialDictionary();
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private final Object lock = new Object();
+
+    private byte[][] keys = new byte[INITIAL_CAPACITY][];
+    private String[] values = new String[INITIAL_CAPACITY];
+    private int size = 0;
+
+    /**
+     * @return The interned material name stored in {@code ascii[offset, offset + length)}
+     */
+    @NotNull
+    public String intern(byte[] ascii, int offset, int length) {
+        int hash = hash(ascii, offset, length);
+
+        synchronized (lock) {
+            int mask = keys.length - 1;
+            int index = hash & mask;
+
+            while (keys[index] != null) {
+                if (equals(keys[index], ascii, offset, length)) {
+                    return values[index];
+                }
+
+                index = (index + 1) & mask;
+            }
+
+            byte[] key = Arrays.copyOfRange(ascii, offset, offset + length);
+            String value = new String(key, StandardCharsets.US_ASCII);
+
+            keys[index] = key;
+            values[index] = value;
+
+            if (++size * 2 > keys.length) {
+                rehash();
+            }
+
+            return value;
+        }
+    }
+
+    @NotNull
+    public String intern(@NotNull String material) {
+        Objects.requireNonNull(material);
+
+        byte[] ascii = material.getBytes(StandardCharsets.US_ASCII);
+
+        return intern(ascii, 0, ascii.length);
+    }
+
+    public int size() {
+        synchronized (lock) {
+            return size;
+        }
+    }
+
+    private void rehash() {
+        byte[][] oldKeys = keys;
+        String[] oldValues = values;
+
+        keys = new byte[oldKeys.length << 1][];
+        values = new String[oldKeys.length << 1];
+
+        int mask = keys.length - 1;
+
+        for (int i = 0; i < oldKeys.length; ++i) {
+            if (oldKeys[i] == null) {
+                continue;
+            }
+
+            int index = hash(oldKeys[i], 0, oldKeys[i].length) & mask;
+
+            while (keys[index] != null) {
+                index = (index + 1) & mask;
+            }
+
+            keys[index] = oldKeys[i];
+            values[index] = oldValues[i];
+        }
+    }
+
+    private static int hash(byte[] data, int offset, int length) {
+        int hash = 1;
+
+        for (int i = offset; i < offset + length; ++i) {
+            hash = 31 * hash + data[i];
+        }
+
+        return hash ^ (hash >>> 16);
+    }
+
+    private static boolean equals(byte[] key, byte[] data, int offset, int length) {
+        if (key.length != length) {
+            return false;
+        }
+
+        for (int i = 0; i < length; ++i) {
+            if (key[i] != data[offset + i]) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+}
@@ -15,22 +15,35 @@ import java.util.List;
 import java.util.zip.GZIPOutputStream;
 
 import static java.util.Objects.requireNonNull;
-import static me.shawlaf.varlight.persistence.vldb.VLDBUtil.SIZEOF_INT32;
-import static me.shawlaf.varlight.persistence.vldb.VLDBUtil.SIZEOF_MAGIC;
+import static me.shawlaf.varlight.persistence.vldb.VLDBUtil.SIZEOF_CHUNK_WITHOUT_LIGHT_DATA;
 
 @Deprecated
 public abstract class VLDBFile<L extends ICustomLightSource> {
 
     public static String FILE_NAME_FORMAT = "r.%d.%d.vldb2";
+    public static final int DEFAULT_DECODED_CACHE_SIZE = 64;
+
     public final File file;
     private final Object lock = new Object();
     private final int regionX, regionZ;
     private final boolean deflate;
+    // Chunk data [int16 coords][uint24 amount][light sources], either a slice of the buffer the file was loaded into or an array of its own
     private byte[][] chunks = new byte[32 * 32][];
+    private final int[] chunkOffsets = new int[32 * 32];
+    private final int[] chunkLengths = new int[32 * 32];
     private int nonEmptyChunks = 0;
 
     private boolean modified = false;
 
+    // LRU cache of decoded chunks, indexed by chunk index, linked through cachePrev / cacheNext (-1 terminates)
+    private final Object[] decoded = new Object[32 * 32];
+    private final int[] cachePrev = new int[32 * 32];
+    private final int[] cacheNext = new int[32 * 32];
+    private int cacheHead = -1, cacheTail = -1;
+    private int cachedChunks = 0;
+    private int maxCachedChunks = DEFAULT_DECODED_CACHE_SIZE;
+    private long cacheHits = 0, cacheMisses = 0;
+
     public VLDBFile(@NotNull File file, int regionX, int regionZ, boolean deflate) throws IOException {
         this.file = requireNonNull(file);
         this.deflate = deflate;
@@ -44,23 +57,49 @@ public abstract class VLDBFile<L extends ICustomLightSource> {
         this.deflate = deflate;
 
         synchronized (lock) {
-            try (InputStream stream = FileUtil.openStreamInflate(file)) {
-                byte[] header = VLDBInputStream.readHeaderRaw(stream);
+            // The whole file is read at once, chunks are only sliced out of the buffer using the offset table
+
+            byte[] data = FileUtil.readFileFullyInflate(file);
+
+            try (VLDBInputStream in = new VLDBInputStream(new ByteArrayInputStream(data))) {
+                if (!in.readVLDBMagic()) {
+                    throw new IllegalStateException("VLDB Magic not found");
+                }
+
+                this.regionX = in.readInt32();
+                this.regionZ = in.readInt32();
 
-                try (VLDBInputStream in = new VLDBInputStream(new ByteArrayInputStream(header))) {
-                    in.skip(SIZEOF_MAGIC);
+                final int amountChunks = in.readInt16();
+                final int headerSize = VLDBUtil.sizeofHeader(amountChunks);
 
-                    this.regionX = in.readInt32();
-                    this.regionZ = in.readInt32();
+                if (headerSize > data.length) {
+                    throw new EOFException(String.format("Truncated header in file %s", file.getAbsolutePath()));
                 }
 
-                int amountChunks = ((int) header[3 * SIZEOF_INT32]) << 8 | ((int) header[3 * SIZEOF_INT32 + 1]);
+                // Sorted by offset to derive the length of every chunk from the offset of the next one
+                int[] offsets = new int[amountChunks];
 
                 for (int i = 0; i < amountChunks; ++i) {
-                    byte[] chunkData = VLDBInputStream.readChunkRaw(stream);
+                    in.readInt16(); // The coordinates are taken from the chunk data itself
+                    offsets[i] = in.readInt32();
+
+                    if (offsets[i] < headerSize || offsets[i] + SIZEOF_CHUNK_WITHOUT_LIGHT_DATA > data.length) {
+                        throw new IllegalStateException(String.format("Invalid Chunk offset %d in file %s", offsets[i], file.getAbsolutePath()));
+                    }
+                }
 
-                    int x = chunkData[0];
-                    int z = chunkData[1];
+                Arrays.sort(offsets);
+
+                for (int i = 0; i < amountChunks; ++i) {
+                    int offset = offsets[i];
+                    int end = i + 1 < amountChunks ? offsets[i + 1] : data.length;
+
+                    if (end - offset < SIZEOF_CHUNK_WITHOUT_LIGHT_DATA) {
+                        throw new IllegalStateException(String.format("Overlapping Chunk data at offset %d in file %s", offset, file.getAbsolutePath()));
+                    }
+
+                    int x = data[offset];
+                    int z = data[offset + 1];
 
                     int chunkIndex = chunkIndex(x, z);
 
@@ -68,9 +107,12 @@ public abstract class VLDBFile<L extends ICustomLightSource> {
                         throw new IllegalStateException(String.format("Duplicate Chunk data for Chunk [%d, %d] in file %s", x, z, file.getAbsolutePath()));
                     }
 
-                    this.chunks[chunkIndex(x, z)] = chunkData;
-                    ++nonEmptyChunks;
+                    this.chunks[chunkIndex] = data;
+                    this.chunkOffsets[chunkIndex] = offset;
+                    this.chunkLengths[chunkIndex] = end - offset;
                 }
+
+                this.nonEmptyChunks = amountChunks;
             }
         }
     }
@@ -141,12 +183,86 @@ public abstract class VLDBFile<L extends ICustomLightSource> {
 //        }
 
         synchronized (lock) {
-            try (VLDBInputStream in = in(chunks[index])) {
-                return in.readChunk(regionX, regionZ, this::createArray, this::createInstance).item2;
+            @SuppressWarnings("unchecked")
+            L[] cached = (L[]) decoded[index];
+
+            if (cached != null) {
+                ++cacheHits;
+                touchCached(index);
+
+                return cached.clone();
+            }
+
+            ++cacheMisses;
+
+            L[] chunk;
+
+            try (VLDBInputStream in = in(index)) {
+                chunk = in.readChunk(regionX, regionZ, this::createArray, this::createInstance).item2;
+            }
+
+            if (maxCachedChunks > 0) {
+                decoded[index] = chunk;
+                linkCachedFirst(index);
+
+                if (++cachedChunks > maxCachedChunks) {
+                    uncache(cacheTail);
+                }
+
+                return chunk.clone();
+            }
+
+            return chunk;
+        }
+    }
+
+    /**
+     * Sets the maximum amount of decoded chunks kept by {@link VLDBFile#readChunk(ChunkCoords)}, {@code 0} disables caching.
+     * Cached chunks share their {@link ICustomLightSource} instances between calls.
+     */
+    public void setDecodedCacheSize(int maxCachedChunks) {
+        if (maxCachedChunks < 0) {
+            throw new IllegalArgumentException("maxCachedChunks must be >= 0");
+        }
+
+        synchronized (lock) {
+            this.maxCachedChunks = maxCachedChunks;
+
+            while (cachedChunks > maxCachedChunks) {
+                uncache(cacheTail);
             }
         }
     }
 
+    public int getCachedChunkCount() {
+        synchronized (lock) {
+            return cachedChunks;
+        }
+    }
+
+    public long getCacheHits() {
+        synchronized (lock) {
+            return cacheHits;
+        }
+    }
+
+    public long getCacheMisses() {
+        synchronized (lock) {
+            return cacheMisses;
+        }
+    }
+
+    /**
+     * @return The fraction of {@link VLDBFile#readChunk(ChunkCoords)} calls for chunks with data answered without decoding, {@code 0} if there were none yet
+     */
+    public double getCacheHitRate() {
+        synchronized (lock) {
+            long reads = cacheHits + cacheMisses;
+
+            return reads == 0 ? 0 : (double) cacheHits / reads;
+        }
+    }
+
     @NotNull
     @Deprecated
     public List<L> readAll() throws IOException {
@@ -209,7 +325,11 @@ public abstract class VLDBFile<L extends ICustomLightSource> {
                 ++nonEmptyChunks;
             }
 
+            uncache(index);
+
             this.chunks[index] = out.item1.toByteArray();
+            this.chunkOffsets[index] = 0;
+            this.chunkLengths[index] = this.chunks[index].length;
             this.modified = true;
         }
     }
@@ -229,6 +349,8 @@ public abstract class VLDBFile<L extends ICustomLightSource> {
                 throw new IllegalStateException("Chunk not contained within this File!");
             }
 
+            uncache(index);
+
             this.chunks[index] = null;
             --nonEmptyChunks;
             modified = true;
@@ -274,7 +396,7 @@ public abstract class VLDBFile<L extends ICustomLightSource> {
                     headerBuffer.item2.writeInt16((cx << 8) | cz);
                     headerBuffer.item2.writeInt32(offset);
 
-                    offset += chunks[i].length;
+                    offset += chunkLengths[i];
 
                     if (++written == nonEmptyChunks) {
                         break;
@@ -294,7 +416,7 @@ public abstract class VLDBFile<L extends ICustomLightSource> {
                 while (!chunkIndicesWithData.isEmpty()) {
                     int i = chunkIndicesWithData.removeFirst();
 
-                    out.write(chunks[i], 0, chunks[i].length);
+                    out.write(chunks[i], chunkOffsets[i], chunkLengths[i]);
                 }
             }
 
@@ -304,8 +426,8 @@ public abstract class VLDBFile<L extends ICustomLightSource> {
     }
 
     @NotNull
-    private VLDBInputStream in(byte[] data) {
-        return new VLDBInputStream(new ByteArrayInputStream(data));
+    private VLDBInputStream in(int chunkIndex) {
+        return new VLDBInputStream(new ByteArrayInputStream(chunks[chunkIndex], chunkOffsets[chunkIndex], chunkLengths[chunkIndex]));
     }
 
     @NotNull
@@ -333,8 +455,61 @@ public abstract class VLDBFile<L extends ICustomLightSource> {
     }
 
     public void unload() {
-        Arrays.fill(chunks, null);
-        nonEmptyChunks = 0;
+        synchronized (lock) {
+            Arrays.fill(chunks, null);
+            nonEmptyChunks = 0;
+
+            Arrays.fill(decoded, null);
+            cacheHead = cacheTail = -1;
+            cachedChunks = 0;
+        }
+    }
+
+    private void uncache(int index) {
+        if (decoded[index] == null) {
+            return;
+        }
+
+        decoded[index] = null;
+        unlinkCached(index);
+        --cachedChunks;
+    }
+
+    private void touchCached(int index) {
+        if (index != cacheHead) {
+            unlinkCached(index);
+            linkCachedFirst(index);
+        }
+    }
+
+    private void linkCachedFirst(int index) {
+        cachePrev[index] = -1;
+        cacheNext[index] = cacheHead;
+
+        if (cacheHead != -1) {
+            cachePrev[cacheHead] = index;
+        } else {
+            cacheTail = index;
+        }
+
+        cacheHead = index;
+    }
+
+    private void unlinkCached(int index) {
+        int prev = cachePrev[index];
+        int next = cacheNext[index];
+
+        if (prev != -1) {
+            cacheNext[prev] = next;
+        } else {
+            cacheHead = next;
+        }
+
+        if (next != -1) {
+            cachePrev[next] = prev;
+        } else {
+            cacheTail = prev;
+        }
     }
 
     private int chunkIndex(ChunkCoords chunkCoords) {
@@ -1,17 +1,15 @@
 package me.shawlaf.varlight.persistence.vldb;
 
 import me.shawlaf.varlight.persistence.ICustomLightSource;
+import me.shawlaf.varlight.persistence.nls.LightSourceVisitor;
 import me.shawlaf.varlight.util.ChunkCoords;
 import me.shawlaf.varlight.util.FileUtil;
 import me.shawlaf.varlight.util.IntPosition;
 import me.shawlaf.varlight.util.Tuple;
 
 import java.io.*;
-import java.nio.ByteBuffer;
-import java.nio.charset.StandardCharsets;
 import java.util.*;
 import java.util.function.IntFunction;
-import java.util.zip.GZIPInputStream;
 
 import static me.shawlaf.varlight.persistence.vldb.VLDBUtil.SIZEOF_OFFSET_TABLE_ENTRY;
 
@@ -19,9 +17,13 @@ import static me.shawlaf.varlight.persistence.vldb.VLDBUtil.SIZEOF_OFFSET_TABLE_
 public class VLDBInputStream implements Closeable {
 
     public static int VLDB_MAGIC = 0x56_4C_44_42;
+    public static int VLDC_MAGIC = 0x56_4C_44_43;
 
     protected final DataInputStream baseStream;
 
+    private MaterialDictionary materials = MaterialDictionary.SHARED;
+    private byte[] asciiBuffer = new byte[64];
+
     public VLDBInputStream(DataInputStream baseStream) {
         this.baseStream = baseStream;
     }
@@ -31,23 +33,9 @@ public class VLDBInputStream implements Closeable {
     }
 
     public static boolean verifyVLDB(File file) throws IOException {
-        VLDBInputStream in;
-        boolean isVLDB;
-
-        try (FileInputStream fis = new FileInputStream(file)) {
-            if (FileUtil.isDeflated(file)) {
-                in = new VLDBInputStream(new GZIPInputStream(fis));
-            } else {
-                in = new VLDBInputStream(fis);
-            }
-
-            isVLDB = in.readVLDBMagic();
+        try (VLDBInputStream in = new VLDBInputStream(FileUtil.openStreamInflate(file))) {
+            return in.readVLDBMagic();
         }
-
-
-        in.close();
-
-        return isVLDB;
     }
 
     public static byte[] readHeaderRaw(InputStream inputStream) throws IOException {
@@ -111,6 +99,76 @@ public class VLDBInputStream implements Closeable {
         return readInt32() == VLDB_MAGIC;
     }
 
+    /**
+     * Sets the {@link MaterialDictionary} interning the materials read by this stream, {@link MaterialDictionary#SHARED} by default.
+     */
+    public void setMaterialDictionary(MaterialDictionary materials) {
+        this.materials = Objects.requireNonNull(materials);
+    }
+
+    /**
+     * Reads a whole Region file in either the VLDB or the compact VLDC format (see {@link VLDBOutputStream#writeCompact(ICustomLightSource[])}), including the magic.
+     */
+    public <L extends ICustomLightSource> List<L> readAllAnyFormat(IntFunction<L[]> arrayCreator, ToLightSource<L> toLightSource) throws IOException {
+        int magic = readInt32();
+
+        if (magic == VLDB_MAGIC) {
+            return readAll(arrayCreator, toLightSource);
+        }
+
+        if (magic == VLDC_MAGIC) {
+            return readAllCompact(arrayCreator, toLightSource);
+        }
+
+        throw new IllegalStateException("Could not identify VLDB or VLDC magic");
+    }
+
+    /**
+     * Reads a Region file in the compact VLDC format, following the magic.
+     */
+    public <L extends ICustomLightSource> List<L> readAllCompact(IntFunction<L[]> arrayCreator, ToLightSource<L> toLightSource) throws IOException {
+        final int regionX = readInt32();
+        final int regionZ = readInt32();
+
+        final String[] materialTable = new String[readInt16()];
+
+        for (int i = 0; i < materialTable.length; i++) {
+            materialTable[i] = readASCII();
+        }
+
+        final int amountChunks = readInt16();
+
+        skip(amountChunks * SIZEOF_OFFSET_TABLE_ENTRY); // Skip header
+
+        List<L> lightSources = new ArrayList<>();
+
+        for (int i = 0; i < amountChunks; i++) {
+            ChunkCoords chunkCoords = readEncodedChunkCoords(regionX, regionZ);
+
+            int amountLightSources = readUInt24();
+
+            for (int j = 0; j < amountLightSources; j++) {
+                int coords = readInt16();
+                int data = readByte();
+                int material = readInt16();
+
+                if (material >= materialTable.length) {
+                    throw new IllegalStateException(String.format("Material index %d out of bounds for %d materials", material, materialTable.length));
+                }
+
+                IntPosition position = chunkCoords.getRelative(
+                        ((coords & 0xF000) >>> 12),
+                        (coords & 0x0FF0) >>> 4,
+                        (coords & 0xF)
+                );
+
+                lightSources.add(toLightSource.toLightSource(position, (data & 0xF0) >>> 4, (data & 0x0F) != 0, materialTable[material]));
+            }
+        }
+
+        return lightSources;
+    }
+
     public <L extends ICustomLightSource> List<L> readAll(IntFunction<L[]> arrayCreator, ToLightSource<L> toLightSource) throws IOException {
 
         final int regionX = readInt32();
@@ -163,6 +221,55 @@ public class VLDBInputStream implements Closeable {
         return new Tuple<>(chunkCoords, lightSources);
     }
 
+    /**
+     * Streams the chunks following the Region coordinates to the {@link LightSourceVisitor}, without creating any Light source objects.
+     * Materials and the migrated flag are skipped, Light sources with a light level of {@code 0} are not visited.
+     *
+     * @return The amount of visited Light sources
+     */
+    public int visitAll(int regionX, int regionZ, LightSourceVisitor visitor) throws IOException {
+        final int amountChunks = readInt16();
+
+        skip(amountChunks * SIZEOF_OFFSET_TABLE_ENTRY); // Skip header
+
+        int visited = 0;
+
+        for (int i = 0; i < amountChunks; i++) {
+            visited += visitChunk(regionX, regionZ, visitor);
+        }
+
+        return visited;
+    }
+
+    /**
+     * Streams a single chunk to the {@link LightSourceVisitor}, see {@link VLDBInputStream#visitAll(int, int, LightSourceVisitor)}.
+     *
+     * @return The amount of visited Light sources
+     */
+    public int visitChunk(int regionX, int regionZ, LightSourceVisitor visitor) throws IOException {
+        int encodedCoords = readInt16();
+
+        int baseX = (((encodedCoords & 0xFF00) >>> 8) + regionX * 32) << 4;
+        int baseZ = ((encodedCoords & 0xFF) + regionZ * 32) << 4;
+
+        int amountLightSources = readUInt24();
+        int visited = 0;
+
+        for (int j = 0; j < amountLightSources; j++) {
+            int coords = readInt16();
+            int lightLevel = (readByte() & 0xF0) >>> 4;
+
+            skip(readInt16()); // Material
+
+            if (lightLevel > 0) {
+                visitor.visit(baseX + ((coords & 0xF000) >>> 12), (coords & 0x0FF0) >>> 4, baseZ + (coords & 0xF), lightLevel);
+                ++visited;
+            }
+        }
+
+        return visited;
+    }
+
     public Map<ChunkCoords, Integer> readHeader(int regionX, int regionZ) throws IOException {
         final int amountChunks = readInt16();
 
@@ -188,7 +295,18 @@ public class VLDBInputStream implements Closeable {
     }
 
     public void skip(int n) throws IOException {
-        baseStream.skipBytes(n);
+        // skipBytes may skip less than requested, e.g. at the end of the buffer of a decompressing stream
+
+        while (n > 0) {
+            int skipped = baseStream.skipBytes(n);
+
+            if (skipped == 0) {
+                baseStream.readByte(); // Throws EOFException at the end of the stream
+                skipped = 1;
+            }
+
+            n -= skipped;
+        }
     }
 
     public int readByte() throws IOException {
@@ -223,8 +341,19 @@ public class VLDBInputStream implements Closeable {
         return ret;
     }
 
+    /**
+     * Reads a material name, interned through the {@link MaterialDictionary} of this stream.
+     */
     public String readASCII() throws IOException {
-        return StandardCharsets.US_ASCII.decode(ByteBuffer.wrap(readBytes(readInt16()))).toString();
+        int length = readInt16();
+
+        if (length > asciiBuffer.length) {
+            asciiBuffer = new byte[Math.max(length, asciiBuffer.length * 2)];
+        }
+
+        baseStream.readFully(asciiBuffer, 0, length);
+
+        return materials.intern(asciiBuffer, 0, length);
     }
 
     @FunctionalInterface
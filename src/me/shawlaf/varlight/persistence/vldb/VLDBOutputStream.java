@@ -2,10 +2,12 @@ package me.shawlaf.varlight.persistence.vldb;
 
 import me.shawlaf.varlight.persistence.ICustomLightSource;
 import me.shawlaf.varlight.util.ChunkCoords;
+import me.shawlaf.varlight.util.IntPosition;
 
 import java.io.*;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -40,11 +42,27 @@ import java.util.Map;
     [Array  ]       Offset table:
                 [int16  ]       Relative coords of chunk in region (x: 0xFF00, z: 0x00FF)
                 [int32  ]       File offset for this chunk's Data
+
+    .VLDC Format (compact, see writeCompact):
+
+    Same as .VLDB, except for the magic ("VLDC"), a material table following the region coordinates
+    and Light sources referencing their material by index instead of storing the name:
+
+    [int16  ]       Amount of materials
+    [ASCII[]]       Material names
+
+    Light Source:
+
+    [int16  ]       Relative coords in chunk (x: 0xF000, y: 0x0FF0, z: 0x000F)
+    [byte   ]       Light source data
+    [int16  ]       Index into the material table
      */
 
 @Deprecated
 public class VLDBOutputStream implements Flushable, Closeable, AutoCloseable {
 
+    private static final int SIZEOF_COMPACT_LIGHT_SOURCE = VLDBUtil.SIZEOF_LIGHT_SOURCE_WITHOUT_ASCII + VLDBUtil.SIZEOF_INT16;
+
     protected final DataOutputStream baseStream;
 
     public VLDBOutputStream(DataOutputStream baseStream) {
@@ -95,35 +113,169 @@ public class VLDBOutputStream implements Flushable, Closeable, AutoCloseable {
             throw new IllegalArgumentException("Not all light sources are in the same region!");
         }
 
-        final Map<ChunkCoords, List<ICustomLightSource>> chunkMap = new HashMap<>();
-        final Map<ChunkCoords, Integer> offsetTable = new HashMap<>();
+        final long[] order = sortByChunk(region);
+
+        // First pass: the sizes of all chunks, to write the offset table before the chunks themselves
+
+        final int[] chunkSizes = new int[32 * 32];
+        final int amountChunks = sizeChunks(region, order, chunkSizes, -1);
+
+        writeInt32(VLDBInputStream.VLDB_MAGIC);
+        writeInt32(rx);
+        writeInt32(rz);
+        writeInt16(amountChunks);
+
+        writeOffsetTable(VLDBUtil.sizeofHeader(amountChunks), chunkSizes);
+
+        // Second pass: stream the chunks in the same order
+
+        writeChunks(region, order, null);
+    }
+
+    /**
+     * Writes the Region in the compact VLDC format: every material name is stored once in a Region-level table,
+     * Light sources only store a 2 byte index into that table. Read using {@link VLDBInputStream#readAllAnyFormat(java.util.function.IntFunction, VLDBInputStream.ToLightSource)}.
+     */
+    public void writeCompact(ICustomLightSource[] region) throws IOException {
+        if (region.length == 0) {
+            throw new IllegalArgumentException("Amount of light sources must be > 0");
+        }
+
+        final int rx = region[0].getPosition().getRegionX();
+        final int rz = region[0].getPosition().getRegionZ();
+
+        if (!VLDBFile.allLightSourcesInRegion(rx, rz, region)) {
+            throw new IllegalArgumentException("Not all light sources are in the same region!");
+        }
+
+        final Map<String, Integer> materialIndices = new HashMap<>();
+        final List<String> materialTable = new ArrayList<>();
+        int materialTableSize = VLDBUtil.SIZEOF_INT16;
+
+        for (ICustomLightSource lightSource : region) {
+            if (!materialIndices.containsKey(lightSource.getType())) {
+                materialIndices.put(lightSource.getType(), materialTable.size());
+                materialTable.add(lightSource.getType());
+
+                materialTableSize += VLDBUtil.sizeofASCII(lightSource.getType());
+            }
+        }
+
+        if (materialTable.size() > 0xFFFF) {
+            throw new IllegalArgumentException("Too many distinct materials: " + materialTable.size());
+        }
+
+        final long[] order = sortByChunk(region);
+
+        // First pass: the sizes of all chunks, every Light source takes the same amount of bytes
+
+        final int[] chunkSizes = new int[32 * 32];
+        final int amountChunks = sizeChunks(region, order, chunkSizes, SIZEOF_COMPACT_LIGHT_SOURCE);
+
+        writeInt32(VLDBInputStream.VLDC_MAGIC);
+        writeInt32(rx);
+        writeInt32(rz);
+        writeInt16(materialTable.size());
+
+        for (String material : materialTable) {
+            writeASCII(material);
+        }
+
+        writeInt16(amountChunks);
+
+        writeOffsetTable(VLDBUtil.sizeofHeader(amountChunks) + materialTableSize, chunkSizes);
+
+        // Second pass: stream the chunks in the same order
+
+        writeChunks(region, order, materialIndices);
+    }
+
+    /**
+     * @return {@code (chunk index << 32) | index into region} of every Light source, sorted so that the Light sources of every chunk are grouped together
+     */
+    private static long[] sortByChunk(ICustomLightSource[] region) {
+        final long[] order = new long[region.length];
 
         for (int i = 0; i < region.length; i++) {
-            ChunkCoords chunkCoords = region[i].getPosition().toChunkCoords();
+            IntPosition position = region[i].getPosition();
+
+            order[i] = ((long) chunkIndex(position.getChunkX(), position.getChunkZ()) << 32) | i;
+        }
+
+        Arrays.sort(order);
+
+        return order;
+    }
 
-            if (!chunkMap.containsKey(chunkCoords)) {
-                chunkMap.put(chunkCoords, new ArrayList<>());
+    /**
+     * @param sizeofLightSource The size of every Light source, or {@code -1} if it depends on the material name
+     * @return The amount of chunks holding Light sources
+     */
+    private static int sizeChunks(ICustomLightSource[] region, long[] order, int[] chunkSizes, int sizeofLightSource) {
+        int amountChunks = 0;
+
+        for (long entry : order) {
+            int chunkIndex = (int) (entry >>> 32);
+
+            if (chunkSizes[chunkIndex] == 0) {
+                chunkSizes[chunkIndex] = VLDBUtil.SIZEOF_CHUNK_WITHOUT_LIGHT_DATA;
+                ++amountChunks;
             }
 
-            chunkMap.get(chunkCoords).add(region[i]);
+            chunkSizes[chunkIndex] += sizeofLightSource < 0 ? VLDBUtil.sizeofLightSource(region[(int) entry]) : sizeofLightSource;
         }
 
-        final ChunkCoords[] chunks = chunkMap.keySet().toArray(new ChunkCoords[0]);
+        return amountChunks;
+    }
 
-        final int headerSize = VLDBUtil.SIZEOF_HEADER_WITHOUT_OFFSET_TABLE + chunks.length * VLDBUtil.SIZEOF_OFFSET_TABLE_ENTRY;
+    private void writeOffsetTable(int offset, int[] chunkSizes) throws IOException {
+        for (int chunkIndex = 0; chunkIndex < chunkSizes.length; chunkIndex++) {
+            if (chunkSizes[chunkIndex] == 0) {
+                continue;
+            }
 
-        final ByteArrayOutputStream fileBodyBuffer = new ByteArrayOutputStream();
-        final VLDBOutputStream bodyOutputStream = new VLDBOutputStream(fileBodyBuffer);
+            writeInt16((chunkIndex & 0x1F) << 8 | (chunkIndex >>> 5));
+            writeInt32(offset);
 
-        for (int i = 0; i < chunks.length; i++) {
-            ChunkCoords chunkCoords = chunks[i];
+            offset += chunkSizes[chunkIndex];
+        }
+    }
+
+    /**
+     * @param materialIndices The indices into the material table of the compact format, or {@code null} to write the material names
+     */
+    private void writeChunks(ICustomLightSource[] region, long[] order, Map<String, Integer> materialIndices) throws IOException {
+        for (int start = 0; start < order.length; ) {
+            int chunkIndex = (int) (order[start] >>> 32);
+            int end = start + 1;
 
-            offsetTable.put(chunkCoords, headerSize + fileBodyBuffer.size());
-            bodyOutputStream.writeChunk(chunkCoords.x, chunkCoords.z, chunkMap.get(chunkCoords).toArray(new ICustomLightSource[0]));
+            while (end < order.length && (int) (order[end] >>> 32) == chunkIndex) {
+                ++end;
+            }
+
+            writeInt16((chunkIndex & 0x1F) << 8 | (chunkIndex >>> 5));
+            writeUInt24(end - start);
+
+            for (int i = start; i < end; i++) {
+                ICustomLightSource lightSource = region[(int) order[i]];
+
+                if (materialIndices == null) {
+                    writeLightSource(lightSource);
+                } else {
+                    IntPosition position = lightSource.getPosition();
+
+                    writeInt16(((position.x & 0xF) << 12) | (position.y << 4) | (position.z & 0xF));
+                    writeByte(((lightSource.getCustomLuminance() & 0xF) << 4) | (lightSource.isMigrated() ? 1 : 0));
+                    writeInt16(materialIndices.get(lightSource.getType()));
+                }
+            }
+
+            start = end;
         }
+    }
 
-        writeHeader(rx, rz, offsetTable);
-        write(fileBodyBuffer.toByteArray());
+    private static int chunkIndex(int chunkX, int chunkZ) {
+        return (chunkZ & 0x1F) << 5 | (chunkX & 0x1F);
     }
 
     public void writeHeader(int regionX, int regionZ, Map<ChunkCoords, Integer> offsetTable) throws IOException {
@@ -0,0 +1,197 @@
+package me.shawlaf.varlight.persistence.world;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Assigns the blocking I/O of every root directory (usually one per World or per disk) to its own bounded {@link Lane}.
+ * <p>
+ * Lanes do not share threads, so a slow disk only stalls the Worlds stored on it.
+ * Once the queue of a lane is full, the submitting thread runs the task itself, which slows down only the producers of that lane.
+ */
+public class IOScheduler {
+
+    public static final int DEFAULT_THREADS_PER_LANE = 2;
+    public static final int DEFAULT_QUEUE_CAPACITY = 256;
+
+    private static final AtomicInteger SCHEDULER_COUNTER = new AtomicInteger();
+
+    private final Object lock = new Object();
+    private final int id = SCHEDULER_COUNTER.incrementAndGet();
+    private final int threadsPerLane;
+    private final int queueCapacity;
+
+    private final Map<String, Lane> lanes = new HashMap<>();
+    private boolean shutdown = false;
+
+    public IOScheduler() {
+        this(DEFAULT_THREADS_PER_LANE, DEFAULT_QUEUE_CAPACITY);
+    }
+
+    /**
+     * @param threadsPerLane The amount of I/O threads of every lane
+     * @param queueCapacity  The maximum amount of tasks waiting in the queue of every lane
+     */
+    public IOScheduler(int threadsPerLane, int queueCapacity) {
+        if (threadsPerLane < 1) {
+            throw new IllegalArgumentException("threadsPerLane must be >= 1");
+        }
+
+        if (queueCapacity < 1) {
+            throw new IllegalArgumentException("queueCapacity must be >= 1");
+        }
+
+        this.threadsPerLane = threadsPerLane;
+        this.queueCapacity = queueCapacity;
+    }
+
+    /**
+     * Returns the {@link Lane} of a root directory, creating it on first use. Directories are compared by their canonical path.
+     *
+     * @param root The root directory, e.g. the directory containing the Region files of a World
+     */
+    @NotNull
+    public Lane lane(@NotNull File root) {
+        Objects.requireNonNull(root);
+
+        String path;
+
+        try {
+            path = root.getCanonicalPath();
+        } catch (IOException e) {
+            path = root.getAbsolutePath();
+        }
+
+        synchronized (lock) {
+            if (shutdown) {
+                throw new IllegalStateException("The scheduler has been shut down");
+            }
+
+            Lane lane = lanes.get(path);
+
+            if (lane == null) {
+                lane = new Lane(new File(path), lanes.size() + 1);
+                lanes.put(path, lane);
+            }
+
+            return lane;
+        }
+    }
+
+    public List<Lane> getLanes() {
+        synchronized (lock) {
+            return new ArrayList<>(lanes.values());
+        }
+    }
+
+    /**
+     * Shuts down all lanes, already queued tasks are still executed.
+     */
+    public void shutdown() {
+        synchronized (lock) {
+            shutdown = true;
+
+            for (Lane lane : lanes.values()) {
+                lane.shutdown();
+            }
+        }
+    }
+
+    /**
+     * The I/O threads of a single root directory, measuring the time tasks spend queued and running.
+     * A lane may be shared by several Worlds, it is only shut down by {@link IOScheduler#shutdown()}.
+     */
+    public class Lane extends ThreadPoolExecutor {
+
+        public final File root;
+
+        private final AtomicLong completed = new AtomicLong();
+        private final AtomicLong totalLatencyNanos = new AtomicLong();
+        private final AtomicLong maxLatencyNanos = new AtomicLong();
+
+        private Lane(File root, int laneId) {
+            super(threadsPerLane, threadsPerLane, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(queueCapacity), (r, executor) -> {
+                if (executor.isShutdown()) {
+                    throw new RejectedExecutionException("The lane of " + root.getAbsolutePath() + " has been shut down");
+                }
+
+                r.run(); // Queue full: apply back pressure to the submitting thread
+            });
+
+            this.root = root;
+
+            final AtomicInteger threads = new AtomicInteger();
+
+            setThreadFactory(r -> {
+                Thread thread = new Thread(r, String.format("VarLight-IO-%d-%d-%d", id, laneId, threads.incrementAndGet()));
+                thread.setDaemon(true);
+
+                return thread;
+            });
+        }
+
+        @Override
+        public void execute(@NotNull Runnable command) {
+            Objects.requireNonNull(command);
+
+            final long submitted = System.nanoTime();
+
+            super.execute(() -> {
+                try {
+                    command.run();
+                } finally {
+                    record(System.nanoTime() - submitted);
+                }
+            });
+        }
+
+        /**
+         * @return The amount of tasks waiting to be executed
+         */
+        public int getQueueDepth() {
+            return getQueue().size();
+        }
+
+        /**
+         * @return The amount of finished tasks, successful or not
+         */
+        public long getCompletedTasks() {
+            return completed.get();
+        }
+
+        /**
+         * @return The average time from submission to completion of a task, in milliseconds
+         */
+        public double getAverageLatencyMillis() {
+            long count = completed.get();
+
+            return count == 0 ? 0 : totalLatencyNanos.get() / 1e6 / count;
+        }
+
+        /**
+         * @return The longest time from submission to completion of a task, in milliseconds
+         */
+        public double getMaxLatencyMillis() {
+            return maxLatencyNanos.get() / 1e6;
+        }
+
+        private void record(long latencyNanos) {
+            totalLatencyNanos.addAndGet(latencyNanos);
+            maxLatencyNanos.accumulateAndGet(latencyNanos, Math::max);
+            completed.incrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,379 @@
+package me.shawlaf.varlight.persistence.world;
+
+import me.shawlaf.varlight.persistence.nls.LightSourceVisitor;
+import me.shawlaf.varlight.util.FileUtil;
+import me.shawlaf.varlight.util.IntPosition;
+import me.shawlaf.varlight.util.Long2IntMap;
+import me.shawlaf.varlight.util.RegionCoords;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Objects;
+import java.util.function.LongPredicate;
+
+/**
+ * An append-only log of Custom Luminance changes, so that changes made between two saves survive a crash.
+ * <p>
+ * Every change is recorded as a packed position (see {@link IntPosition#encode()}) and the new light level.
+ * Records are buffered and written with a single {@code fsync} once {@code batchSize} records are pending, {@code syncIntervalMillis} have passed since the last sync,
+ * or {@link LightJournal#sync()} is called. As long as {@link LightJournal#syncIfDue()} is called regularly, e.g. once per tick,
+ * at most the records of one unsynced batch are lost in a crash.
+ * <p>
+ * Format: {@code [int32 magic "VLJL"][int32 version]} followed by {@code [int64 position][int8 light level]} records.
+ */
+public class LightJournal implements Closeable {
+
+    public static final String FILE_NAME = "light.journal";
+
+    public static final int JOURNAL_MAGIC = 0x56_4C_4A_4C;
+    public static final int CURRENT_VERSION = 1;
+
+    public static final int DEFAULT_BATCH_SIZE = 512;
+    public static final long DEFAULT_SYNC_INTERVAL_MILLIS = 1_000;
+
+    private static final int SIZEOF_HEADER = 8;
+    private static final int SIZEOF_RECORD = 9;
+
+    public final File file;
+
+    private final Object lock = new Object();
+    private final long syncIntervalMillis;
+    private final ByteBuffer pending;
+
+    private FileChannel channel;
+    private long lastSync = System.currentTimeMillis();
+    private long syncs = 0;
+
+    public LightJournal(@NotNull File file) throws IOException {
+        this(file, DEFAULT_BATCH_SIZE, DEFAULT_SYNC_INTERVAL_MILLIS);
+    }
+
+    /**
+     * Opens the journal, creating it if it does not exist yet. An incomplete record at the end of the journal, left by a crash during a write, is discarded.
+     *
+     * @param file               The journal file
+     * @param batchSize          The maximum amount of records written with a single {@code fsync}
+     * @param syncIntervalMillis The maximum time in milliseconds records stay pending, checked whenever a record is appended and by {@link LightJournal#syncIfDue()}
+     */
+    public LightJournal(@NotNull File file, int batchSize, long syncIntervalMillis) throws IOException {
+        Objects.requireNonNull(file);
+
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("batchSize must be >= 1");
+        }
+
+        this.file = file;
+        this.syncIntervalMillis = syncIntervalMillis;
+        this.pending = ByteBuffer.allocate(batchSize * SIZEOF_RECORD);
+
+        this.channel = open(file);
+    }
+
+    private static FileChannel open(File file) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+        try {
+            long size = channel.size();
+
+            if (size < SIZEOF_HEADER) {
+                ByteBuffer header = ByteBuffer.allocate(SIZEOF_HEADER);
+                header.putInt(JOURNAL_MAGIC).putInt(CURRENT_VERSION).flip();
+
+                channel.truncate(0);
+                writeFully(channel, header, 0);
+                channel.force(true);
+
+                size = SIZEOF_HEADER;
+            } else {
+                ByteBuffer header = ByteBuffer.allocate(SIZEOF_HEADER);
+
+                while (header.hasRemaining()) {
+                    channel.read(header, header.position());
+                }
+
+                header.flip();
+
+                if (header.getInt() != JOURNAL_MAGIC) {
+                    throw new IllegalStateException(String.format("%s is not a Light journal", file.getAbsolutePath()));
+                }
+
+                int version = header.getInt();
+
+                if (version != CURRENT_VERSION) {
+                    throw new IllegalStateException(String.format("Expected Light journal Version %d, got %d", CURRENT_VERSION, version));
+                }
+
+                long complete = SIZEOF_HEADER + (size - SIZEOF_HEADER) / SIZEOF_RECORD * SIZEOF_RECORD;
+
+                if (complete != size) {
+                    channel.truncate(complete);
+                    size = complete;
+                }
+            }
+
+            channel.position(size);
+
+            return channel;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    public void append(@NotNull IntPosition position, int lightLevel) throws IOException {
+        append(position.x, position.y, position.z, lightLevel);
+    }
+
+    public void append(int x, int y, int z, int lightLevel) throws IOException {
+        synchronized (lock) {
+            pending.putLong(IntPosition.encode(x, y, z));
+            pending.put((byte) lightLevel);
+
+            if (!pending.hasRemaining() || System.currentTimeMillis() - lastSync >= syncIntervalMillis) {
+                sync();
+            }
+        }
+    }
+
+    /**
+     * Writes all pending records and forces them to disk, if they have been pending for {@code syncIntervalMillis}.
+     * Without any further appends, pending records would otherwise never be synced.
+     *
+     * @return Whether the journal was synced
+     */
+    public boolean syncIfDue() throws IOException {
+        synchronized (lock) {
+            if (pending.position() == 0 || System.currentTimeMillis() - lastSync < syncIntervalMillis) {
+                return false;
+            }
+
+            sync();
+
+            return true;
+        }
+    }
+
+    /**
+     * Writes all pending records and forces them to disk.
+     */
+    public void sync() throws IOException {
+        synchronized (lock) {
+            if (pending.position() > 0) {
+                pending.flip();
+                writeFully(channel, pending, channel.position());
+                pending.clear();
+
+                channel.force(false);
+                ++syncs;
+            }
+
+            lastSync = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Calls the {@link LightSourceVisitor} for every record in the order they were appended, a light level of {@code 0} denotes a removed Light source.
+     *
+     * @return The amount of replayed records
+     */
+    public int replay(@NotNull LightSourceVisitor visitor) throws IOException {
+        Objects.requireNonNull(visitor);
+
+        synchronized (lock) {
+            sync();
+
+            return read(SIZEOF_HEADER, channel.size(), visitor);
+        }
+    }
+
+    private int read(long start, long end, LightSourceVisitor visitor) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(FileUtil.BUFFER_SIZE / SIZEOF_RECORD * SIZEOF_RECORD);
+        int records = 0;
+
+        for (long position = start; position < end; ) {
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), end - position));
+
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, position + buffer.position()) == -1) {
+                    break;
+                }
+            }
+
+            position += buffer.position();
+            buffer.flip();
+
+            while (buffer.remaining() >= SIZEOF_RECORD) {
+                long encoded = buffer.getLong();
+                int lightLevel = buffer.get();
+
+                visitor.visit((int) (encoded >> 38), (int) (encoded & 0xFFF), (int) (encoded << 26 >> 38), lightLevel);
+                ++records;
+            }
+        }
+
+        return records;
+    }
+
+    /**
+     * Discards all records, including pending ones. Only valid once all changes have been saved to the Region files.
+     */
+    public void truncate() throws IOException {
+        synchronized (lock) {
+            pending.clear();
+
+            channel.truncate(SIZEOF_HEADER);
+            channel.position(SIZEOF_HEADER);
+            channel.force(false);
+        }
+    }
+
+    /**
+     * Discards all records appended before {@code end}, keeping the records appended since.
+     * Only valid once all changes recorded before {@code end} have been saved to the Region files.
+     *
+     * @param end The size of the journal, see {@link LightJournal#getSize()}, from before the Region files were saved
+     */
+    public void truncate(long end) throws IOException {
+        synchronized (lock) {
+            if (end >= getSize()) {
+                truncate();
+            } else {
+                compact(region -> false, end);
+            }
+        }
+    }
+
+    /**
+     * Rewrites the journal keeping only the latest record of every position in the Regions matching {@code keepRegion}.
+     *
+     * @param keepRegion Tests the Region Coordinates, packed using {@link RegionCoords#encode(int, int)}, whose records are still needed
+     * @return The amount of records kept
+     */
+    public int compact(@NotNull LongPredicate keepRegion) throws IOException {
+        return compact(keepRegion, Long.MAX_VALUE);
+    }
+
+    /**
+     * Rewrites the journal keeping only the latest record of every position in the Regions matching {@code keepRegion},
+     * records appended at or after {@code end} are all kept in the order they were appended.
+     * <p>
+     * Lets the caller decide which Regions to keep without locking this journal, changes made in the meantime are appended after {@code end}.
+     *
+     * @param keepRegion Tests the Region Coordinates, packed using {@link RegionCoords#encode(int, int)}, whose records before {@code end} are still needed
+     * @param end        The size of the journal, see {@link LightJournal#getSize()}, from before {@code keepRegion} was decided on
+     * @return The amount of records kept
+     */
+    public int compact(@NotNull LongPredicate keepRegion, long end) throws IOException {
+        Objects.requireNonNull(keepRegion);
+
+        synchronized (lock) {
+            sync();
+
+            long size = channel.size();
+
+            end = Math.max(SIZEOF_HEADER, Math.min(end, size));
+
+            if ((end - SIZEOF_HEADER) % SIZEOF_RECORD != 0) {
+                throw new IllegalArgumentException(String.format("%d is not the end of a record", end));
+            }
+
+            // Insertion order is lost, which is fine: after deduplication every position has a single record left
+
+            Long2IntMap latest = new Long2IntMap();
+
+            read(SIZEOF_HEADER, end, (x, y, z, lightLevel) -> {
+                if (keepRegion.test(RegionCoords.encode(x >> 9, z >> 9))) {
+                    latest.put(IntPosition.encode(x, y, z), lightLevel);
+                }
+            });
+
+            File tmp = new File(file.getAbsoluteFile().getParentFile(), file.getName() + ".tmp");
+
+            try (FileChannel out = FileChannel.open(tmp.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                ByteBuffer buffer = ByteBuffer.allocate(FileUtil.BUFFER_SIZE / SIZEOF_RECORD * SIZEOF_RECORD);
+                buffer.putInt(JOURNAL_MAGIC).putInt(CURRENT_VERSION);
+
+                for (long position : latest.keys()) {
+                    if (buffer.remaining() < SIZEOF_RECORD) {
+                        buffer.flip();
+                        writeFully(out, buffer, out.position());
+                        buffer.clear();
+                    }
+
+                    buffer.putLong(position).put((byte) latest.get(position));
+                }
+
+                buffer.flip();
+                writeFully(out, buffer, out.position());
+
+                // Records appended since end are newer than all deduplicated ones
+
+                for (long position = end; position < size; ) {
+                    long transferred = channel.transferTo(position, size - position, out);
+
+                    if (transferred <= 0) {
+                        throw new EOFException();
+                    }
+
+                    position += transferred;
+                }
+
+                out.force(true);
+            }
+
+            channel.close();
+
+            try {
+                FileUtil.moveAtomically(tmp, file);
+            } finally {
+                channel = open(file);
+            }
+
+            return latest.size() + (int) ((size - end) / SIZEOF_RECORD);
+        }
+    }
+
+    /**
+     * @return The size of the journal in bytes, including pending records
+     */
+    public long getSize() throws IOException {
+        synchronized (lock) {
+            return channel.size() + pending.position();
+        }
+    }
+
+    /**
+     * @return The amount of {@code fsync}s performed
+     */
+    public long getSyncs() {
+        synchronized (lock) {
+            return syncs;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (lock) {
+            try {
+                sync();
+            } finally {
+                channel.close();
+            }
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+
+        channel.position(position);
+    }
+}
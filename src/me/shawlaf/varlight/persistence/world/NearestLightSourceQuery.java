@@ -0,0 +1,287 @@
+package me.shawlaf.varlight.persistence.world;
+
+import me.shawlaf.varlight.persistence.nls.LightSourceVisitor;
+import me.shawlaf.varlight.persistence.nls.NLSFile;
+import me.shawlaf.varlight.util.DistanceMetric;
+import me.shawlaf.varlight.util.FileUtil;
+import me.shawlaf.varlight.util.IntPosition;
+import me.shawlaf.varlight.util.Long2IntMap;
+import me.shawlaf.varlight.util.RegionCoords;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.function.ToIntFunction;
+
+/**
+ * A k-nearest-neighbour search over a {@link WorldLightStore}, see {@link WorldLightStore#findNearestLightSources(IntPosition, int, DistanceMetric, int, LightSourceVisitor)}.
+ * <p>
+ * Only Regions that may contain Light sources are visited: the non-empty Regions of the {@link WorldOccupancyIndex} and the Region files on disk that are not indexed yet.
+ * They are visited nearest first, each read at most once, and the search stops at the first Region that cannot hold a closer Light source, however large {@code maxDistance} is.
+ * Within a Region, chunks are visited in square rings around the chunk closest to the center.
+ * The candidates are kept in a bounded max-heap of primitive arrays.
+ */
+class NearestLightSourceQuery implements LightSourceVisitor {
+
+    // Regions are addressable by int block coordinates within these bounds, so chunk and block coordinates of visited Regions cannot overflow
+
+    private static final int MIN_REGION = Integer.MIN_VALUE >> 9;
+    private static final int MAX_REGION = Integer.MAX_VALUE >> 9;
+
+    private final WorldLightStore store;
+    private final int x, y, z;
+    private final int count;
+    private final DistanceMetric metric;
+    private final long maxDistance;
+
+    private final ToIntFunction<NLSFile> regionScanner = this::scanRegion;
+
+    // Max-heap of the best candidates so far, ordered by distance
+
+    private final long[] distances;
+    private final int[] xs, ys, zs, lightLevels;
+    private int size = 0;
+
+    private int regionX, regionZ;
+
+    NearestLightSourceQuery(WorldLightStore store, IntPosition center, int count, DistanceMetric metric, int maxDistance) {
+        this.store = store;
+        this.x = center.x;
+        this.y = center.y;
+        this.z = center.z;
+        this.count = count;
+        this.metric = metric;
+        this.maxDistance = metric.fromBlocks(maxDistance);
+
+        this.distances = new long[count];
+        this.xs = new int[count];
+        this.ys = new int[count];
+        this.zs = new int[count];
+        this.lightLevels = new int[count];
+    }
+
+    int run(LightSourceVisitor visitor) throws IOException {
+        Long2IntMap regions = collectRegions();
+
+        long[] keys = regions.keys();
+        long[] regionDistances = new long[keys.length];
+        Integer[] order = new Integer[keys.length];
+
+        for (int i = 0; i < keys.length; ++i) {
+            int regionX = (int) (keys[i] >> 32), regionZ = (int) keys[i];
+
+            regionDistances[i] = metric.distanceToBox(x, y, z, regionX << 9, 0, regionZ << 9, (regionX << 9) + 511, 255, (regionZ << 9) + 511);
+            order[i] = i;
+        }
+
+        Arrays.sort(order, Comparator.comparingLong(i -> regionDistances[i]));
+
+        for (int i : order) {
+            long distance = regionDistances[i];
+
+            if (distance > maxDistance || (size == count && distance >= distances[0])) {
+                break; // Neither this nor any farther Region can hold a closer Light source
+            }
+
+            this.regionX = (int) (keys[i] >> 32);
+            this.regionZ = (int) keys[i];
+
+            store.visitRegion(regionX, regionZ, regionScanner); // Regions deleted in the meantime are skipped
+        }
+
+        // Heap sort, leaves the candidates in ascending order
+
+        for (int end = size - 1; end > 0; --end) {
+            swap(0, end);
+            siftDown(0, end);
+        }
+
+        for (int i = 0; i < size; ++i) {
+            visitor.visit(xs[i], ys[i], zs[i], lightLevels[i]);
+        }
+
+        return size;
+    }
+
+    private Long2IntMap collectRegions() {
+        WorldOccupancyIndex occupancy = store.getOccupancyIndex();
+        Long2IntMap regions = new Long2IntMap();
+
+        for (long key : occupancy.getNonEmptyRegions()) {
+            addRegion(regions, (int) (key >> 32), (int) key);
+        }
+
+        File[] files = store.directory.listFiles((dir, name) -> name.endsWith(".nls"));
+
+        if (files != null) {
+            for (File file : files) {
+                RegionCoords coords = FileUtil.parseRegionCoordsFromFileName(file.getName());
+
+                if (coords != null && !occupancy.isIndexed(coords.x, coords.z)) {
+                    addRegion(regions, coords.x, coords.z);
+                }
+            }
+        }
+
+        return regions;
+    }
+
+    private static void addRegion(Long2IntMap regions, int regionX, int regionZ) {
+        if (regionX >= MIN_REGION && regionX <= MAX_REGION && regionZ >= MIN_REGION && regionZ <= MAX_REGION) {
+            regions.put(RegionCoords.encode(regionX, regionZ), 1);
+        }
+    }
+
+    private int scanRegion(NLSFile file) {
+        final int minChunkX = regionX << 5, minChunkZ = regionZ << 5;
+        final int maxChunkX = minChunkX + 31, maxChunkZ = minChunkZ + 31;
+
+        // The chunk of this Region closest to the center
+
+        final int centerChunkX = Math.max(minChunkX, Math.min(maxChunkX, x >> 4));
+        final int centerChunkZ = Math.max(minChunkZ, Math.min(maxChunkZ, z >> 4));
+
+        int found = scanChunk(file, centerChunkX, centerChunkZ);
+
+        for (int ring = 1; ring < 32; ++ring) {
+            int fromX = Math.max(minChunkX, centerChunkX - ring), toX = Math.min(maxChunkX, centerChunkX + ring);
+            int fromZ = Math.max(minChunkZ, centerChunkZ - ring + 1), toZ = Math.min(maxChunkZ, centerChunkZ + ring - 1);
+
+            for (int chunkX = fromX; chunkX <= toX; ++chunkX) {
+                if (centerChunkZ - ring >= minChunkZ) {
+                    found += scanChunk(file, chunkX, centerChunkZ - ring);
+                }
+
+                if (centerChunkZ + ring <= maxChunkZ) {
+                    found += scanChunk(file, chunkX, centerChunkZ + ring);
+                }
+            }
+
+            for (int chunkZ = fromZ; chunkZ <= toZ; ++chunkZ) {
+                if (centerChunkX - ring >= minChunkX) {
+                    found += scanChunk(file, centerChunkX - ring, chunkZ);
+                }
+
+                if (centerChunkX + ring <= maxChunkX) {
+                    found += scanChunk(file, centerChunkX + ring, chunkZ);
+                }
+            }
+        }
+
+        return found;
+    }
+
+    private int scanChunk(NLSFile file, int chunkX, int chunkZ) {
+        int mask = file.getMask(chunkX, chunkZ);
+
+        if (mask == 0 || !worthVisiting(chunkX << 4, 0, chunkZ << 4, (chunkX << 4) + 15, 255, (chunkZ << 4) + 15)) {
+            return 0;
+        }
+
+        // Start at the section closest to the center, then alternate upwards and downwards
+
+        final int startY = Math.max(0, Math.min(15, y >> 4));
+        int found = 0;
+
+        for (int i = 0; i < 32; ++i) {
+            int sectionY = startY + ((i & 1) == 0 ? i >> 1 : -((i + 1) >> 1));
+
+            if (sectionY < 0 || sectionY >= 16 || (mask & (1 << sectionY)) == 0) {
+                continue;
+            }
+
+            if (!worthVisiting(chunkX << 4, sectionY << 4, chunkZ << 4, (chunkX << 4) + 15, (sectionY << 4) + 15, (chunkZ << 4) + 15)) {
+                continue;
+            }
+
+            found += file.forEachLightSource(chunkX, sectionY, chunkZ, this);
+        }
+
+        return found;
+    }
+
+    private boolean worthVisiting(int minX, int minY, int minZ, int maxX, int maxY, int maxZ) {
+        long distance = metric.distanceToBox(x, y, z, minX, minY, minZ, maxX, maxY, maxZ);
+
+        return distance <= maxDistance && (size < count || distance < distances[0]);
+    }
+
+    @Override
+    public void visit(int x, int y, int z, int lightLevel) {
+        long distance = metric.distance((long) x - this.x, (long) y - this.y, (long) z - this.z);
+
+        if (distance > maxDistance) {
+            return;
+        }
+
+        if (size < count) {
+            set(size, distance, x, y, z, lightLevel);
+            siftUp(size++);
+        } else if (distance < distances[0]) {
+            set(0, distance, x, y, z, lightLevel);
+            siftDown(0, size);
+        }
+    }
+
+    private void set(int index, long distance, int x, int y, int z, int lightLevel) {
+        distances[index] = distance;
+        xs[index] = x;
+        ys[index] = y;
+        zs[index] = z;
+        lightLevels[index] = lightLevel;
+    }
+
+    private void siftUp(int index) {
+        while (index > 0) {
+            int parent = (index - 1) >> 1;
+
+            if (distances[parent] >= distances[index]) {
+                return;
+            }
+
+            swap(parent, index);
+            index = parent;
+        }
+    }
+
+    private void siftDown(int index, int size) {
+        while (true) {
+            int largest = index;
+            int left = 2 * index + 1;
+            int right = left + 1;
+
+            if (left < size && distances[left] > distances[largest]) {
+                largest = left;
+            }
+
+            if (right < size && distances[right] > distances[largest]) {
+                largest = right;
+            }
+
+            if (largest == index) {
+                return;
+            }
+
+            swap(index, largest);
+            index = largest;
+        }
+    }
+
+    private void swap(int a, int b) {
+        long distance = distances[a];
+        distances[a] = distances[b];
+        distances[b] = distance;
+
+        swap(xs, a, b);
+        swap(ys, a, b);
+        swap(zs, a, b);
+        swap(lightLevels, a, b);
+    }
+
+    private static void swap(int[] array, int a, int b) {
+        int tmp = array[a];
+        array[a] = array[b];
+        array[b] = tmp;
+    }
+}
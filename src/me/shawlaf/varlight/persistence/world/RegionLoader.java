@@ -0,0 +1,268 @@
+package me.shawlaf.varlight.persistence.world;
+
+import me.shawlaf.varlight.persistence.LightPersistFailedException;
+import me.shawlaf.varlight.persistence.nls.NLSFile;
+import me.shawlaf.varlight.util.Long2ObjectMap;
+import me.shawlaf.varlight.util.RegionCoords;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Loads the {@link NLSFile}s of one World on a bounded I/O pool.
+ * <p>
+ * At most one load per Region is in flight at any time, concurrent requests for the same Region share the same {@link CompletableFuture}.
+ * Failed loads are remembered for a short time, so repeated requests for a broken Region file do not hit the disk again.
+ */
+public class RegionLoader {
+
+    public static final int DEFAULT_IO_THREADS = 2;
+    public static final long DEFAULT_FAILURE_TTL_MILLIS = 5_000;
+
+    private static final AtomicInteger POOL_COUNTER = new AtomicInteger();
+
+    public final File directory;
+
+    private final Object lock = new Object();
+    private final boolean deflate;
+    private final ExecutorService executor;
+    private final boolean ownsExecutor;
+    private final long failureTtlMillis;
+
+    private final Long2ObjectMap<CompletableFuture<NLSFile>> inFlight = new Long2ObjectMap<>();
+    private final Long2ObjectMap<FailedLoad> failures = new Long2ObjectMap<>();
+
+    private long loads = 0, sharedLoads = 0, cachedFailures = 0;
+
+    public RegionLoader(@NotNull File directory, boolean deflate) {
+        this(directory, deflate, DEFAULT_IO_THREADS, DEFAULT_FAILURE_TTL_MILLIS);
+    }
+
+    public RegionLoader(@NotNull File directory, boolean deflate, int ioThreads, long failureTtlMillis) {
+        this(directory, deflate, Executors.newFixedThreadPool(ioThreads, daemonThreadFactory()), failureTtlMillis);
+    }
+
+    /**
+     * @param directory        The directory containing the Region files
+     * @param deflate          Whether newly created Regions should be written compressed
+     * @param executor         The executor performing the blocking reads, {@link RegionLoader#shutdown()} will shut it down.
+     * @param failureTtlMillis For how long a failed load is returned to subsequent requests, before the Region is read again.
+     */
+    public RegionLoader(@NotNull File directory, boolean deflate, @NotNull ExecutorService executor, long failureTtlMillis) {
+        this(directory, deflate, executor, true, failureTtlMillis);
+    }
+
+    /**
+     * Performs the blocking reads on the {@link IOScheduler.Lane} of {@code directory}, so that Worlds on different disks do not wait for each other.
+     * The lane is left running by {@link RegionLoader#shutdown()}, see {@link IOScheduler#shutdown()}.
+     */
+    public RegionLoader(@NotNull File directory, boolean deflate, @NotNull IOScheduler scheduler) {
+        this(directory, deflate, scheduler.lane(directory), false, DEFAULT_FAILURE_TTL_MILLIS);
+    }
+
+    private RegionLoader(@NotNull File directory, boolean deflate, @NotNull ExecutorService executor, boolean ownsExecutor, long failureTtlMillis) {
+        Objects.requireNonNull(directory);
+        Objects.requireNonNull(executor);
+
+        if (!directory.exists()) {
+            if (!directory.mkdirs()) {
+                throw new LightPersistFailedException("Could not create directory \"" + directory.getAbsolutePath() + "\"");
+            }
+        }
+
+        if (!directory.isDirectory()) {
+            throw new IllegalArgumentException(String.format("\"%s\" is not a directory!", directory.getAbsolutePath()));
+        }
+
+        this.directory = directory;
+        this.deflate = deflate;
+        this.executor = executor;
+        this.ownsExecutor = ownsExecutor;
+        this.failureTtlMillis = failureTtlMillis;
+    }
+
+    private static ThreadFactory daemonThreadFactory() {
+        final int pool = POOL_COUNTER.incrementAndGet();
+        final AtomicInteger threads = new AtomicInteger();
+
+        return r -> {
+            Thread thread = new Thread(r, String.format("VarLight-RegionLoader-%d-%d", pool, threads.incrementAndGet()));
+            thread.setDaemon(true);
+
+            return thread;
+        };
+    }
+
+    public File getRegionFile(int regionX, int regionZ) {
+        return new File(directory, String.format(NLSFile.FILE_NAME_FORMAT, regionX, regionZ));
+    }
+
+    /**
+     * <p>Loads the specified Region in the background.</p>
+     * <p>If a load for the Region is already in progress, the pending {@link CompletableFuture} is returned instead.
+     * Callers are expected to cache the result themselves, once the future completes, the next request will read the Region again.</p>
+     *
+     * @param regionX The X Coordinate of the Region
+     * @param regionZ The Z Coordinate of the Region
+     * @return A {@link CompletableFuture} completed with the loaded {@link NLSFile}, or exceptionally with the cause of the failure.
+     */
+    @NotNull
+    public CompletableFuture<NLSFile> load(int regionX, int regionZ) {
+        final long key = RegionCoords.encode(regionX, regionZ);
+        final CompletableFuture<NLSFile> future = new CompletableFuture<>();
+
+        synchronized (lock) {
+            FailedLoad failed = failures.get(key);
+
+            if (failed != null) {
+                if (System.currentTimeMillis() < failed.expiresAt) {
+                    ++cachedFailures;
+
+                    future.completeExceptionally(failed.cause);
+
+                    return future;
+                }
+
+                failures.remove(key);
+            }
+
+            CompletableFuture<NLSFile> pending = inFlight.get(key);
+
+            if (pending != null) {
+                ++sharedLoads;
+
+                return pending;
+            }
+
+            inFlight.put(key, future);
+            ++loads;
+        }
+
+        // Submitted without holding the lock: an executor running the read on the calling thread must not block all other loads
+
+        try {
+            executor.execute(() -> {
+                NLSFile file;
+
+                try {
+                    file = read(regionX, regionZ);
+                } catch (Throwable t) {
+                    synchronized (lock) {
+                        inFlight.remove(key);
+                        failures.put(key, new FailedLoad(t, System.currentTimeMillis() + failureTtlMillis));
+                    }
+
+                    future.completeExceptionally(t);
+                    return;
+                }
+
+                // Stop sharing before completing, a completed load may already be unloaded again by the time it is requested
+
+                synchronized (lock) {
+                    inFlight.remove(key);
+                }
+
+                future.complete(file);
+            });
+        } catch (RejectedExecutionException e) {
+            synchronized (lock) {
+                inFlight.remove(key);
+            }
+
+            future.completeExceptionally(e);
+        }
+
+        return future;
+    }
+
+    /**
+     * Forgets all remembered failures, so that the next request for those Regions reads them again.
+     */
+    public void clearFailures() {
+        synchronized (lock) {
+            failures.clear();
+        }
+    }
+
+    public int getInFlightCount() {
+        synchronized (lock) {
+            return inFlight.size();
+        }
+    }
+
+    /**
+     * @return The amount of loads that actually read a Region file.
+     */
+    public long getLoads() {
+        synchronized (lock) {
+            return loads;
+        }
+    }
+
+    /**
+     * @return The amount of requests that joined a load already in flight.
+     */
+    public long getSharedLoads() {
+        synchronized (lock) {
+            return sharedLoads;
+        }
+    }
+
+    /**
+     * @return The amount of requests answered from a remembered failure.
+     */
+    public long getCachedFailures() {
+        synchronized (lock) {
+            return cachedFailures;
+        }
+    }
+
+    /**
+     * @return The executor performing the blocking I/O of this World
+     */
+    public Executor getExecutor() {
+        return executor;
+    }
+
+    public void shutdown() {
+        if (ownsExecutor) {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Reads the existing Region file on the calling thread, neither sharing nor caching the load.
+     */
+    NLSFile readExisting(int regionX, int regionZ) throws IOException {
+        return NLSFile.existingFile(getRegionFile(regionX, regionZ), deflate);
+    }
+
+    private NLSFile read(int regionX, int regionZ) throws IOException {
+        File file = getRegionFile(regionX, regionZ);
+
+        if (file.exists()) {
+            return NLSFile.existingFile(file, deflate);
+        }
+
+        return NLSFile.newFile(file, regionX, regionZ, deflate);
+    }
+
+    private static class FailedLoad {
+        private final Throwable cause;
+        private final long expiresAt;
+
+        private FailedLoad(Throwable cause, long expiresAt) {
+            this.cause = cause;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -0,0 +1,227 @@
+package me.shawlaf.varlight.persistence.world;
+
+import me.shawlaf.varlight.util.IntPosition;
+import me.shawlaf.varlight.util.Long2IntMap;
+import me.shawlaf.varlight.util.Long2ObjectMap;
+import me.shawlaf.varlight.util.RegionCoords;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.PriorityQueue;
+
+/**
+ * Loads Regions into a {@link WorldLightStore} ahead of moving viewers (e.g. players).
+ * <p>
+ * For every viewer, the chunks around its predicted path over the next {@code lookAheadTicks} are collected.
+ * The Regions containing those chunks are queued, ordered by their distance to the viewer, and loaded in the background.
+ * Queued Regions no viewer is heading towards anymore are dropped before they are loaded.
+ * <p>
+ * Since NLS Regions are always loaded as a whole, chunk-level targets are merged into their Region.
+ */
+public class RegionPrefetcher {
+
+    private final Object lock = new Object();
+    private final WorldLightStore store;
+
+    private final int lookAheadTicks;
+    private final int chunkRadius;
+    private final int maxInFlight;
+
+    private final Map<Object, Long2IntMap> viewerTargets = new HashMap<>();
+    private final Long2ObjectMap<Prefetch> queued = new Long2ObjectMap<>();
+    private final Long2ObjectMap<Prefetch> running = new Long2ObjectMap<>();
+    private final PriorityQueue<Prefetch> queue = new PriorityQueue<>();
+
+    private long issued = 0, cancelled = 0;
+
+    /**
+     * @param store          The {@link WorldLightStore} to load the Regions into
+     * @param lookAheadTicks How many ticks of movement to predict
+     * @param chunkRadius    The radius in chunks around each predicted position, whose Regions should be loaded
+     * @param maxInFlight    The maximum amount of prefetches running at the same time
+     */
+    public RegionPrefetcher(@NotNull WorldLightStore store, int lookAheadTicks, int chunkRadius, int maxInFlight) {
+        Objects.requireNonNull(store);
+
+        if (lookAheadTicks < 0 || chunkRadius < 0 || maxInFlight < 1) {
+            throw new IllegalArgumentException("lookAheadTicks and chunkRadius must be >= 0, maxInFlight must be >= 1");
+        }
+
+        this.store = store;
+        this.lookAheadTicks = lookAheadTicks;
+        this.chunkRadius = chunkRadius;
+        this.maxInFlight = maxInFlight;
+    }
+
+    /**
+     * <p>Updates the position and velocity of a viewer and reschedules the prefetch queue.</p>
+     *
+     * @param viewer   An identifier of the viewer, e.g. a player's UUID
+     * @param position The current block position of the viewer
+     * @param velocity The movement of the viewer in blocks per tick
+     */
+    public void update(@NotNull Object viewer, @NotNull IntPosition position, @NotNull IntPosition velocity) {
+        Objects.requireNonNull(viewer);
+        Objects.requireNonNull(position);
+        Objects.requireNonNull(velocity);
+
+        Long2IntMap targets = collectTargets(position, velocity);
+
+        synchronized (lock) {
+            viewerTargets.put(viewer, targets);
+            reschedule();
+        }
+
+        dispatch();
+    }
+
+    /**
+     * Stops prefetching for the specified viewer, queued Regions only this viewer was heading towards are dropped.
+     *
+     * @param viewer The identifier passed to {@link RegionPrefetcher#update(Object, IntPosition, IntPosition)}
+     */
+    public void remove(@NotNull Object viewer) {
+        synchronized (lock) {
+            if (viewerTargets.remove(viewer) != null) {
+                reschedule();
+            }
+        }
+    }
+
+    public int getQueuedCount() {
+        synchronized (lock) {
+            return queue.size();
+        }
+    }
+
+    public int getInFlightCount() {
+        synchronized (lock) {
+            return running.size();
+        }
+    }
+
+    /**
+     * @return The amount of prefetches that were started.
+     */
+    public long getIssued() {
+        synchronized (lock) {
+            return issued;
+        }
+    }
+
+    /**
+     * @return The amount of queued prefetches that were dropped, because no viewer was heading towards the Region anymore.
+     */
+    public long getCancelled() {
+        synchronized (lock) {
+            return cancelled;
+        }
+    }
+
+    /**
+     * @return See {@link WorldLightStore#getPrefetchHitRate()}
+     */
+    public double getHitRate() {
+        return store.getPrefetchHitRate();
+    }
+
+    private Long2IntMap collectTargets(IntPosition position, IntPosition velocity) {
+        Long2IntMap targets = new Long2IntMap(16, Integer.MAX_VALUE);
+
+        long travelled = Math.max(Math.abs((long) velocity.x), Math.abs((long) velocity.z)) * lookAheadTicks;
+        int samples = (int) Math.min(lookAheadTicks, travelled / 16) + 1; // At least one sample per chunk travelled
+
+        for (int sample = 0; sample < samples; ++sample) {
+            long ticks = samples == 1 ? 0 : (long) lookAheadTicks * sample / (samples - 1);
+
+            int chunkX = (int) ((position.x + velocity.x * ticks) >> 4);
+            int chunkZ = (int) ((position.z + velocity.z * ticks) >> 4);
+
+            for (int cz = chunkZ - chunkRadius; cz <= chunkZ + chunkRadius; ++cz) {
+                for (int cx = chunkX - chunkRadius; cx <= chunkX + chunkRadius; ++cx) {
+                    long dx = ((long) cx << 4) + 8 - position.x;
+                    long dz = ((long) cz << 4) + 8 - position.z;
+
+                    long key = RegionCoords.encode(cx >> 5, cz >> 5);
+                    int distance = (int) Math.min(Integer.MAX_VALUE - 1, dx * dx + dz * dz); // Squared block distance, beyond ~46000 blocks all targets rank the same
+
+                    if (distance < targets.get(key)) {
+                        targets.put(key, distance);
+                    }
+                }
+            }
+        }
+
+        return targets;
+    }
+
+    private void reschedule() {
+        final Long2IntMap merged = new Long2IntMap(queued.size() + running.size(), Integer.MAX_VALUE);
+
+        for (Long2IntMap targets : viewerTargets.values()) {
+            targets.forEach((key, distance) -> {
+                if (distance < merged.get(key)) {
+                    merged.put(key, distance);
+                }
+            });
+        }
+
+        cancelled += queued.removeIf(key -> !merged.containsKey(key));
+
+        merged.forEach((key, distance) -> {
+            if (running.containsKey(key) || store.isLoaded((int) (key >> 32), (int) key)) {
+                queued.remove(key);
+                return;
+            }
+
+            queued.put(key, new Prefetch(key, distance));
+        });
+
+        queue.clear();
+        queued.forEach((key, prefetch) -> queue.add(prefetch));
+    }
+
+    private void dispatch() {
+        while (true) {
+            Prefetch next;
+
+            synchronized (lock) {
+                if (running.size() >= maxInFlight || (next = queue.poll()) == null) {
+                    return;
+                }
+
+                queued.remove(next.key);
+                running.put(next.key, next);
+
+                ++issued;
+            }
+
+            final long key = next.key;
+
+            store.prefetchRegion((int) (key >> 32), (int) key).whenComplete((file, throwable) -> {
+                synchronized (lock) {
+                    running.remove(key);
+                }
+
+                dispatch();
+            });
+        }
+    }
+
+    private static class Prefetch implements Comparable<Prefetch> {
+        private final long key;
+        private final int distanceSquared;
+
+        private Prefetch(long key, int distanceSquared) {
+            this.key = key;
+            this.distanceSquared = distanceSquared;
+        }
+
+        @Override
+        public int compareTo(@NotNull Prefetch o) {
+            return Integer.compare(distanceSquared, o.distanceSquared);
+        }
+    }
+}
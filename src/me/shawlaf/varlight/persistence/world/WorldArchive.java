@@ -0,0 +1,370 @@
+package me.shawlaf.varlight.persistence.world;
+
+import me.shawlaf.varlight.persistence.nls.NLSFile;
+import me.shawlaf.varlight.util.FileUtil;
+import me.shawlaf.varlight.util.Long2ObjectMap;
+import me.shawlaf.varlight.util.RegionCoords;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * A single file holding all Region files of one World, e.g. to move a World's light data between servers.
+ * <p>
+ * The Region files are stored byte for byte (compressed or not) one after another, followed by an index of all Regions.
+ * Exporting and importing copy one Region file at a time through the {@link FileChannel}s, without decoding them.
+ * Single Regions can be restored without reading the rest of the archive.
+ * <p>
+ * Format:
+ * <pre>
+ * [int32 magic "VLAR"][int32 version]
+ * for every Region: [int32 regionX][int32 regionZ][int32 length][length bytes of the Region file]
+ * [int32 regionCount] for every Region: [int32 regionX][int32 regionZ][int64 offset][int32 length]
+ * [int64 index offset][int32 magic "VLAR"]
+ * </pre>
+ */
+public class WorldArchive implements Closeable {
+
+    public static final int ARCHIVE_MAGIC = 0x56_4C_41_52;
+    public static final int CURRENT_VERSION = 1;
+
+    private static final int SIZEOF_HEADER = 8;
+    private static final int SIZEOF_INDEX_ENTRY = 20;
+    private static final int SIZEOF_TRAILER = 12;
+
+    public final File file;
+
+    private final FileChannel channel;
+    private final Long2ObjectMap<Entry> index;
+
+    private WorldArchive(File file, FileChannel channel, Long2ObjectMap<Entry> index) {
+        this.file = file;
+        this.channel = channel;
+        this.index = index;
+    }
+
+    /**
+     * <p>Writes all Region files of {@code directory} into a new archive, replacing {@code archive} if it exists.</p>
+     * <p>Regions loaded in a {@link WorldLightStore} are exported in the state they were last saved in, see {@link WorldLightStore#save()}.</p>
+     *
+     * @param directory The directory containing the Region files
+     * @param archive   The archive file to write
+     * @return The amount of exported Regions
+     * @throws IOException If an {@link IOException} occurs while reading a Region file or writing the archive.
+     */
+    public static int export(@NotNull File directory, @NotNull File archive) throws IOException {
+        Objects.requireNonNull(directory);
+        Objects.requireNonNull(archive);
+
+        File[] files = directory.listFiles((dir, name) -> name.endsWith(".nls") && FileUtil.parseRegionCoordsFromFileName(name) != null);
+
+        if (files == null) {
+            throw new IOException(String.format("Could not list the files of \"%s\"", directory.getAbsolutePath()));
+        }
+
+        Arrays.sort(files); // Deterministic output
+
+        List<RegionCoords> regions = new ArrayList<>(files.length);
+        long[] offsets = new long[files.length];
+        int[] lengths = new int[files.length];
+
+        ByteBuffer buffer = ByteBuffer.allocate(SIZEOF_INDEX_ENTRY);
+
+        try (FileChannel out = FileChannel.open(archive.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            buffer.putInt(ARCHIVE_MAGIC).putInt(CURRENT_VERSION);
+            writeFully(out, buffer);
+
+            for (File regionFile : files) {
+                RegionCoords coords = FileUtil.parseRegionCoordsFromFileName(regionFile.getName());
+
+                try (FileChannel in = FileChannel.open(regionFile.toPath(), StandardOpenOption.READ)) {
+                    long size = in.size();
+
+                    if (size > Integer.MAX_VALUE) {
+                        throw new IOException(String.format("Region file %s is too large", regionFile.getAbsolutePath()));
+                    }
+
+                    buffer.putInt(coords.x).putInt(coords.z).putInt((int) size);
+                    writeFully(out, buffer);
+
+                    offsets[regions.size()] = out.position();
+                    lengths[regions.size()] = (int) size;
+
+                    transferFully(in, 0, size, out);
+                }
+
+                regions.add(coords);
+            }
+
+            final long indexOffset = out.position();
+
+            buffer.putInt(regions.size());
+            writeFully(out, buffer);
+
+            for (int i = 0; i < regions.size(); ++i) {
+                RegionCoords coords = regions.get(i);
+
+                buffer.putInt(coords.x).putInt(coords.z).putLong(offsets[i]).putInt(lengths[i]);
+                writeFully(out, buffer);
+            }
+
+            buffer.putLong(indexOffset).putInt(ARCHIVE_MAGIC);
+            writeFully(out, buffer);
+        }
+
+        return regions.size();
+    }
+
+    /**
+     * Opens an archive written by {@link WorldArchive#export(File, File)}, only its index is read.
+     *
+     * @throws IOException If an {@link IOException} occurs while reading the index.
+     */
+    public static WorldArchive open(@NotNull File archive) throws IOException {
+        Objects.requireNonNull(archive);
+
+        FileChannel channel = FileChannel.open(archive.toPath(), StandardOpenOption.READ);
+
+        try {
+            long size = channel.size();
+
+            if (size < SIZEOF_HEADER + 4 + SIZEOF_TRAILER) {
+                throw new IllegalStateException(String.format("%s is not a World archive", archive.getAbsolutePath()));
+            }
+
+            ByteBuffer buffer = readFully(channel, 0, SIZEOF_HEADER);
+
+            if (buffer.getInt() != ARCHIVE_MAGIC) {
+                throw new IllegalStateException(String.format("%s is not a World archive", archive.getAbsolutePath()));
+            }
+
+            int version = buffer.getInt();
+
+            if (version != CURRENT_VERSION) {
+                throw new IllegalStateException(String.format("Expected World archive Version %d, got %d", CURRENT_VERSION, version));
+            }
+
+            buffer = readFully(channel, size - SIZEOF_TRAILER, SIZEOF_TRAILER);
+
+            long indexOffset = buffer.getLong();
+
+            if (buffer.getInt() != ARCHIVE_MAGIC || indexOffset < SIZEOF_HEADER || indexOffset > size - SIZEOF_TRAILER - 4) {
+                throw new IllegalStateException(String.format("The index of World archive %s is damaged", archive.getAbsolutePath()));
+            }
+
+            int count = readFully(channel, indexOffset, 4).getInt();
+
+            if (count < 0 || indexOffset + 4 + (long) count * SIZEOF_INDEX_ENTRY != size - SIZEOF_TRAILER) {
+                throw new IllegalStateException(String.format("The index of World archive %s is damaged", archive.getAbsolutePath()));
+            }
+
+            buffer = readFully(channel, indexOffset + 4, count * SIZEOF_INDEX_ENTRY);
+
+            Long2ObjectMap<Entry> index = new Long2ObjectMap<>(count);
+
+            for (int i = 0; i < count; ++i) {
+                int regionX = buffer.getInt();
+                int regionZ = buffer.getInt();
+
+                index.put(RegionCoords.encode(regionX, regionZ), new Entry(regionX, regionZ, buffer.getLong(), buffer.getInt()));
+            }
+
+            return new WorldArchive(archive, channel, index);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    public int getRegionCount() {
+        return index.size();
+    }
+
+    public boolean contains(int regionX, int regionZ) {
+        return index.containsKey(RegionCoords.encode(regionX, regionZ));
+    }
+
+    /**
+     * @return The Coordinates of all archived Regions, packed using {@link RegionCoords#encode(int, int)}
+     */
+    public long[] getRegions() {
+        return index.keys();
+    }
+
+    /**
+     * Restores a single Region file into {@code directory}, replacing an existing file of that Region.
+     *
+     * @return The restored Region file
+     * @throws IllegalArgumentException If the archive does not contain the Region
+     * @throws IOException              If an {@link IOException} occurs while copying the Region file.
+     */
+    @NotNull
+    public File restoreRegionFile(int regionX, int regionZ, @NotNull File directory) throws IOException {
+        return restoreRegionFile(regionX, regionZ, directory, null);
+    }
+
+    /**
+     * Restores a single Region file into {@code directory} and drops the Region from {@code occupancy}, which would otherwise still describe the replaced file.
+     *
+     * @see WorldArchive#restoreRegionFile(int, int, File)
+     */
+    @NotNull
+    public File restoreRegionFile(int regionX, int regionZ, @NotNull File directory, @Nullable WorldOccupancyIndex occupancy) throws IOException {
+        Objects.requireNonNull(directory);
+
+        Entry entry = index.get(RegionCoords.encode(regionX, regionZ));
+
+        if (entry == null) {
+            throw new IllegalArgumentException(String.format("World archive %s does not contain Region %s", file.getAbsolutePath(), new RegionCoords(regionX, regionZ)));
+        }
+
+        return restore(entry, directory, occupancy);
+    }
+
+    /**
+     * Restores a single Region file into {@code directory} and loads it.
+     *
+     * @see WorldArchive#restoreRegionFile(int, int, File)
+     */
+    @NotNull
+    public NLSFile restoreRegion(int regionX, int regionZ, @NotNull File directory) throws IOException {
+        File regionFile = restoreRegionFile(regionX, regionZ, directory);
+
+        return NLSFile.existingFile(regionFile, FileUtil.isDeflated(regionFile));
+    }
+
+    /**
+     * <p>Restores all Region files into {@code directory}, replacing existing files of the archived Regions.</p>
+     * <p>Regions must not be loaded in a {@link WorldLightStore} while they are restored.</p>
+     *
+     * @return The amount of restored Regions
+     * @throws IOException If an {@link IOException} occurs while copying a Region file.
+     */
+    public int restoreAll(@NotNull File directory) throws IOException {
+        return restoreAll(directory, null);
+    }
+
+    /**
+     * Restores all Region files into {@code directory} and drops the restored Regions from {@code occupancy}, e.g. {@link WorldLightStore#getOccupancyIndex()}.
+     *
+     * @see WorldArchive#restoreAll(File)
+     */
+    public int restoreAll(@NotNull File directory, @Nullable WorldOccupancyIndex occupancy) throws IOException {
+        Objects.requireNonNull(directory);
+
+        List<Entry> entries = new ArrayList<>(index.size());
+        index.forEach((key, entry) -> entries.add(entry));
+
+        entries.sort((a, b) -> Long.compare(a.offset, b.offset)); // Read the archive sequentially
+
+        for (Entry entry : entries) {
+            restore(entry, directory, occupancy);
+        }
+
+        return entries.size();
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private File restore(Entry entry, File directory, WorldOccupancyIndex occupancy) throws IOException {
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new IOException(String.format("Could not create directory \"%s\"", directory.getAbsolutePath()));
+        }
+
+        File target = new File(directory, String.format(NLSFile.FILE_NAME_FORMAT, entry.regionX, entry.regionZ));
+
+        // Copy into a temporary file first, a failed restore must not leave a truncated Region file behind
+
+        File tmp = new File(directory, target.getName() + ".tmp");
+
+        try (FileChannel out = FileChannel.open(tmp.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            long position = 0;
+
+            while (position < entry.length) {
+                long transferred = channel.transferTo(entry.offset + position, entry.length - position, out);
+
+                if (transferred <= 0) {
+                    throw new EOFException(String.format("World archive %s ended inside of Region %s", file.getAbsolutePath(), new RegionCoords(entry.regionX, entry.regionZ)));
+                }
+
+                position += transferred;
+            }
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(tmp.toPath());
+            throw e;
+        }
+
+        FileUtil.moveAtomically(tmp, target);
+
+        if (occupancy != null) {
+            occupancy.invalidate(entry.regionX, entry.regionZ);
+        }
+
+        return target;
+    }
+
+    private static void writeFully(FileChannel out, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+
+        buffer.clear();
+    }
+
+    private static void transferFully(FileChannel in, long position, long count, FileChannel out) throws IOException {
+        while (count > 0) {
+            long transferred = in.transferTo(position, count, out);
+
+            if (transferred <= 0) {
+                throw new EOFException();
+            }
+
+            position += transferred;
+            count -= transferred;
+        }
+    }
+
+    private static ByteBuffer readFully(FileChannel in, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+
+        while (buffer.hasRemaining()) {
+            if (in.read(buffer, position + buffer.position()) == -1) {
+                throw new EOFException();
+            }
+        }
+
+        buffer.flip();
+
+        return buffer;
+    }
+
+    private static class Entry {
+        private final int regionX, regionZ;
+        private final long offset;
+        private final int length;
+
+        private Entry(int regionX, int regionZ, long offset, int length) {
+            this.regionX = regionX;
+            this.regionZ = regionZ;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+}
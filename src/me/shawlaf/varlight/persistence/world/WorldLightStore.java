@@ -0,0 +1,1456 @@
+package me.shawlaf.varlight.persistence.world;
+
+import me.shawlaf.varlight.persistence.nls.LightChangeBatch;
+import me.shawlaf.varlight.persistence.nls.LightChangeBuffer;
+import me.shawlaf.varlight.persistence.nls.LightChangeListener;
+import me.shawlaf.varlight.persistence.nls.LightEditHistory;
+import me.shawlaf.varlight.persistence.nls.LightSourceVisitor;
+import me.shawlaf.varlight.persistence.nls.LightWriteListener;
+import me.shawlaf.varlight.persistence.nls.NLSFile;
+import me.shawlaf.varlight.persistence.nls.NLSSnapshot;
+import me.shawlaf.varlight.util.BlockVolume;
+import me.shawlaf.varlight.util.DistanceMetric;
+import me.shawlaf.varlight.util.FileUtil;
+import me.shawlaf.varlight.util.IntPosition;
+import me.shawlaf.varlight.util.Long2ObjectMap;
+import me.shawlaf.varlight.util.Preconditions;
+import me.shawlaf.varlight.util.RegionCoords;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Consumer;
+import java.util.function.ToIntFunction;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Holds the {@link NLSFile}s of one World, loading Regions on demand through a {@link RegionLoader}.
+ * <p>
+ * The amount of light data kept in memory is bounded by a budget of chunk sections (2048 bytes each).
+ * Once the budget is exceeded, the least recently used Regions are unloaded, clean Regions first.
+ * Dirty Regions are saved on the executor of the {@link RegionLoader} before they are unloaded, without locking this store.
+ * Until those saves have finished, the budget may be exceeded, see {@link WorldLightStore#getPendingEvictions()}.
+ */
+public class WorldLightStore {
+
+    private static final Logger LOGGER = Logger.getLogger(WorldLightStore.class.getSimpleName());
+
+    /**
+     * The size in bytes above which the {@link LightJournal} is compacted after Regions had to be saved to make room.
+     * Afterwards, the journal is only compacted again once it has doubled in size.
+     */
+    public static final long JOURNAL_COMPACT_THRESHOLD = 4L << 20;
+
+    public final File directory;
+
+    private final Object lock = new Object();
+    private final RegionLoader loader;
+    private final int maxSections;
+
+    private final Long2ObjectMap<RegionEntry> regions = new Long2ObjectMap<>();
+    private final Long2ObjectMap<PendingRegion> pending = new Long2ObjectMap<>(); // Requested, but not installed yet
+    private final Long2ObjectMap<RegionEntry> evicting = new Long2ObjectMap<>(); // Evicted, but still being saved
+    private final WorldOccupancyIndex occupancy = new WorldOccupancyIndex();
+
+    private LightJournal journal;
+    private LightWriteListener journalWriter; // Set on all loaded Regions while the journal is open
+    private long compactedJournalSize = 0;
+
+    private final List<LightChangeListener> changeListeners = new ArrayList<>();
+    private final LightChangeListener collector = this::collectChanges;
+    private LightChangeBuffer changes; // Only collecting while there are change listeners
+
+    private RegionEntry mostRecent, leastRecent;
+    private long heldSections = 0, evictingSections = 0;
+    private long detachedRegions = 0; // Once a Region has left this store, its file may have been replaced
+
+    private long hits = 0, misses = 0, evictions = 0, evictionSaves = 0;
+    private long prefetchHits = 0, prefetchWasted = 0;
+
+    public WorldLightStore(@NotNull File directory, int maxSections) {
+        this(directory, maxSections, true);
+    }
+
+    public WorldLightStore(@NotNull File directory, int maxSections, boolean deflate) {
+        this(new RegionLoader(directory, deflate), maxSections);
+    }
+
+    /**
+     * Performs all loads and asynchronous saves on the {@link IOScheduler.Lane} of {@code directory}.
+     */
+    public WorldLightStore(@NotNull File directory, int maxSections, @NotNull IOScheduler scheduler) {
+        this(new RegionLoader(directory, true, scheduler), maxSections);
+    }
+
+    public WorldLightStore(@NotNull RegionLoader loader, int maxSections) {
+        Objects.requireNonNull(loader);
+
+        if (maxSections < 0) {
+            throw new IllegalArgumentException("maxSections must be >= 0");
+        }
+
+        this.loader = loader;
+        this.directory = loader.directory;
+        this.maxSections = maxSections;
+    }
+
+    public File getRegionFile(int regionX, int regionZ) {
+        return loader.getRegionFile(regionX, regionZ);
+    }
+
+    public RegionLoader getLoader() {
+        return loader;
+    }
+
+    /**
+     * @return The {@link WorldOccupancyIndex} of all Regions that have been loaded into this store
+     */
+    public WorldOccupancyIndex getOccupancyIndex() {
+        return occupancy;
+    }
+
+    /**
+     * <p>Returns the {@link NLSFile} of the specified Region, loading it through the {@link RegionLoader} if it is not in memory yet.</p>
+     * <p>Regions without a file on disk are created empty, they will only be written once they have been modified.</p>
+     * <p>The returned file is only valid until the Region is evicted to stay within the budget of this store, which can happen on any access to another Region.
+     * Once evicted, the file is unloaded and rejects all changes and saves with an {@link IllegalStateException}.
+     * Changes should be made through {@link WorldLightStore#setCustomLuminance(IntPosition, int)} or {@link WorldLightStore#edit(int, int, Consumer)} instead,
+     * which also keep the budget of this store up to date.</p>
+     *
+     * @param regionX The X Coordinate of the Region
+     * @param regionZ The Z Coordinate of the Region
+     * @return The loaded {@link NLSFile}, valid until the Region is evicted
+     * @throws IOException If an {@link IOException} occurs while reading the Region file.
+     */
+    @NotNull
+    public NLSFile getRegion(int regionX, int regionZ) throws IOException {
+        try {
+            return getRegionAsync(regionX, regionZ).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+
+            throw e;
+        }
+    }
+
+    /**
+     * <p>Returns the {@link NLSFile} of the specified Region, if it is not in memory yet, it will be loaded in the background.</p>
+     * <p>Concurrent requests for a Region that is not loaded yet share a single load.
+     * The file is only valid until the Region is evicted, see {@link WorldLightStore#getRegion(int, int)}.</p>
+     *
+     * @param regionX The X Coordinate of the Region
+     * @param regionZ The Z Coordinate of the Region
+     * @return A {@link CompletableFuture} completed with the {@link NLSFile}, once it has been added to this store.
+     */
+    @NotNull
+    public CompletableFuture<NLSFile> getRegionAsync(int regionX, int regionZ) {
+        final long key = RegionCoords.encode(regionX, regionZ);
+        final PendingRegion load;
+
+        synchronized (lock) {
+            RegionEntry entry = regions.get(key);
+
+            if (entry == null && (entry = evicting.get(key)) != null) {
+                rescue(entry); // Accessed again before its save finished
+            }
+
+            if (entry != null) {
+                ++hits;
+
+                if (entry.prefetched) {
+                    ++prefetchHits;
+                    entry.prefetched = false;
+                }
+
+                touch(entry);
+
+                return CompletableFuture.completedFuture(entry.file);
+            }
+
+            ++misses;
+
+            PendingRegion joined = pending.get(key);
+
+            if (joined != null) {
+                joined.prefetched = false; // Demanded before it was installed
+                return joined.future;
+            }
+
+            pending.put(key, load = new PendingRegion(false));
+        }
+
+        return startLoad(key, regionX, regionZ, load);
+    }
+
+    /**
+     * <p>Loads the specified Region in the background ahead of demand, without counting as an access.</p>
+     * <p>The first demand access of a prefetched Region is counted as a prefetch hit, see {@link WorldLightStore#getPrefetchHitRate()}.
+     * The file is only valid until the Region is evicted, see {@link WorldLightStore#getRegion(int, int)}.</p>
+     *
+     * @param regionX The X Coordinate of the Region
+     * @param regionZ The Z Coordinate of the Region
+     * @return A {@link CompletableFuture} completed with the {@link NLSFile}, once it has been added to this store.
+     */
+    @NotNull
+    public CompletableFuture<NLSFile> prefetchRegion(int regionX, int regionZ) {
+        final long key = RegionCoords.encode(regionX, regionZ);
+        final PendingRegion load;
+
+        synchronized (lock) {
+            RegionEntry entry = regions.get(key);
+
+            if (entry == null && (entry = evicting.get(key)) != null) {
+                rescue(entry);
+            }
+
+            if (entry != null) {
+                return CompletableFuture.completedFuture(entry.file);
+            }
+
+            PendingRegion joined = pending.get(key);
+
+            if (joined != null) {
+                return joined.future;
+            }
+
+            pending.put(key, load = new PendingRegion(true));
+        }
+
+        return startLoad(key, regionX, regionZ, load);
+    }
+
+    /**
+     * Loads the Region outside of the lock of this store and installs it exactly once, all requests for the Region share {@link PendingRegion#future}
+     * until it has been installed. Afterwards they find the installed Region, so a file that has already been evicted is never installed again.
+     */
+    private CompletableFuture<NLSFile> startLoad(long key, int regionX, int regionZ, PendingRegion load) {
+        loader.load(regionX, regionZ).whenComplete((file, loadFailure) -> {
+            if (loadFailure != null) {
+                synchronized (lock) {
+                    pending.remove(key);
+                }
+
+                load.future.completeExceptionally(loadFailure);
+                return;
+            }
+
+            try {
+                load.future.complete(install(key, file, load));
+            } catch (Throwable t) {
+                synchronized (lock) {
+                    pending.remove(key);
+                }
+
+                load.future.completeExceptionally(t);
+            }
+        });
+
+        return load.future;
+    }
+
+    @NotNull
+    public NLSFile getRegion(@NotNull RegionCoords regionCoords) throws IOException {
+        return getRegion(regionCoords.x, regionCoords.z);
+    }
+
+    /**
+     * @return The {@link NLSFile} of the specified Region, or {@code null} if it is not currently loaded. Does not count as an access.
+     * The file is only valid until the Region is evicted, see {@link WorldLightStore#getRegion(int, int)}.
+     */
+    @Nullable
+    public NLSFile getRegionIfLoaded(int regionX, int regionZ) {
+        synchronized (lock) {
+            RegionEntry entry = regions.get(RegionCoords.encode(regionX, regionZ));
+
+            return entry == null ? null : entry.file;
+        }
+    }
+
+    public boolean isLoaded(int regionX, int regionZ) {
+        synchronized (lock) {
+            return regions.containsKey(RegionCoords.encode(regionX, regionZ));
+        }
+    }
+
+    public int getCustomLuminance(@NotNull IntPosition position) throws IOException {
+        final long key = RegionCoords.encode(position.getRegionX(), position.getRegionZ());
+
+        while (true) {
+            NLSFile file = getRegion(position.getRegionX(), position.getRegionZ());
+
+            synchronized (lock) {
+                RegionEntry entry = regions.get(key);
+
+                if (entry != null && entry.file == file) { // Otherwise the Region was evicted in the meantime
+                    return file.getCustomLuminance(position);
+                }
+            }
+        }
+    }
+
+    public void setCustomLuminance(@NotNull IntPosition position, int value) throws IOException {
+        Preconditions.assertInRange("value", value, 0, 15);
+
+        final long key = RegionCoords.encode(position.getRegionX(), position.getRegionZ());
+
+        while (true) {
+            NLSFile file = getRegion(position.getRegionX(), position.getRegionZ());
+            List<RegionEntry> victims = null;
+
+            try {
+                synchronized (lock) {
+                    RegionEntry entry = regions.get(key);
+
+                    if (entry == null || entry.file != file) { // The Region was evicted in the meantime
+                        continue;
+                    }
+
+                    try {
+                        file.setCustomLuminance(position, value); // Recorded by the journal writer once applied
+                    } catch (UncheckedIOException e) {
+                        throw e.getCause();
+                    } finally {
+                        updateSections(entry);
+                        victims = enforceBudget(entry);
+                    }
+
+                    return;
+                }
+            } finally {
+                saveEvicted(victims);
+            }
+        }
+    }
+
+    /**
+     * Runs {@code action} while the Region is locked, see {@link NLSFile#edit(Consumer)}, loading the Region if needed.
+     * Like {@link WorldLightStore#setCustomLuminance(IntPosition, int)}, the changes are journaled and count against the budget of this store.
+     *
+     * @param regionX The X Coordinate of the Region
+     * @param regionZ The Z Coordinate of the Region
+     * @param action  Performs the changes through the passed {@link NLSFile.Editor}, must not access this store
+     * @throws IOException If an {@link IOException} occurs while loading the Region or recording the changes.
+     */
+    public void edit(int regionX, int regionZ, @NotNull Consumer<NLSFile.Editor> action) throws IOException {
+        Objects.requireNonNull(action);
+
+        final long key = RegionCoords.encode(regionX, regionZ);
+
+        while (true) {
+            NLSFile file = getRegion(regionX, regionZ);
+            List<RegionEntry> victims = null;
+
+            try {
+                synchronized (lock) {
+                    RegionEntry entry = regions.get(key);
+
+                    if (entry == null || entry.file != file) { // The Region was evicted in the meantime
+                        continue;
+                    }
+
+                    try {
+                        file.edit(action);
+                    } catch (UncheckedIOException e) {
+                        throw e.getCause();
+                    } finally {
+                        updateSections(entry);
+                        victims = enforceBudget(entry);
+                    }
+
+                    return;
+                }
+            } finally {
+                saveEvicted(victims);
+            }
+        }
+    }
+
+    /**
+     * Creates a {@link LightEditHistory}, whose edits, undos and redos are applied through {@link WorldLightStore#edit(int, int, Consumer)}.
+     * An {@link IOException} is thrown as an {@link UncheckedIOException} by the history.
+     *
+     * @param regionX  The X Coordinate of the edited Region
+     * @param regionZ  The Z Coordinate of the edited Region
+     * @param maxBytes The maximum amount of bytes used by all recorded edits, see {@link LightEditHistory#LightEditHistory(LightEditHistory.Target, long)}
+     */
+    @NotNull
+    public LightEditHistory createEditHistory(int regionX, int regionZ, long maxBytes) {
+        return new LightEditHistory(action -> {
+            try {
+                edit(regionX, regionZ, action);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, maxBytes);
+    }
+
+    /**
+     * <p>Visits all Light sources within the {@link BlockVolume}, e.g. all Light sources within 64 blocks of a player.</p>
+     * <p>Only Regions intersecting the volume are visited, Regions that are neither loaded nor exist on disk are skipped without being created.
+     * Regions that are not loaded are read without being added to this store, so queries do not evict the Regions in use.
+     * The {@link LightSourceVisitor} is called while this store is locked and must not access it.</p>
+     *
+     * @param volume  The volume to search, see {@link BlockVolume#box(IntPosition, IntPosition)} and {@link BlockVolume#sphere(IntPosition, int)}
+     * @param visitor Receives the position and Custom Luminance of every Light source found
+     * @return The amount of visited Light sources
+     * @throws IOException If an {@link IOException} occurs while loading a Region.
+     */
+    public int forEachLightSource(@NotNull BlockVolume volume, @NotNull LightSourceVisitor visitor) throws IOException {
+        Objects.requireNonNull(volume);
+        Objects.requireNonNull(visitor);
+
+        int visited = 0;
+
+        for (int regionZ = volume.minZ >> 9; regionZ <= volume.maxZ >> 9; ++regionZ) {
+            for (int regionX = volume.minX >> 9; regionX <= volume.maxX >> 9; ++regionX) {
+                if (!volume.intersects(regionX << 9, 0, regionZ << 9, (regionX << 9) + 511, 255, (regionZ << 9) + 511)) {
+                    continue;
+                }
+
+                if (occupancy.isIndexed(regionX, regionZ) && !occupancy.hasRegion(regionX, regionZ)) {
+                    continue; // Known to be empty, no need to load it again
+                }
+
+                int found = visitRegion(regionX, regionZ, file -> file.forEachLightSource(volume, visitor));
+
+                if (found > 0) {
+                    visited += found;
+                }
+            }
+        }
+
+        return visited;
+    }
+
+    /**
+     * <p>Finds the {@code count} Light sources nearest to {@code center}, e.g. for effects around a player.</p>
+     * <p>The search visits the Regions that may contain Light sources nearest first, pruning chunks and sections using their section masks,
+     * and stops as soon as no unvisited Region can hold a closer Light source.
+     * Regions known to be empty through the {@link WorldOccupancyIndex} are skipped, Regions that are not loaded are read without being added to this store.
+     * Since the search never extends beyond the farthest of those Regions, {@link Integer#MAX_VALUE} can be passed as {@code maxDistance} for an unbounded search.</p>
+     *
+     * @param center      The position to search around
+     * @param count       The maximum amount of Light sources to find
+     * @param metric      The {@link DistanceMetric} used to rank the Light sources
+     * @param maxDistance The maximum distance in blocks of any Light source found
+     * @param visitor     Receives the Light sources found, nearest first. Called after the search completed, it may access this store.
+     * @return The amount of Light sources found
+     * @throws IOException If an {@link IOException} occurs while loading a Region.
+     */
+    public int findNearestLightSources(@NotNull IntPosition center, int count, @NotNull DistanceMetric metric, int maxDistance, @NotNull LightSourceVisitor visitor) throws IOException {
+        Objects.requireNonNull(center);
+        Objects.requireNonNull(metric);
+        Objects.requireNonNull(visitor);
+
+        if (count < 0 || maxDistance < 0) {
+            throw new IllegalArgumentException("count and maxDistance must be >= 0");
+        }
+
+        if (count == 0) {
+            return 0;
+        }
+
+        return new NearestLightSourceQuery(this, center, count, metric, maxDistance).run(visitor);
+    }
+
+    /**
+     * <p>Calls {@code action} with the {@link NLSFile} of the specified Region while this store is locked.</p>
+     * <p>A Region that is not loaded is read without adding it to this store, so that queries do not evict the Regions in use.
+     * The Region is indexed by the {@link WorldOccupancyIndex} on the way, so later queries can skip it without reading it again if it is empty.</p>
+     *
+     * @return The result of {@code action}, or {@code -1} if the Region is neither loaded nor exists on disk
+     */
+    int visitRegion(int regionX, int regionZ, ToIntFunction<NLSFile> action) throws IOException {
+        final long key = RegionCoords.encode(regionX, regionZ);
+        final long generation;
+
+        synchronized (lock) {
+            RegionEntry entry = getHeld(key);
+
+            if (entry != null) {
+                return action.applyAsInt(entry.file);
+            }
+
+            generation = detachedRegions;
+        }
+
+        if (!getRegionFile(regionX, regionZ).exists()) {
+            return -1;
+        }
+
+        NLSFile read = loader.readExisting(regionX, regionZ);
+
+        try {
+            synchronized (lock) {
+                RegionEntry entry = getHeld(key);
+
+                if (entry != null) { // Loaded in the meantime, the loaded file may already be ahead of the Region file
+                    return action.applyAsInt(entry.file);
+                }
+
+                if (generation == detachedRegions) { // Otherwise the Region file may have been replaced while it was read
+                    if (!occupancy.isIndexed(regionX, regionZ)) {
+                        occupancy.track(read);
+                        occupancy.untrack(read);
+                    }
+
+                    return action.applyAsInt(read);
+                }
+            }
+        } finally {
+            read.unload();
+        }
+
+        while (true) {
+            NLSFile file = getRegion(regionX, regionZ);
+
+            synchronized (lock) {
+                RegionEntry entry = regions.get(key);
+
+                if (entry != null && entry.file == file) { // Otherwise the Region was evicted in the meantime
+                    return action.applyAsInt(file);
+                }
+            }
+        }
+    }
+
+    /**
+     * <p>Opens the {@link LightJournal} of this World, replays it and records all further changes made to the loaded Regions,
+     * whether they are made through this store or directly to an {@link NLSFile}, see {@link NLSFile#setWriteListener(LightWriteListener)}.
+     * If a record cannot be written, the {@link IOException} is passed on to the caller of the change, wrapped in an {@link UncheckedIOException} unless the change was made through this store.</p>
+     * <p>Replayed changes mark their Regions as modified, the records of saved changes are discarded whenever Regions are saved.</p>
+     *
+     * @return The amount of replayed records
+     * @throws IOException If an {@link IOException} occurs while reading the journal or loading a Region.
+     */
+    public int openJournal() throws IOException {
+        return openJournal(new LightJournal(new File(directory, LightJournal.FILE_NAME)));
+    }
+
+    /**
+     * @see WorldLightStore#openJournal()
+     */
+    public int openJournal(@NotNull LightJournal journal) throws IOException {
+        Objects.requireNonNull(journal);
+
+        synchronized (lock) {
+            if (this.journal != null) {
+                throw new IllegalStateException("A journal is already open");
+            }
+        }
+
+        int replayed;
+
+        try {
+            replayed = journal.replay((x, y, z, lightLevel) -> {
+                try {
+                    setCustomLuminance(new IntPosition(x, y, z), lightLevel);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            journal.close();
+            throw e.getCause();
+        } catch (IOException | RuntimeException e) {
+            journal.close();
+            throw e;
+        }
+
+        synchronized (lock) {
+            this.journal = journal;
+            this.journalWriter = journalWriter(journal);
+            this.compactedJournalSize = 0;
+
+            forEachHeld(entry -> entry.file.setWriteListener(journalWriter));
+        }
+
+        return replayed;
+    }
+
+    @Nullable
+    public LightJournal getJournal() {
+        synchronized (lock) {
+            return journal;
+        }
+    }
+
+    /**
+     * Writes all pending records of the {@link LightJournal} and closes it, further changes are no longer recorded.
+     */
+    public void closeJournal() throws IOException {
+        synchronized (lock) {
+            if (journal != null) {
+                forEachHeld(entry -> entry.file.setWriteListener(null));
+
+                try {
+                    journal.close();
+                } finally {
+                    journal = null;
+                    journalWriter = null;
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes the pending records of the {@link LightJournal}, if they have been pending for longer than its sync interval.
+     * Called by {@link WorldLightStore#flushChanges()}, so changes are synced even if no further changes follow.
+     */
+    public void syncJournalIfDue() {
+        LightJournal journal = getJournal();
+
+        if (journal == null) {
+            return;
+        }
+
+        try {
+            journal.syncIfDue();
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to sync the light journal", e);
+        }
+    }
+
+    /**
+     * <p>Saves all loaded, modified Regions on the executor of the {@link RegionLoader}, one task per Region.</p>
+     * <p>This store is only locked while collecting the modified Regions, not while they are written.
+     * Once all Regions have been written, the records of the {@link LightJournal} from before the save are discarded, changes made while saving stay recorded.</p>
+     *
+     * @return A {@link CompletableFuture} completed with the amount of Regions written to disk, or exceptionally with the first failure.
+     */
+    public CompletableFuture<Integer> saveAsync() {
+        List<NLSFile> modified = new ArrayList<>();
+
+        final LightJournal journal;
+        final long journalEnd;
+
+        synchronized (lock) {
+            journal = this.journal;
+
+            try {
+                journalEnd = journal == null ? 0 : journal.getSize(); // Changes recorded from now on may not be part of the saves
+            } catch (IOException e) {
+                CompletableFuture<Integer> result = new CompletableFuture<>();
+                result.completeExceptionally(e);
+
+                return result;
+            }
+
+            forEachHeld(entry -> {
+                if (entry.file.isModified()) {
+                    modified.add(entry.file); // Including Regions being evicted, their records may only be discarded once they have been saved
+                }
+            });
+        }
+
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        CompletableFuture<Boolean>[] saves = new CompletableFuture[modified.size()];
+
+        for (int i = 0; i < saves.length; ++i) {
+            final NLSFile file = modified.get(i);
+
+            saves[i] = CompletableFuture.supplyAsync(() -> {
+                try {
+                    return file.save();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }, loader.getExecutor());
+        }
+
+        return CompletableFuture.allOf(saves).thenApply(ignored -> {
+            int saved = 0;
+
+            for (CompletableFuture<Boolean> save : saves) {
+                if (save.join()) {
+                    ++saved;
+                }
+            }
+
+            if (journal != null) {
+                truncateJournal(journal, journalEnd);
+            }
+
+            return saved;
+        });
+    }
+
+    /**
+     * Saves all loaded, modified Regions.
+     *
+     * @return The amount of Regions written to disk.
+     * @throws IOException If an {@link IOException} occurs while saving.
+     */
+    public int save() throws IOException {
+        int saved = 0;
+
+        synchronized (lock) {
+            long journalEnd = journal == null ? 0 : journal.getSize();
+
+            for (RegionEntry entry = mostRecent; entry != null; entry = entry.next) {
+                if (entry.file.save()) {
+                    ++saved;
+                }
+            }
+
+            for (long key : evicting.keys()) {
+                if (evicting.get(key).file.save()) {
+                    ++saved;
+                }
+            }
+
+            // All changes recorded before the save are now part of the Region files (evicted Regions are saved before being unloaded)
+
+            if (journal != null) {
+                journal.truncate(journalEnd);
+                compactedJournalSize = 0;
+            }
+        }
+
+        return saved;
+    }
+
+    /**
+     * Writes a snapshot of all Regions into {@code target} on a new background thread, see {@link WorldLightStore#snapshot(File, Executor)}.
+     */
+    @NotNull
+    public CompletableFuture<Integer> snapshot(@NotNull File target) {
+        return snapshot(target, task -> {
+            Thread thread = new Thread(task, "VarLight-Snapshot-" + directory.getName());
+            thread.setDaemon(true);
+            thread.start();
+        });
+    }
+
+    /**
+     * <p>Freezes a consistent, point-in-time view of all loaded and on-disk Regions and writes it into {@code target}, e.g. for a hot backup.</p>
+     * <p>While this store is locked, modified Regions are captured as copy-on-write {@link NLSSnapshot}s and all other Region files are hard linked into {@code target}.
+     * If hard links are not supported, the Region files are opened instead and copied later on.
+     * Since Region files are only ever replaced as a whole, the linked or opened files keep their contents.
+     * Writing the snapshots and copies happens on the {@link Executor}, while this store can be used as usual.</p>
+     *
+     * @param target   The directory to write the snapshot into, must not be the directory of this store
+     * @param executor The {@link Executor} to write the snapshot on
+     * @return A {@link CompletableFuture} completed with the amount of Regions in the snapshot, once the snapshot has been written completely.
+     */
+    @NotNull
+    public CompletableFuture<Integer> snapshot(@NotNull File target, @NotNull Executor executor) {
+        Objects.requireNonNull(target);
+        Objects.requireNonNull(executor);
+
+        CompletableFuture<Integer> result = new CompletableFuture<>();
+
+        List<NLSSnapshot> snapshots = new ArrayList<>();
+        List<PendingCopy> copies = new ArrayList<>();
+        int linked = 0;
+
+        try {
+            if (target.getCanonicalFile().equals(directory.getCanonicalFile())) {
+                throw new IllegalArgumentException("Cannot write a snapshot into the directory of the store");
+            }
+
+            if (!target.exists() && !target.mkdirs()) {
+                throw new IOException(String.format("Could not create directory \"%s\"", target.getAbsolutePath()));
+            }
+
+            synchronized (lock) {
+                for (RegionEntry entry = mostRecent; entry != null; entry = entry.next) {
+                    if (entry.file.isModified()) {
+                        snapshots.add(entry.file.createSnapshot());
+                    } else if (entry.file.file.exists() && linkOrOpen(entry.file.file, target, copies)) {
+                        ++linked;
+                    }
+                }
+
+                for (long key : evicting.keys()) {
+                    NLSFile file = evicting.get(key).file;
+
+                    if (file.isModified()) { // Otherwise the Region file is linked below
+                        snapshots.add(file.createSnapshot());
+                    }
+                }
+
+                File[] files = directory.listFiles((dir, name) -> name.endsWith(".nls"));
+
+                if (files != null) {
+                    for (File file : files) {
+                        RegionCoords coords = FileUtil.parseRegionCoordsFromFileName(file.getName());
+
+                        if (coords == null || regions.containsKey(coords.encode()) || (evicting.containsKey(coords.encode()) && evicting.get(coords.encode()).file.isModified())) {
+                            continue;
+                        }
+
+                        if (linkOrOpen(file, target, copies)) {
+                            ++linked;
+                        }
+                    }
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            closeAll(copies);
+            result.completeExceptionally(e);
+
+            return result;
+        }
+
+        final int regionCount = linked + snapshots.size() + copies.size();
+
+        try {
+            executor.execute(() -> {
+                try {
+                    for (NLSSnapshot snapshot : snapshots) {
+                        snapshot.write(new File(target, String.format(NLSFile.FILE_NAME_FORMAT, snapshot.getRegionX(), snapshot.getRegionZ())));
+                    }
+
+                    for (PendingCopy copy : copies) {
+                        copy.copy();
+                    }
+
+                    result.complete(regionCount);
+                } catch (Throwable t) {
+                    result.completeExceptionally(t);
+                } finally {
+                    closeAll(copies);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            closeAll(copies);
+            result.completeExceptionally(e);
+        }
+
+        return result;
+    }
+
+    /**
+     * <p>Registers a {@link LightChangeListener} notified about changes to all Regions of this World, including Regions loaded later on.</p>
+     * <p>Changes are collected until {@link WorldLightStore#flushChanges()} is called, which is meant to happen once per tick.</p>
+     */
+    public void addChangeListener(@NotNull LightChangeListener listener) {
+        Objects.requireNonNull(listener);
+
+        synchronized (lock) {
+            changeListeners.add(listener);
+
+            if (changes == null) {
+                changes = new LightChangeBuffer();
+
+                forEachHeld(entry -> entry.file.addChangeListener(collector));
+            }
+        }
+    }
+
+    public void removeChangeListener(@NotNull LightChangeListener listener) {
+        synchronized (lock) {
+            changeListeners.remove(listener);
+
+            if (changes != null && changeListeners.isEmpty()) {
+                forEachHeld(entry -> entry.file.removeChangeListener(collector));
+
+                changes = null;
+            }
+        }
+    }
+
+    /**
+     * <p>Delivers the changes made to all Regions since the previous flush to the registered {@link LightChangeListener}s as a single batch,
+     * including changes to Regions that have been unloaded in the meantime.</p>
+     * <p>Also syncs the {@link LightJournal} if due, see {@link WorldLightStore#syncJournalIfDue()}, so it should be called once per tick even without listeners.</p>
+     *
+     * @return The amount of delivered changes
+     */
+    public int flushChanges() {
+        syncJournalIfDue();
+
+        LightChangeBatch batch;
+        LightChangeListener[] listeners;
+
+        synchronized (lock) {
+            if (changes == null) {
+                return 0;
+            }
+
+            forEachHeld(entry -> entry.file.flushChanges());
+
+            if ((batch = changes.drain()) == null) {
+                return 0;
+            }
+
+            listeners = changeListeners.toArray(new LightChangeListener[0]);
+        }
+
+        for (LightChangeListener listener : listeners) {
+            listener.onChanges(batch);
+        }
+
+        return batch.size();
+    }
+
+    /**
+     * Saves and unloads all Regions.
+     *
+     * @throws IOException If an {@link IOException} occurs while saving, Regions that could not be saved stay loaded.
+     */
+    public void saveAndUnloadAll() throws IOException {
+        synchronized (lock) {
+            long journalEnd = journal == null ? 0 : journal.getSize();
+
+            while (leastRecent != null) {
+                leastRecent.file.save();
+                remove(leastRecent);
+            }
+
+            for (long key : evicting.keys()) {
+                RegionEntry entry = evicting.get(key);
+
+                entry.file.save();
+                entry.file.unload(); // The pending save of the eviction finds the Region unloaded and saved
+                detach(entry);
+            }
+
+            if (journal != null) {
+                journal.truncate(journalEnd);
+                compactedJournalSize = 0;
+            }
+        }
+    }
+
+    public int getLoadedRegionCount() {
+        synchronized (lock) {
+            return regions.size();
+        }
+    }
+
+    public List<RegionCoords> getLoadedRegions() {
+        synchronized (lock) {
+            List<RegionCoords> list = new ArrayList<>(regions.size());
+
+            for (RegionEntry entry = mostRecent; entry != null; entry = entry.next) {
+                list.add(entry.file.getRegionCoords());
+            }
+
+            return list;
+        }
+    }
+
+    /**
+     * @return A {@link CompletableFuture} completed once all Regions currently being evicted have been saved and unloaded, or have been accessed again in the meantime.
+     */
+    @NotNull
+    public CompletableFuture<Void> getPendingEvictions() {
+        synchronized (lock) {
+            List<CompletableFuture<Void>> futures = new ArrayList<>(evicting.size());
+
+            evicting.forEach((key, entry) -> futures.add(entry.evicted));
+
+            return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0]));
+        }
+    }
+
+    public int getMaxSections() {
+        return maxSections;
+    }
+
+    public long getHeldSections() {
+        synchronized (lock) {
+            return heldSections;
+        }
+    }
+
+    public long getHits() {
+        synchronized (lock) {
+            return hits;
+        }
+    }
+
+    public long getMisses() {
+        synchronized (lock) {
+            return misses;
+        }
+    }
+
+    public long getEvictions() {
+        synchronized (lock) {
+            return evictions;
+        }
+    }
+
+    /**
+     * @return The amount of evicted Regions, that had to be saved before being unloaded. Counted once the save has finished.
+     */
+    public long getEvictionSaves() {
+        synchronized (lock) {
+            return evictionSaves;
+        }
+    }
+
+    /**
+     * @return The amount of demand accesses, that were served by a Region loaded through {@link WorldLightStore#prefetchRegion(int, int)}.
+     */
+    public long getPrefetchHits() {
+        synchronized (lock) {
+            return prefetchHits;
+        }
+    }
+
+    /**
+     * @return The amount of prefetched Regions, that were evicted without ever being accessed.
+     */
+    public long getPrefetchWasted() {
+        synchronized (lock) {
+            return prefetchWasted;
+        }
+    }
+
+    /**
+     * @return The fraction of first accesses to a Region, that did not have to wait for the Region to be loaded, because it was prefetched.
+     */
+    public double getPrefetchHitRate() {
+        synchronized (lock) {
+            long total = prefetchHits + misses;
+
+            return total == 0 ? 0 : (double) prefetchHits / total;
+        }
+    }
+
+    private static boolean linkOrOpen(File file, File targetDirectory, List<PendingCopy> copies) throws IOException {
+        Path target = new File(targetDirectory, file.getName()).toPath();
+
+        Files.deleteIfExists(target);
+
+        try {
+            Files.createLink(target, file.toPath());
+
+            return true;
+        } catch (IOException | UnsupportedOperationException e) {
+            copies.add(new PendingCopy(FileChannel.open(file.toPath(), StandardOpenOption.READ), target));
+
+            return false;
+        }
+    }
+
+    private static void closeAll(List<PendingCopy> copies) {
+        for (PendingCopy copy : copies) {
+            try {
+                copy.source.close();
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Failed to close Region file", e);
+            }
+        }
+    }
+
+    private NLSFile install(long key, NLSFile file, PendingRegion load) {
+        List<RegionEntry> victims;
+
+        synchronized (lock) {
+            pending.remove(key);
+
+            RegionEntry entry = regions.get(key);
+
+            if (entry != null) {
+                return entry.file; // Installed by a load not started through this store
+            }
+
+            entry = new RegionEntry(key, file);
+            entry.prefetched = load.prefetched;
+
+            regions.put(key, entry);
+            linkFirst(entry);
+
+            occupancy.track(file);
+
+            if (changes != null) {
+                file.addChangeListener(collector);
+            }
+
+            if (journalWriter != null) {
+                file.setWriteListener(journalWriter);
+            }
+
+            entry.sections = file.getSectionCount();
+            heldSections += entry.sections;
+
+            victims = enforceBudget(entry);
+        }
+
+        saveEvicted(victims);
+
+        return file;
+    }
+
+    /**
+     * Unloads the least recently used Regions until the budget is met again, clean Regions first.
+     * Dirty Regions are only unlinked and marked as evicting, they have to be passed to {@link WorldLightStore#saveEvicted(List)} once the lock has been released.
+     *
+     * @return The Regions to save and unload
+     */
+    private List<RegionEntry> enforceBudget(RegionEntry keep) {
+        if (heldSections - evictingSections <= maxSections) {
+            return Collections.emptyList();
+        }
+
+        // First pass: only drop Regions that do not need to be written
+
+        for (RegionEntry entry = leastRecent; entry != null && heldSections - evictingSections > maxSections; ) {
+            RegionEntry prev = entry.prev;
+
+            updateSections(entry);
+
+            if (entry != keep && entry.file.unloadIfSaved()) {
+                detach(entry);
+                countEviction(entry, false);
+            }
+
+            entry = prev;
+        }
+
+        // Second pass: write dirty Regions to make room, their sections are held until they have been written
+
+        List<RegionEntry> victims = new ArrayList<>();
+
+        for (RegionEntry entry = leastRecent; entry != null && heldSections - evictingSections > maxSections; ) {
+            RegionEntry prev = entry.prev;
+
+            if (entry != keep) {
+                regions.remove(entry.key);
+                unlink(entry);
+
+                entry.evicted = new CompletableFuture<>();
+                evicting.put(entry.key, entry);
+                evictingSections += entry.sections;
+
+                victims.add(entry);
+            }
+
+            entry = prev;
+        }
+
+        return victims;
+    }
+
+    /**
+     * Saves and unloads the Regions returned by {@link WorldLightStore#enforceBudget(RegionEntry)} on the executor of the {@link RegionLoader}.
+     * Must not be called while holding the lock, an executor running tasks on the calling thread would save while this store is locked.
+     */
+    private void saveEvicted(@Nullable List<RegionEntry> victims) {
+        if (victims == null) {
+            return;
+        }
+
+        for (RegionEntry entry : victims) {
+            try {
+                loader.getExecutor().execute(() -> saveEvicted(entry));
+            } catch (RejectedExecutionException e) {
+                synchronized (lock) {
+                    if (evicting.get(entry.key) == entry) {
+                        LOGGER.log(Level.WARNING, String.format("Could not schedule the save of Region %s before evicting it, keeping it loaded", entry.file.getRegionCoords()), e);
+                        rescue(entry);
+                    }
+                }
+            }
+        }
+    }
+
+    private void saveEvicted(RegionEntry entry) {
+        boolean saved = false;
+
+        while (true) {
+            synchronized (lock) {
+                if (evicting.get(entry.key) != entry) {
+                    return; // Accessed again or unloaded in the meantime
+                }
+            }
+
+            try {
+                saved |= entry.file.save();
+            } catch (IOException | RuntimeException e) {
+                synchronized (lock) {
+                    if (evicting.get(entry.key) == entry) {
+                        LOGGER.log(Level.WARNING, String.format("Failed to save Region %s before evicting it, keeping it loaded", entry.file.getRegionCoords()), e);
+                        rescue(entry);
+                    }
+                }
+
+                return;
+            }
+
+            synchronized (lock) {
+                if (evicting.get(entry.key) != entry) {
+                    return; // Accessed again or unloaded in the meantime
+                }
+
+                if (!entry.file.unloadIfSaved()) {
+                    continue; // Modified through a retained handle while saving
+                }
+
+                detach(entry);
+                countEviction(entry, saved);
+
+                if (saved) {
+                    compactJournal();
+                }
+
+                return;
+            }
+        }
+    }
+
+    /**
+     * Puts a Region, that is being evicted, back into this store as the most recently used Region. Its pending save will leave it loaded.
+     */
+    private void rescue(RegionEntry entry) {
+        evicting.remove(entry.key);
+        evictingSections -= entry.sections;
+
+        regions.put(entry.key, entry);
+        linkFirst(entry);
+
+        entry.evicted.complete(null);
+        entry.evicted = null;
+    }
+
+    private void compactJournal() {
+        if (journal == null) {
+            return;
+        }
+
+        try {
+            long end = journal.getSize();
+
+            if (end <= Math.max(JOURNAL_COMPACT_THRESHOLD, compactedJournalSize << 1)) {
+                return;
+            }
+
+            // Only the records of Regions, that have not been saved since, are still needed.
+            // They are collected up front, as changes to a Region are recorded while the Region is locked, and must not wait for the compaction.
+
+            Long2ObjectMap<RegionEntry> modified = new Long2ObjectMap<>();
+
+            forEachHeld(entry -> {
+                if (entry.file.isModified()) {
+                    modified.put(entry.key, entry);
+                }
+            });
+
+            journal.compact(modified::containsKey, end);
+
+            compactedJournalSize = journal.getSize();
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to compact the light journal", e);
+        }
+    }
+
+    private void truncateJournal(LightJournal journal, long end) {
+        synchronized (lock) {
+            if (journal != this.journal) {
+                return; // Closed in the meantime
+            }
+
+            try {
+                journal.truncate(end);
+                compactedJournalSize = 0;
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Failed to truncate the light journal", e);
+            }
+        }
+    }
+
+    private static LightWriteListener journalWriter(LightJournal journal) {
+        return (x, y, z, lightLevel) -> {
+            try {
+                journal.append(x, y, z, lightLevel);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        };
+    }
+
+    private void countEviction(RegionEntry entry, boolean saved) {
+        ++evictions;
+
+        if (saved) {
+            ++evictionSaves;
+        }
+
+        if (entry.prefetched) {
+            ++prefetchWasted;
+        }
+    }
+
+    private void remove(RegionEntry entry) {
+        detach(entry);
+        entry.file.unload();
+    }
+
+    /**
+     * Removes a Region from this store without unloading its file.
+     */
+    private void detach(RegionEntry entry) {
+        occupancy.untrack(entry.file);
+        entry.file.setWriteListener(null);
+
+        if (changes != null) {
+            entry.file.flushChanges(); // Keep the changes made to the Region until the next flush of this store
+            entry.file.removeChangeListener(collector);
+        }
+
+        if (entry.evicted != null) {
+            evicting.remove(entry.key);
+            evictingSections -= entry.sections;
+
+            entry.evicted.complete(null);
+            entry.evicted = null;
+        } else {
+            regions.remove(entry.key);
+            unlink(entry);
+        }
+
+        heldSections -= entry.sections;
+        ++detachedRegions;
+    }
+
+    /**
+     * @return The loaded Region, including Regions that are still loaded while being evicted, or {@code null}
+     */
+    @Nullable
+    private RegionEntry getHeld(long key) {
+        RegionEntry entry = regions.get(key);
+
+        return entry != null ? entry : evicting.get(key);
+    }
+
+    /**
+     * Calls {@code action} for all Regions held by this store, including Regions that are being evicted.
+     */
+    private void forEachHeld(Consumer<RegionEntry> action) {
+        for (RegionEntry entry = mostRecent; entry != null; entry = entry.next) {
+            action.accept(entry);
+        }
+
+        evicting.forEach((key, entry) -> action.accept(entry));
+    }
+
+    private void collectChanges(LightChangeBatch batch) {
+        synchronized (lock) {
+            if (changes != null) {
+                changes.recordAll(batch);
+            }
+        }
+    }
+
+    private void updateSections(RegionEntry entry) {
+        int sections = entry.file.getSectionCount();
+
+        heldSections += sections - entry.sections;
+        entry.sections = sections;
+    }
+
+    private void touch(RegionEntry entry) {
+        updateSections(entry);
+
+        if (entry != mostRecent) {
+            unlink(entry);
+            linkFirst(entry);
+        }
+    }
+
+    private void linkFirst(RegionEntry entry) {
+        entry.prev = null;
+        entry.next = mostRecent;
+
+        if (mostRecent != null) {
+            mostRecent.prev = entry;
+        } else {
+            leastRecent = entry;
+        }
+
+        mostRecent = entry;
+    }
+
+    private void unlink(RegionEntry entry) {
+        if (entry.prev != null) {
+            entry.prev.next = entry.next;
+        } else {
+            mostRecent = entry.next;
+        }
+
+        if (entry.next != null) {
+            entry.next.prev = entry.prev;
+        } else {
+            leastRecent = entry.prev;
+        }
+
+        entry.prev = entry.next = null;
+    }
+
+    private static class PendingCopy {
+        private final FileChannel source;
+        private final Path target;
+
+        private PendingCopy(FileChannel source, Path target) {
+            this.source = source;
+            this.target = target;
+        }
+
+        private void copy() throws IOException {
+            try (FileChannel out = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                long size = source.size();
+
+                for (long position = 0; position < size; ) {
+                    long transferred = source.transferTo(position, size - position, out);
+
+                    if (transferred <= 0) {
+                        throw new EOFException();
+                    }
+
+                    position += transferred;
+                }
+            }
+        }
+    }
+
+    private static class PendingRegion {
+        private final CompletableFuture<NLSFile> future = new CompletableFuture<>();
+        private boolean prefetched; // Guarded by the lock of the store
+
+        private PendingRegion(boolean prefetched) {
+            this.prefetched = prefetched;
+        }
+    }
+
+    private static class RegionEntry {
+        private final long key;
+        private final NLSFile file;
+
+        private int sections;
+        private boolean prefetched;
+        private RegionEntry prev, next;
+        private CompletableFuture<Void> evicted; // Set while the Region is being evicted
+
+        private RegionEntry(long key, NLSFile file) {
+            this.key = key;
+            this.file = file;
+        }
+    }
+}
@@ -0,0 +1,193 @@
+package me.shawlaf.varlight.persistence.world;
+
+import me.shawlaf.varlight.persistence.nls.NLSFile;
+import me.shawlaf.varlight.persistence.nls.SectionMaskListener;
+import me.shawlaf.varlight.util.Long2ObjectMap;
+import me.shawlaf.varlight.util.RegionCoords;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Objects;
+
+/**
+ * <p>A hierarchical bitmap of where Custom Light sources exist in a World: the set of non-empty Regions,
+ * a 1024-bit map of non-empty chunks per Region and the 16-bit mask of non-empty sections per chunk.</p>
+ * <p>Every level answers in constant time without touching any light data.
+ * Regions are indexed once they have been tracked through {@link WorldOccupancyIndex#track(NLSFile)} and stay indexed after their {@link NLSFile} is unloaded.
+ * Region files changed on disk while not tracked (e.g. restored or migrated) must be dropped from the index using {@link WorldOccupancyIndex#invalidate(int, int)}.
+ * For Regions that are not indexed, all queries answer {@code false} or {@code 0}, see {@link WorldOccupancyIndex#isIndexed(int, int)}.</p>
+ */
+public class WorldOccupancyIndex implements SectionMaskListener {
+
+    private final Object lock = new Object();
+    private final Long2ObjectMap<RegionOccupancy> regions = new Long2ObjectMap<>();
+
+    private int nonEmptyRegions = 0;
+
+    /**
+     * Indexes the specified {@link NLSFile} and keeps the index in sync with all further changes to it.
+     * The previous state of the Region is discarded and rebuilt from the file.
+     */
+    public void track(@NotNull NLSFile file) {
+        Objects.requireNonNull(file);
+
+        synchronized (lock) {
+            long key = RegionCoords.encode(file.getRegionX(), file.getRegionZ());
+
+            discard(regions.put(key, new RegionOccupancy()));
+        }
+
+        file.setMaskListener(this); // Reports the masks of all non-empty chunks
+    }
+
+    /**
+     * Drops the specified Region from the index, until it is tracked again all queries for it answer as if it was never indexed.
+     * Must be called for Regions not currently tracked, whose file has been replaced on disk.
+     */
+    public void invalidate(int regionX, int regionZ) {
+        synchronized (lock) {
+            discard(regions.remove(RegionCoords.encode(regionX, regionZ)));
+        }
+    }
+
+    /**
+     * Stops keeping the index in sync with the {@link NLSFile}, the Region stays indexed with its current state.
+     */
+    public void untrack(@NotNull NLSFile file) {
+        file.setMaskListener(null);
+    }
+
+    /**
+     * @return Whether the specified Region is indexed, i.e. the answers for this Region reflect its actual contents
+     */
+    public boolean isIndexed(int regionX, int regionZ) {
+        synchronized (lock) {
+            return regions.containsKey(RegionCoords.encode(regionX, regionZ));
+        }
+    }
+
+    public boolean hasRegion(int regionX, int regionZ) {
+        synchronized (lock) {
+            RegionOccupancy region = regions.get(RegionCoords.encode(regionX, regionZ));
+
+            return region != null && region.nonEmptyChunks > 0;
+        }
+    }
+
+    public boolean hasChunk(int chunkX, int chunkZ) {
+        return getMask(chunkX, chunkZ) != 0;
+    }
+
+    public boolean hasSection(int chunkX, int sectionY, int chunkZ) {
+        return sectionY >= 0 && sectionY < 16 && (getMask(chunkX, chunkZ) & (1 << sectionY)) != 0;
+    }
+
+    /**
+     * @return The mask of non-empty sections of the specified chunk
+     */
+    public int getMask(int chunkX, int chunkZ) {
+        synchronized (lock) {
+            RegionOccupancy region = regions.get(RegionCoords.encode(chunkX >> 5, chunkZ >> 5));
+
+            if (region == null || region.nonEmptyChunks == 0) {
+                return 0;
+            }
+
+            return region.masks[chunkIndex(chunkX, chunkZ)] & 0xFFFF;
+        }
+    }
+
+    /**
+     * @return The 1024-bit map of non-empty chunks of the specified Region, bit {@code cz << 5 | cx} is set for every non-empty chunk.
+     */
+    public long[] getChunkMap(int regionX, int regionZ) {
+        synchronized (lock) {
+            RegionOccupancy region = regions.get(RegionCoords.encode(regionX, regionZ));
+
+            return region == null ? new long[RegionOccupancy.CHUNK_MAP_WORDS] : region.chunkMap.clone();
+        }
+    }
+
+    /**
+     * @return The keys of all indexed Regions containing Light sources, see {@link RegionCoords#encode(int, int)}
+     */
+    public long[] getNonEmptyRegions() {
+        synchronized (lock) {
+            long[] nonEmpty = new long[nonEmptyRegions];
+            int i = 0;
+
+            for (long key : regions.keys()) {
+                if (regions.get(key).nonEmptyChunks > 0) {
+                    nonEmpty[i++] = key;
+                }
+            }
+
+            return nonEmpty;
+        }
+    }
+
+    public int getIndexedRegionCount() {
+        synchronized (lock) {
+            return regions.size();
+        }
+    }
+
+    public int getNonEmptyRegionCount() {
+        synchronized (lock) {
+            return nonEmptyRegions;
+        }
+    }
+
+    @Override
+    public void onMaskChanged(int chunkX, int chunkZ, int mask) {
+        synchronized (lock) {
+            long key = RegionCoords.encode(chunkX >> 5, chunkZ >> 5);
+            RegionOccupancy region = regions.get(key);
+
+            if (region == null) {
+                regions.put(key, region = new RegionOccupancy());
+            }
+
+            final int index = chunkIndex(chunkX, chunkZ);
+            final boolean wasEmpty = region.masks[index] == 0;
+
+            region.masks[index] = (short) mask;
+
+            if (wasEmpty == (mask == 0)) {
+                return;
+            }
+
+            if (mask == 0) {
+                region.chunkMap[index >>> 6] &= ~(1L << index);
+
+                if (--region.nonEmptyChunks == 0) {
+                    --nonEmptyRegions;
+                }
+            } else {
+                region.chunkMap[index >>> 6] |= 1L << index;
+
+                if (region.nonEmptyChunks++ == 0) {
+                    ++nonEmptyRegions;
+                }
+            }
+        }
+    }
+
+    private void discard(RegionOccupancy region) {
+        if (region != null && region.nonEmptyChunks > 0) {
+            --nonEmptyRegions;
+        }
+    }
+
+    private static int chunkIndex(int chunkX, int chunkZ) {
+        return (chunkZ & 0x1F) << 5 | (chunkX & 0x1F);
+    }
+
+    private static class RegionOccupancy {
+        private static final int CHUNK_MAP_WORDS = 1024 / 64;
+
+        private final long[] chunkMap = new long[CHUNK_MAP_WORDS];
+        private final short[] masks = new short[1024];
+
+        private int nonEmptyChunks = 0;
+    }
+}
@@ -0,0 +1,133 @@
+package me.shawlaf.varlight.persistence.world;
+
+import me.shawlaf.varlight.util.Long2IntMap;
+import me.shawlaf.varlight.util.RegionCoords;
+
+/**
+ * Totals of the Custom Light data of one World, as collected by a {@link WorldStatisticsScanner}.
+ */
+public class WorldStatistics {
+
+    private final long[] histogram = new long[16];
+    private final Long2IntMap regionSizes = new Long2IntMap(16, -1);
+
+    private int regions = 0, failedRegions = 0;
+    private long chunks = 0, sections = 0;
+    private long totalBytes = 0;
+
+    /**
+     * @return The amount of Region files scanned successfully
+     */
+    public int getRegions() {
+        return regions;
+    }
+
+    /**
+     * @return The amount of Region files that could not be read
+     */
+    public int getFailedRegions() {
+        return failedRegions;
+    }
+
+    public long getNonEmptyChunks() {
+        return chunks;
+    }
+
+    public long getNonEmptySections() {
+        return sections;
+    }
+
+    /**
+     * @return The total amount of Custom Light sources
+     */
+    public long getLightSources() {
+        long total = 0;
+
+        for (int lightLevel = 1; lightLevel < 16; ++lightLevel) {
+            total += histogram[lightLevel];
+        }
+
+        return total;
+    }
+
+    /**
+     * @return The amount of Custom Light sources with the specified light level (1-15)
+     */
+    public long getLightSources(int lightLevel) {
+        if (lightLevel < 1 || lightLevel > 15) {
+            throw new IllegalArgumentException("lightLevel must be in range 1-15");
+        }
+
+        return histogram[lightLevel];
+    }
+
+    /**
+     * @return The size in bytes of the specified Region file on disk, {@code -1} if it was not scanned
+     */
+    public int getRegionSize(int regionX, int regionZ) {
+        return regionSizes.get(RegionCoords.encode(regionX, regionZ));
+    }
+
+    /**
+     * @return The Coordinates of all scanned Regions, packed using {@link RegionCoords#encode(int, int)}
+     */
+    public long[] getScannedRegions() {
+        return regionSizes.keys();
+    }
+
+    /**
+     * @return The total size in bytes of all scanned Region files on disk
+     */
+    public long getTotalBytes() {
+        return totalBytes;
+    }
+
+    void addRegion(int regionX, int regionZ, int bytes) {
+        ++regions;
+        totalBytes += bytes;
+
+        regionSizes.put(RegionCoords.encode(regionX, regionZ), bytes);
+    }
+
+    void addFailedRegion() {
+        ++failedRegions;
+    }
+
+    void addChunk(int sections) {
+        if (sections > 0) {
+            ++chunks;
+            this.sections += sections;
+        }
+    }
+
+    /**
+     * Adds the light levels of one stored section to the histogram.
+     *
+     * @return Whether the section holds any Light source
+     */
+    boolean addSection(byte[] data) {
+        final long[] histogram = this.histogram;
+        long empty = histogram[0];
+
+        for (byte b : data) {
+            ++histogram[(b >>> 4) & 0xF];
+            ++histogram[b & 0xF];
+        }
+
+        return histogram[0] - empty < data.length * 2L;
+    }
+
+    void merge(WorldStatistics other) {
+        for (int i = 0; i < histogram.length; ++i) {
+            histogram[i] += other.histogram[i];
+        }
+
+        other.regionSizes.forEach(regionSizes::put);
+
+        regions += other.regions;
+        failedRegions += other.failedRegions;
+        chunks += other.chunks;
+        sections += other.sections;
+        totalBytes += other.totalBytes;
+    }
+}
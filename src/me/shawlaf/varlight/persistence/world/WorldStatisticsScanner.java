@@ -0,0 +1,223 @@
+package me.shawlaf.varlight.persistence.world;
+
+import me.shawlaf.varlight.persistence.nls.NLSFile;
+import me.shawlaf.varlight.persistence.nls.NLSUtil;
+import me.shawlaf.varlight.persistence.nls.io.NLSChannelReader;
+import me.shawlaf.varlight.util.FileUtil;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.util.Objects;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Collects {@link WorldStatistics} straight from the Region files of a World, without loading them as {@link NLSFile}s.
+ * <p>
+ * Region files are scanned in parallel on a {@link ForkJoinPool}, each file is streamed through an {@link NLSChannelReader}
+ * and only a single section buffer per file is allocated.
+ * Region files that are currently loaded and modified are scanned in the state they were last saved in.
+ */
+public class WorldStatisticsScanner {
+
+    private static final Logger LOGGER = Logger.getLogger(WorldStatisticsScanner.class.getSimpleName());
+
+    private static final int SECTION_BYTES = 16 * 16 * 16 / 2;
+
+    public final File directory;
+
+    private final ForkJoinPool pool;
+    @Nullable
+    private final ProgressListener progressListener;
+
+    private final AtomicInteger scannedRegions = new AtomicInteger();
+    private volatile int totalRegions = 0;
+    private volatile boolean cancelled = false;
+
+    public WorldStatisticsScanner(@NotNull File directory) {
+        this(directory, ForkJoinPool.commonPool(), null);
+    }
+
+    /**
+     * @param directory        The directory containing the Region files
+     * @param pool             The {@link ForkJoinPool} to scan the Region files on
+     * @param progressListener Notified after every scanned Region file, may be {@code null}
+     */
+    public WorldStatisticsScanner(@NotNull File directory, @NotNull ForkJoinPool pool, @Nullable ProgressListener progressListener) {
+        Objects.requireNonNull(directory);
+        Objects.requireNonNull(pool);
+
+        if (!directory.isDirectory()) {
+            throw new IllegalArgumentException(String.format("\"%s\" is not a directory!", directory.getAbsolutePath()));
+        }
+
+        this.directory = directory;
+        this.pool = pool;
+        this.progressListener = progressListener;
+    }
+
+    /**
+     * Scans all Region files of the directory, blocking until the scan completes.
+     * Region files that cannot be read are logged and counted in {@link WorldStatistics#getFailedRegions()}.
+     *
+     * @return The totals of all Region files
+     * @throws CancellationException If the scan was cancelled through {@link WorldStatisticsScanner#cancel()}
+     */
+    @NotNull
+    public WorldStatistics scan() {
+        cancelled = false; // Cancelling only affects the running scan
+
+        File[] files = directory.listFiles((dir, name) -> name.endsWith(".nls") && FileUtil.parseRegionCoordsFromFileName(name) != null);
+
+        if (files == null) {
+            files = new File[0];
+        }
+
+        scannedRegions.set(0);
+        totalRegions = files.length;
+
+        WorldStatistics statistics = pool.invoke(new ScanTask(files, 0, files.length));
+
+        if (cancelled) {
+            throw new CancellationException(String.format("Scan of \"%s\" was cancelled", directory.getAbsolutePath()));
+        }
+
+        return statistics;
+    }
+
+    /**
+     * Stops the running scan as soon as possible, Region files already being scanned are abandoned after their current chunk.
+     * Later scans are not affected.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * @return Whether the running or last scan has been cancelled
+     */
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    public int getScannedRegions() {
+        return scannedRegions.get();
+    }
+
+    public int getTotalRegions() {
+        return totalRegions;
+    }
+
+    private WorldStatistics scanRegion(File file) {
+        WorldStatistics statistics = new WorldStatistics();
+        byte[] section = new byte[SECTION_BYTES];
+
+        try (NLSChannelReader in = NLSChannelReader.open(file)) {
+            in.verifyNLSMagic();
+
+            int version = in.readInt32();
+
+            if (version != NLSUtil.CURRENT_VERSION) {
+                throw new IllegalStateException(String.format("Expected NLS Version %d, got %d", NLSUtil.CURRENT_VERSION, version));
+            }
+
+            int regionX = in.readInt32();
+            int regionZ = in.readInt32();
+
+            try {
+                while (!cancelled) {
+                    in.readInt16(); // Chunk position
+
+                    int mask = in.readInt16();
+                    int sections = 0;
+
+                    for (int y = 0; y < 16; ++y) {
+                        if ((mask & (1 << y)) == 0) {
+                            continue;
+                        }
+
+                        in.readFully(section);
+
+                        if (statistics.addSection(section)) {
+                            ++sections;
+                        }
+                    }
+
+                    statistics.addChunk(sections);
+                }
+            } catch (EOFException e) {
+                // End of the Region
+            }
+
+            statistics.addRegion(regionX, regionZ, (int) file.length());
+        } catch (IOException | RuntimeException e) {
+            LOGGER.log(Level.WARNING, String.format("Failed to scan Region file %s", file.getAbsolutePath()), e);
+
+            statistics = new WorldStatistics();
+            statistics.addFailedRegion();
+        }
+
+        int scanned = scannedRegions.incrementAndGet();
+
+        if (progressListener != null) {
+            progressListener.onProgress(scanned, totalRegions);
+        }
+
+        return statistics;
+    }
+
+    @FunctionalInterface
+    public interface ProgressListener {
+
+        /**
+         * Called from the scanning threads after every Region file.
+         *
+         * @param scannedRegions The amount of Region files scanned so far
+         * @param totalRegions   The total amount of Region files to scan
+         */
+        void onProgress(int scannedRegions, int totalRegions);
+
+    }
+
+    private class ScanTask extends RecursiveTask<WorldStatistics> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final File[] files;
+        private final int from, to;
+
+        private ScanTask(File[] files, int from, int to) {
+            this.files = files;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected WorldStatistics compute() {
+            if (cancelled || from >= to) {
+                return new WorldStatistics();
+            }
+
+            if (to - from == 1) {
+                return scanRegion(files[from]);
+            }
+
+            int mid = (from + to) >>> 1;
+
+            ScanTask left = new ScanTask(files, from, mid);
+            left.fork();
+
+            WorldStatistics statistics = new ScanTask(files, mid, to).compute();
+            statistics.merge(left.join());
+
+            return statistics;
+        }
+    }
+}
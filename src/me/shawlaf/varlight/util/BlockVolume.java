@@ -0,0 +1,179 @@
+package me.shawlaf.varlight.util;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Objects;
+
+/**
+ * A set of block positions used for spatial queries, either an axis aligned box or a sphere.
+ * <p>
+ * Queries prune Regions, Chunks and Chunk sections with {@link BlockVolume#intersects(int, int, int, int, int, int)}
+ * and only scan the blocks between {@link BlockVolume#rowStartX(int, int)} and {@link BlockVolume#rowEndX(int, int)} of every row.
+ */
+public abstract class BlockVolume {
+
+    public final int minX, minY, minZ;
+    public final int maxX, maxY, maxZ;
+
+    private BlockVolume(int minX, int minY, int minZ, int maxX, int maxY, int maxZ) {
+        this.minX = minX;
+        this.minY = minY;
+        this.minZ = minZ;
+        this.maxX = maxX;
+        this.maxY = maxY;
+        this.maxZ = maxZ;
+    }
+
+    /**
+     * @return An axis aligned box containing all positions between {@code a} and {@code b} (both inclusive)
+     */
+    public static BlockVolume box(@NotNull IntPosition a, @NotNull IntPosition b) {
+        Objects.requireNonNull(a);
+        Objects.requireNonNull(b);
+
+        return new Box(
+                Math.min(a.x, b.x), Math.min(a.y, b.y), Math.min(a.z, b.z),
+                Math.max(a.x, b.x), Math.max(a.y, b.y), Math.max(a.z, b.z)
+        );
+    }
+
+    /**
+     * @return A sphere containing all positions, whose euclidean distance to {@code center} is {@code <= radius}
+     */
+    public static BlockVolume sphere(@NotNull IntPosition center, int radius) {
+        Objects.requireNonNull(center);
+
+        if (radius < 0) {
+            throw new IllegalArgumentException("radius must be >= 0");
+        }
+
+        return new Sphere(center.x, center.y, center.z, radius);
+    }
+
+    /**
+     * @return Whether any position of this volume lies within the specified box (all bounds inclusive)
+     */
+    public abstract boolean intersects(int minX, int minY, int minZ, int maxX, int maxY, int maxZ);
+
+    public abstract boolean contains(int x, int y, int z);
+
+    /**
+     * @return The smallest X Coordinate of this volume in the row at {@code y} and {@code z}, greater than {@link BlockVolume#rowEndX(int, int)} if the row is empty
+     */
+    public abstract int rowStartX(int y, int z);
+
+    /**
+     * @return The largest X Coordinate of this volume in the row at {@code y} and {@code z}, less than {@link BlockVolume#rowStartX(int, int)} if the row is empty
+     */
+    public abstract int rowEndX(int y, int z);
+
+    protected boolean boundsIntersect(int minX, int minY, int minZ, int maxX, int maxY, int maxZ) {
+        return minX <= this.maxX && maxX >= this.minX
+                && minY <= this.maxY && maxY >= this.minY
+                && minZ <= this.maxZ && maxZ >= this.minZ;
+    }
+
+    private static class Box extends BlockVolume {
+
+        private Box(int minX, int minY, int minZ, int maxX, int maxY, int maxZ) {
+            super(minX, minY, minZ, maxX, maxY, maxZ);
+        }
+
+        @Override
+        public boolean intersects(int minX, int minY, int minZ, int maxX, int maxY, int maxZ) {
+            return boundsIntersect(minX, minY, minZ, maxX, maxY, maxZ);
+        }
+
+        @Override
+        public boolean contains(int x, int y, int z) {
+            return boundsIntersect(x, y, z, x, y, z);
+        }
+
+        @Override
+        public int rowStartX(int y, int z) {
+            return minX;
+        }
+
+        @Override
+        public int rowEndX(int y, int z) {
+            return maxX;
+        }
+    }
+
+    private static class Sphere extends BlockVolume {
+
+        private final int centerX, centerY, centerZ;
+        private final long radiusSquared;
+
+        private Sphere(int centerX, int centerY, int centerZ, int radius) {
+            super(centerX - radius, centerY - radius, centerZ - radius, centerX + radius, centerY + radius, centerZ + radius);
+
+            this.centerX = centerX;
+            this.centerY = centerY;
+            this.centerZ = centerZ;
+            this.radiusSquared = (long) radius * radius;
+        }
+
+        @Override
+        public boolean intersects(int minX, int minY, int minZ, int maxX, int maxY, int maxZ) {
+            if (!boundsIntersect(minX, minY, minZ, maxX, maxY, maxZ)) {
+                return false;
+            }
+
+            // Distance from the center to the closest point of the box
+
+            long dx = centerX - (long) Math.max(minX, Math.min(centerX, maxX));
+            long dy = centerY - (long) Math.max(minY, Math.min(centerY, maxY));
+            long dz = centerZ - (long) Math.max(minZ, Math.min(centerZ, maxZ));
+
+            return dx * dx + dy * dy + dz * dz <= radiusSquared;
+        }
+
+        @Override
+        public boolean contains(int x, int y, int z) {
+            long dx = x - (long) centerX;
+            long dy = y - (long) centerY;
+            long dz = z - (long) centerZ;
+
+            return dx * dx + dy * dy + dz * dz <= radiusSquared;
+        }
+
+        @Override
+        public int rowStartX(int y, int z) {
+            long halfWidth = halfWidth(y, z);
+
+            return halfWidth < 0 ? Integer.MAX_VALUE : (int) (centerX - halfWidth);
+        }
+
+        @Override
+        public int rowEndX(int y, int z) {
+            long halfWidth = halfWidth(y, z);
+
+            return halfWidth < 0 ? Integer.MIN_VALUE : (int) (centerX + halfWidth);
+        }
+
+        private long halfWidth(int y, int z) {
+            long dy = y - (long) centerY;
+            long dz = z - (long) centerZ;
+            long remaining = radiusSquared - dy * dy - dz * dz;
+
+            if (remaining < 0) {
+                return -1;
+            }
+
+            long halfWidth = (long) Math.sqrt(remaining);
+
+            // Correct floating point rounding
+
+            while (halfWidth * halfWidth > remaining) {
+                --halfWidth;
+            }
+
+            while ((halfWidth + 1) * (halfWidth + 1) <= remaining) {
+                ++halfWidth;
+            }
+
+            return halfWidth;
+        }
+    }
+}
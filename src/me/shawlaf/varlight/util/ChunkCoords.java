@@ -1,18 +1,24 @@
 package me.shawlaf.varlight.util;
 
-import java.util.Objects;
-
 public class ChunkCoords {
 
     public static final ChunkCoords ORIGIN = new ChunkCoords(0, 0);
 
     public final int x, z;
 
+    public ChunkCoords(long val) {
+        this((int) (val >> 32), (int) val);
+    }
+
     public ChunkCoords(int x, int z) {
         this.x = x;
         this.z = z;
     }
 
+    public static long encode(int x, int z) {
+        return ((long) x << 32) | (z & 0xFFFF_FFFFL);
+    }
+
     public int getRegionX() {
         return x >> 5;
     }
@@ -76,7 +82,7 @@ public class ChunkCoords {
 
     @Override
     public int hashCode() {
-        return Objects.hash(x, z);
+        return 31 * (31 + x) + z; // Same as Objects.hash(x, z), without boxing
     }
 
     @Override
@@ -88,6 +94,10 @@ public class ChunkCoords {
         return String.format("[%d, %d]", x, z);
     }
 
+    public long encode() {
+        return encode(x, z);
+    }
+
     public RegionCoords toRegionCoords() {
         return new RegionCoords(getRegionX(), getRegionZ());
     }
@@ -1,13 +1,15 @@
 package me.shawlaf.varlight.util;
 
-import java.util.Objects;
-
 public class ChunkSectionPosition {
 
     public static final ChunkSectionPosition ORIGIN = new ChunkSectionPosition(0, 0, 0);
 
     public final int x, y, z;
 
+    public ChunkSectionPosition(long val) {
+        this((int) (val >> 38), (int) (val & 0xF), (int) (val << 26 >> 38));
+    }
+
     public ChunkSectionPosition(ChunkCoords coords, int y) {
         this(coords.x, y, coords.z);
     }
@@ -36,6 +38,14 @@ public class ChunkSectionPosition {
         return MathUtil.modulo(z, 32);
     }
 
+    public static long encode(int x, int y, int z) {
+        return (((long) x & 0x3FFFFFF) << 38) | (((long) z & 0x3FFFFFF) << 12) | ((long) y & 0xF);
+    }
+
+    public long encode() {
+        return encode(x, y, z);
+    }
+
     public int encodeRegionRelative() {
         return (y << 10) | (getRegionRelativeZ() << 5) | getRegionRelativeX();
     }
@@ -52,6 +62,6 @@ public class ChunkSectionPosition {
 
     @Override
     public int hashCode() {
-        return Objects.hash(x, y, z);
+        return 31 * (31 * (31 + x) + y) + z; // Same as Objects.hash(x, y, z), without boxing
     }
 }
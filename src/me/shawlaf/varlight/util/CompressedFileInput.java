@@ -0,0 +1,151 @@
+package me.shawlaf.varlight.util;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Arrays;
+
+/**
+ * A single open file handle, whose {@link FileCompression} has already been identified.
+ * <p>
+ * The content can be consumed exactly once, either as a buffered {@link InputStream} or as a {@link ReadableByteChannel}.
+ * Closing the returned stream or channel closes the underlying file.
+ */
+public class CompressedFileInput implements Closeable {
+
+    private static final int MAX_ARRAY_SIZE = Integer.MAX_VALUE - 8;
+    private static final int MAX_READ_SIZE = 1 << 16; // Bounds the temporary direct buffer used by the FileChannel for every read
+    private static final int MAX_DEFLATE_RATIO = 1032;
+    private static final int SIZEOF_GZIP_TRAILER = 8;
+
+    private final FileChannel channel;
+    private final FileCompression compression;
+
+    private boolean consumed = false;
+
+    CompressedFileInput(FileChannel channel, FileCompression compression) {
+        this.channel = channel;
+        this.compression = compression;
+    }
+
+    public FileCompression getCompression() {
+        return compression;
+    }
+
+    /**
+     * @return A buffered {@link InputStream} of the uncompressed file content.
+     * @throws IOException If the decompressor could not be initialized
+     */
+    public InputStream getStream() throws IOException {
+        consume();
+
+        return new BufferedInputStream(compression.inflate(Channels.newInputStream(channel)), FileUtil.BUFFER_SIZE);
+    }
+
+    /**
+     * @return A {@link ReadableByteChannel} of the uncompressed file content, uncompressed files are returned as the {@link FileChannel} itself.
+     * @throws IOException If the decompressor could not be initialized
+     */
+    public ReadableByteChannel getChannel() throws IOException {
+        consume();
+
+        if (compression == FileCompression.RAW) {
+            return channel;
+        }
+
+        return Channels.newChannel(compression.inflate(Channels.newInputStream(channel)));
+    }
+
+    /**
+     * Reads the whole uncompressed content into a single array, sized up front so the content is not copied again:
+     * uncompressed files by the size of the file, GZIP files by the uncompressed size stored in their trailer.
+     *
+     * @return The uncompressed file content
+     * @throws IOException If the content could not be read or is larger than an array can hold
+     */
+    public byte[] readFully() throws IOException {
+        consume();
+
+        final long size = channel.size();
+
+        if (compression == FileCompression.RAW) {
+            if (size > MAX_ARRAY_SIZE) {
+                throw new IOException(String.format("File too large to be read at once (%d bytes)", size));
+            }
+
+            return readFully(Channels.newInputStream(channel), (int) size);
+        }
+
+        return readFully(compression.inflate(Channels.newInputStream(channel)), expectedInflatedSize(size));
+    }
+
+    /**
+     * @return The uncompressed size stored in the GZIP trailer, bounded by the maximum ratio of deflate, as it is only correct for single member files below 4 GiB.
+     */
+    private int expectedInflatedSize(long size) throws IOException {
+        if (size < SIZEOF_GZIP_TRAILER) {
+            return FileUtil.BUFFER_SIZE;
+        }
+
+        ByteBuffer trailer = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+
+        while (trailer.hasRemaining()) {
+            if (channel.read(trailer, size - trailer.remaining()) < 0) {
+                return FileUtil.BUFFER_SIZE;
+            }
+        }
+
+        long inflatedSize = trailer.getInt(0) & 0xFFFFFFFFL;
+
+        return (int) Math.min(inflatedSize, Math.min(size * MAX_DEFLATE_RATIO, MAX_ARRAY_SIZE));
+    }
+
+    private static byte[] readFully(InputStream in, int expectedSize) throws IOException {
+        byte[] data = new byte[expectedSize];
+        int length = 0;
+
+        while (true) {
+            if (length == data.length) {
+                int next = in.read(); // Only grow if the content is actually larger than expected
+
+                if (next < 0) {
+                    return data;
+                }
+
+                if (data.length == MAX_ARRAY_SIZE) {
+                    throw new IOException("Content too large to be read at once");
+                }
+
+                data = Arrays.copyOf(data, (int) Math.min(MAX_ARRAY_SIZE, Math.max((long) data.length << 1, FileUtil.BUFFER_SIZE)));
+                data[length++] = (byte) next;
+            }
+
+            int read = in.read(data, length, Math.min(MAX_READ_SIZE, data.length - length));
+
+            if (read < 0) {
+                return length == data.length ? data : Arrays.copyOf(data, length);
+            }
+
+            length += read;
+        }
+    }
+
+    private void consume() {
+        if (consumed) {
+            throw new IllegalStateException("Content already consumed");
+        }
+
+        consumed = true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,66 @@
+package me.shawlaf.varlight.util;
+
+/**
+ * Distance metrics for nearest neighbour queries.
+ * <p>
+ * Distances are only meant to be compared with each other, {@link DistanceMetric#EUCLIDEAN} yields squared distances to stay in integer arithmetic.
+ */
+public enum DistanceMetric {
+
+    MANHATTAN {
+        @Override
+        public long distance(long dx, long dy, long dz) {
+            return Math.abs(dx) + Math.abs(dy) + Math.abs(dz);
+        }
+
+        @Override
+        public long fromBlocks(long blocks) {
+            return blocks;
+        }
+    },
+
+    EUCLIDEAN {
+        @Override
+        public long distance(long dx, long dy, long dz) {
+            return dx * dx + dy * dy + dz * dz;
+        }
+
+        @Override
+        public long fromBlocks(long blocks) {
+            return blocks * blocks;
+        }
+    };
+
+    /**
+     * @return The comparable distance of the offset {@code (dx, dy, dz)}
+     */
+    public abstract long distance(long dx, long dy, long dz);
+
+    /**
+     * @return The comparable distance of an offset of {@code blocks} along a single axis
+     */
+    public abstract long fromBlocks(long blocks);
+
+    /**
+     * @return The comparable distance from the position {@code (x, y, z)} to the closest position within the box (all bounds inclusive)
+     */
+    public long distanceToBox(int x, int y, int z, int minX, int minY, int minZ, int maxX, int maxY, int maxZ) {
+        return distance(
+                gap(x, minX, maxX),
+                gap(y, minY, maxY),
+                gap(z, minZ, maxZ)
+        );
+    }
+
+    private static long gap(int value, int min, int max) {
+        if (value < min) {
+            return (long) min - value;
+        }
+
+        if (value > max) {
+            return (long) value - max;
+        }
+
+        return 0;
+    }
+}
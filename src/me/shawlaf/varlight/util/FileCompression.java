@@ -0,0 +1,73 @@
+package me.shawlaf.varlight.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * The Compression formats recognized by {@link FileUtil#openInflated(java.io.File)}, identified by the leading magic bytes of a file.
+ */
+public enum FileCompression {
+
+    RAW {
+        @Override
+        protected boolean matches(ByteBuffer magic) {
+            return true;
+        }
+
+        @Override
+        public InputStream inflate(InputStream in) {
+            return in;
+        }
+    },
+
+    GZIP {
+        @Override
+        protected boolean matches(ByteBuffer magic) {
+            if (magic.remaining() < SIZEOF_MAGIC) {
+                return false;
+            }
+
+            int lsb = magic.get(magic.position()) & 0xFF;
+            int msb = magic.get(magic.position() + 1) & 0xFF;
+
+            return ((msb << 8) | lsb) == GZIPInputStream.GZIP_MAGIC && magic.get(magic.position() + 2) == 0x08;
+        }
+
+        @Override
+        public InputStream inflate(InputStream in) throws IOException {
+            return new GZIPInputStream(in, FileUtil.BUFFER_SIZE);
+        }
+    };
+
+    /**
+     * The amount of leading bytes needed to identify any Compression format.
+     */
+    public static final int SIZEOF_MAGIC = 3;
+
+    private static final FileCompression[] DETECTION_ORDER = {GZIP, RAW};
+
+    /**
+     * @param magic The first (up to {@link FileCompression#SIZEOF_MAGIC}) bytes of a file, between position and limit. The buffer's position is not modified.
+     * @return The detected Compression format, {@link FileCompression#RAW} if no known magic was found.
+     */
+    public static FileCompression detect(ByteBuffer magic) {
+        for (FileCompression compression : DETECTION_ORDER) {
+            if (compression.matches(magic)) {
+                return compression;
+            }
+        }
+
+        return RAW;
+    }
+
+    protected abstract boolean matches(ByteBuffer magic);
+
+    /**
+     * @param in The raw data
+     * @return An {@link InputStream} yielding the uncompressed data read from {@code in}
+     * @throws IOException If the decompressor could not be initialized
+     */
+    public abstract InputStream inflate(InputStream in) throws IOException;
+}
@@ -3,16 +3,25 @@ package me.shawlaf.varlight.util;
 import lombok.experimental.UtilityClass;
 import org.jetbrains.annotations.Nullable;
 
-import java.io.*;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
-import java.util.zip.GZIPInputStream;
 
 import static java.lang.Integer.parseInt;
 
 @UtilityClass
 public class FileUtil {
 
+    public static final int BUFFER_SIZE = 8192;
+
     private static final Pattern FILENAME_PATTERN = Pattern.compile("^r\\.(-?\\d+)\\.(-?\\d+)\\..+$");
 
     public static String getExtension(File file) {
@@ -41,65 +50,74 @@ public class FileUtil {
         return file.delete();
     }
 
-    public static InputStream openStreamInflate(File file) throws IOException {
-        FileInputStream fis = new FileInputStream(file);
-
-        if (isDeflated(file)) {
-            return new GZIPInputStream(fis);
-        } else {
-            return fis;
-        }
-    }
+    /**
+     * Opens the specified file once and identifies its {@link FileCompression} by peeking at the leading magic bytes.
+     *
+     * @param file The file to open
+     * @return A {@link CompressedFileInput} positioned at the start of the file
+     * @throws IOException If the file could not be opened or read
+     */
+    public static CompressedFileInput openInflated(File file) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+
+        try {
+            ByteBuffer magic = ByteBuffer.allocate(FileCompression.SIZEOF_MAGIC);
+
+            while (magic.hasRemaining()) {
+                if (channel.read(magic) == -1) {
+                    break;
+                }
+            }
 
-    public static byte[] readFileFullyInflate(File file) throws IOException {
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            magic.flip();
 
-        try (FileInputStream fis = new FileInputStream(file)) {
-            InputStream in;
+            FileCompression compression = FileCompression.detect(magic);
 
-            if (isDeflated(file)) {
-                in = new GZIPInputStream(fis);
-            } else {
-                in = fis;
-            }
+            channel.position(0);
 
-            byte[] buffer = new byte[1024];
-            int read = 0;
+            return new CompressedFileInput(channel, compression);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
 
-            while ((read = in.read(buffer, 0, buffer.length)) > 0) {
-                baos.write(buffer, 0, read);
-            }
+    public static InputStream openStreamInflate(File file) throws IOException {
+        CompressedFileInput in = openInflated(file);
 
-            in.close();
+        try {
+            return in.getStream();
+        } catch (IOException | RuntimeException e) {
+            in.close(); // e.g. a truncated GZIP header
+            throw e;
         }
+    }
 
-        return baos.toByteArray();
+    /**
+     * @see CompressedFileInput#readFully()
+     */
+    public static byte[] readFileFullyInflate(File file) throws IOException {
+        try (CompressedFileInput in = openInflated(file)) {
+            return in.readFully();
+        }
     }
 
     public static boolean isDeflated(File file) throws IOException {
-        boolean deflated = false;
-
-        try (FileInputStream fis = new FileInputStream(file)) {
-            DataInputStream dataInputStream = new DataInputStream(fis);
-
-            int lsb = dataInputStream.readUnsignedByte();
-            int msb = dataInputStream.readUnsignedByte();
-
-            int read = (msb << 8) | lsb;
-
-            if (read == GZIPInputStream.GZIP_MAGIC) {
-
-                read = dataInputStream.readByte();
-
-                if (read == 0x08) {
-                    deflated = true;
-                }
-            }
-
-            dataInputStream.close();
+        try (CompressedFileInput in = openInflated(file)) {
+            return in.getCompression() == FileCompression.GZIP;
         }
+    }
 
-        return deflated;
+    /**
+     * Moves {@code source} to {@code target}, replacing {@code target}. Readers of {@code target} either see the old or the new file, never a partial one,
+     * unless the file system does not support atomic moves.
+     */
+    public static void moveAtomically(File source, File target) throws IOException {
+        try {
+            Files.move(source.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
     }
 
     @Nullable
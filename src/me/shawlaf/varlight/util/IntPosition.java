@@ -80,10 +80,14 @@ public class IntPosition implements Comparable<IntPosition> {
         return new IntPosition(x + dx, y + dy, z + dz);
     }
 
-    public long encode() {
+    public static long encode(int x, int y, int z) {
         return (((long) x & 0x3FFFFFF) << 38) | (((long) z & 0x3FFFFFF) << 12) | ((long) y & 0xFFF);
     }
 
+    public long encode() {
+        return encode(x, y, z);
+    }
+
     public ChunkCoords toChunkCoords() {
         return new ChunkCoords(getChunkX(), getChunkZ());
     }
@@ -104,7 +108,7 @@ public class IntPosition implements Comparable<IntPosition> {
 
     @Override
     public int hashCode() {
-        return Objects.hash(x, y, z);
+        return 31 * (31 * (31 + x) + y) + z; // Same as Objects.hash(x, y, z), without boxing
     }
 
     @Override
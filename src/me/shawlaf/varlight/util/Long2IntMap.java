@@ -0,0 +1,240 @@
+package me.shawlaf.varlight.util;
+
+import java.util.Arrays;
+
+/**
+ * An open addressing hash map from primitive {@code long} keys to primitive {@code int} values, using linear probing.
+ * <p>
+ * Meant for packed coordinates (see {@link IntPosition#encode()}, {@link ChunkCoords#encode()}, {@link RegionCoords#encode()}),
+ * lookups neither allocate nor box. Not thread safe.
+ */
+public class Long2IntMap {
+
+    private static final int DEFAULT_CAPACITY = 16;
+    private static final float LOAD_FACTOR = 0.75f;
+
+    private final int defaultValue;
+
+    private long[] keys;
+    private int[] values;
+    private boolean[] used;
+
+    private int mask;
+    private int size = 0;
+    private int threshold;
+
+    public Long2IntMap() {
+        this(DEFAULT_CAPACITY, 0);
+    }
+
+    /**
+     * @param expectedSize The amount of entries this map should hold without resizing
+     * @param defaultValue The value returned by {@link Long2IntMap#get(long)} for absent keys
+     */
+    public Long2IntMap(int expectedSize, int defaultValue) {
+        this.defaultValue = defaultValue;
+
+        allocate(Long2ObjectMap.tableSizeFor(expectedSize));
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int getDefaultValue() {
+        return defaultValue;
+    }
+
+    public boolean containsKey(long key) {
+        return indexOf(key) >= 0;
+    }
+
+    /**
+     * @return The value associated with {@code key}, or the default value if absent
+     */
+    public int get(long key) {
+        int index = indexOf(key);
+
+        return index < 0 ? defaultValue : values[index];
+    }
+
+    /**
+     * @return The previous value associated with {@code key}, or the default value if absent
+     */
+    public int put(long key, int value) {
+        int index = slotOf(key);
+
+        if (used[index]) {
+            int previous = values[index];
+            values[index] = value;
+
+            return previous;
+        }
+
+        insertAt(index, key, value);
+
+        return defaultValue;
+    }
+
+    /**
+     * Adds {@code delta} to the value associated with {@code key}, absent keys start at the default value.
+     *
+     * @return The new value
+     */
+    public int addTo(long key, int delta) {
+        int index = slotOf(key);
+
+        if (used[index]) {
+            return values[index] += delta;
+        }
+
+        insertAt(index, key, defaultValue + delta);
+
+        return defaultValue + delta;
+    }
+
+    /**
+     * @return The value previously associated with {@code key}, or the default value if absent
+     */
+    public int remove(long key) {
+        int index = indexOf(key);
+
+        if (index < 0) {
+            return defaultValue;
+        }
+
+        int previous = values[index];
+
+        removeAt(index);
+
+        return previous;
+    }
+
+    public void clear() {
+        if (size == 0) {
+            return;
+        }
+
+        Arrays.fill(used, false);
+
+        size = 0;
+    }
+
+    /**
+     * @return A snapshot of all keys currently contained in this map, in no particular order
+     */
+    public long[] keys() {
+        long[] result = new long[size];
+
+        for (int i = 0, j = 0; i < keys.length; ++i) {
+            if (used[i]) {
+                result[j++] = keys[i];
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Calls the {@link EntryConsumer} for every entry, the map must not be modified while iterating.
+     */
+    public void forEach(EntryConsumer consumer) {
+        for (int i = 0; i < keys.length; ++i) {
+            if (used[i]) {
+                consumer.accept(keys[i], values[i]);
+            }
+        }
+    }
+
+    private int indexOf(long key) {
+        int index = slotOf(key);
+
+        return used[index] ? index : -1;
+    }
+
+    private int slotOf(long key) {
+        int index = Long2ObjectMap.mix(key) & mask;
+
+        while (used[index] && keys[index] != key) {
+            index = (index + 1) & mask;
+        }
+
+        return index;
+    }
+
+    private void insertAt(int index, long key, int value) {
+        used[index] = true;
+        keys[index] = key;
+        values[index] = value;
+
+        if (++size > threshold) {
+            rehash(keys.length << 1);
+        }
+    }
+
+    private void removeAt(int index) {
+        // Backward shift deletion, see Long2ObjectMap
+
+        int hole = index;
+        int next = (hole + 1) & mask;
+
+        while (used[next]) {
+            int home = Long2ObjectMap.mix(keys[next]) & mask;
+
+            if (((next - home) & mask) >= ((next - hole) & mask)) {
+                keys[hole] = keys[next];
+                values[hole] = values[next];
+
+                hole = next;
+            }
+
+            next = (next + 1) & mask;
+        }
+
+        used[hole] = false;
+
+        --size;
+    }
+
+    private void rehash(int capacity) {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        boolean[] oldUsed = used;
+
+        allocate(capacity);
+
+        for (int i = 0; i < oldKeys.length; ++i) {
+            if (!oldUsed[i]) {
+                continue;
+            }
+
+            int index = Long2ObjectMap.mix(oldKeys[i]) & mask;
+
+            while (used[index]) {
+                index = (index + 1) & mask;
+            }
+
+            used[index] = true;
+            keys[index] = oldKeys[i];
+            values[index] = oldValues[i];
+        }
+    }
+
+    private void allocate(int capacity) {
+        this.keys = new long[capacity];
+        this.values = new int[capacity];
+        this.used = new boolean[capacity];
+
+        this.mask = capacity - 1;
+        this.threshold = (int) (capacity * LOAD_FACTOR);
+    }
+
+    @FunctionalInterface
+    public interface EntryConsumer {
+        void accept(long key, int value);
+    }
+}
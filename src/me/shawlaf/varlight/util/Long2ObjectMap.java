@@ -0,0 +1,252 @@
+package me.shawlaf.varlight.util;
+
+import java.util.Arrays;
+import java.util.function.LongPredicate;
+
+/**
+ * An open addressing hash map from primitive {@code long} keys to Objects, using linear probing.
+ * <p>
+ * Meant for packed coordinates (see {@link IntPosition#encode()}, {@link ChunkCoords#encode()}, {@link RegionCoords#encode()}),
+ * lookups neither allocate nor box. Not thread safe.
+ *
+ * @param <V> The type of values
+ */
+public class Long2ObjectMap<V> {
+
+    private static final int DEFAULT_CAPACITY = 16;
+    private static final float LOAD_FACTOR = 0.75f;
+
+    private long[] keys;
+    private Object[] values;
+    private boolean[] used;
+
+    private int mask;
+    private int size = 0;
+    private int threshold;
+
+    public Long2ObjectMap() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public Long2ObjectMap(int expectedSize) {
+        allocate(tableSizeFor(expectedSize));
+    }
+
+    static int tableSizeFor(int expectedSize) {
+        int capacity = Math.max(4, (int) Math.ceil(Math.max(0, expectedSize) / LOAD_FACTOR));
+
+        return Integer.highestOneBit(capacity - 1) << 1;
+    }
+
+    static int mix(long key) {
+        long h = key * 0x9E37_79B9_7F4A_7C15L;
+
+        return (int) (h ^ (h >>> 32));
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public boolean containsKey(long key) {
+        return indexOf(key) >= 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(long key) {
+        int index = indexOf(key);
+
+        return index < 0 ? null : (V) values[index];
+    }
+
+    /**
+     * @return The previous value associated with {@code key}, or {@code null}
+     */
+    @SuppressWarnings("unchecked")
+    public V put(long key, V value) {
+        int index = mix(key) & mask;
+
+        while (used[index]) {
+            if (keys[index] == key) {
+                V previous = (V) values[index];
+                values[index] = value;
+
+                return previous;
+            }
+
+            index = (index + 1) & mask;
+        }
+
+        used[index] = true;
+        keys[index] = key;
+        values[index] = value;
+
+        if (++size > threshold) {
+            rehash(keys.length << 1);
+        }
+
+        return null;
+    }
+
+    /**
+     * @return The value previously associated with {@code key}, or {@code null}
+     */
+    @SuppressWarnings("unchecked")
+    public V remove(long key) {
+        int index = indexOf(key);
+
+        if (index < 0) {
+            return null;
+        }
+
+        V previous = (V) values[index];
+
+        removeAt(index);
+
+        return previous;
+    }
+
+    /**
+     * Removes all entries, whose key matches the {@link LongPredicate}.
+     *
+     * @return The amount of removed entries
+     */
+    public int removeIf(LongPredicate predicate) {
+        long[] toRemove = new long[size];
+        int count = 0;
+
+        for (int i = 0; i < keys.length; ++i) {
+            if (used[i] && predicate.test(keys[i])) {
+                toRemove[count++] = keys[i];
+            }
+        }
+
+        for (int i = 0; i < count; ++i) {
+            remove(toRemove[i]);
+        }
+
+        return count;
+    }
+
+    public void clear() {
+        if (size == 0) {
+            return;
+        }
+
+        Arrays.fill(used, false);
+        Arrays.fill(values, null);
+
+        size = 0;
+    }
+
+    /**
+     * @return A snapshot of all keys currently contained in this map, in no particular order
+     */
+    public long[] keys() {
+        long[] result = new long[size];
+
+        for (int i = 0, j = 0; i < keys.length; ++i) {
+            if (used[i]) {
+                result[j++] = keys[i];
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Calls the {@link EntryConsumer} for every entry, the map must not be modified while iterating.
+     */
+    @SuppressWarnings("unchecked")
+    public void forEach(EntryConsumer<? super V> consumer) {
+        for (int i = 0; i < keys.length; ++i) {
+            if (used[i]) {
+                consumer.accept(keys[i], (V) values[i]);
+            }
+        }
+    }
+
+    private int indexOf(long key) {
+        int index = mix(key) & mask;
+
+        while (used[index]) {
+            if (keys[index] == key) {
+                return index;
+            }
+
+            index = (index + 1) & mask;
+        }
+
+        return -1;
+    }
+
+    private void removeAt(int index) {
+        // Backward shift deletion, keeps probe sequences intact without tombstones
+
+        int hole = index;
+        int next = (hole + 1) & mask;
+
+        while (used[next]) {
+            int home = mix(keys[next]) & mask;
+
+            // Move the entry into the hole, if its home slot is not in between the hole and its current slot (cyclic)
+
+            if (((next - home) & mask) >= ((next - hole) & mask)) {
+                keys[hole] = keys[next];
+                values[hole] = values[next];
+
+                hole = next;
+            }
+
+            next = (next + 1) & mask;
+        }
+
+        used[hole] = false;
+        values[hole] = null;
+
+        --size;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void rehash(int capacity) {
+        long[] oldKeys = keys;
+        Object[] oldValues = values;
+        boolean[] oldUsed = used;
+
+        allocate(capacity);
+
+        for (int i = 0; i < oldKeys.length; ++i) {
+            if (!oldUsed[i]) {
+                continue;
+            }
+
+            int index = mix(oldKeys[i]) & mask;
+
+            while (used[index]) {
+                index = (index + 1) & mask;
+            }
+
+            used[index] = true;
+            keys[index] = oldKeys[i];
+            values[index] = oldValues[i];
+        }
+    }
+
+    private void allocate(int capacity) {
+        this.keys = new long[capacity];
+        this.values = new Object[capacity];
+        this.used = new boolean[capacity];
+
+        this.mask = capacity - 1;
+        this.threshold = (int) (capacity * LOAD_FACTOR);
+    }
+
+    @FunctionalInterface
+    public interface EntryConsumer<V> {
+        void accept(long key, V value);
+    }
+}
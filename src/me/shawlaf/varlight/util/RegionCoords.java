@@ -9,11 +9,23 @@ public class RegionCoords {
         this(intPosition.getChunkX() >> 5, intPosition.getChunkZ() >> 5);
     }
 
+    public RegionCoords(long val) {
+        this((int) (val >> 32), (int) val);
+    }
+
     public RegionCoords(int x, int z) {
         this.x = x;
         this.z = z;
     }
 
+    public static long encode(int x, int z) {
+        return ((long) x << 32) | (z & 0xFFFF_FFFFL);
+    }
+
+    public long encode() {
+        return encode(x, z);
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -0,0 +1,225 @@
+package me.shawlaf.varlight.util;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * An open addressing hash map from unsigned 16 bit keys ({@code 0 - 65535}) to non-null Objects, using linear probing.
+ * <p>
+ * Meant for block indices within a chunk section or column, the memory used scales with the amount of entries instead of the range of keys.
+ * Lookups neither allocate nor box. Not thread safe.
+ *
+ * @param <V> The type of values
+ */
+public class Short2ObjectMap<V> {
+
+    public static final int MAX_KEY = 0xFFFF;
+
+    private static final int DEFAULT_CAPACITY = 4;
+    private static final float LOAD_FACTOR = 0.75f;
+
+    private short[] keys;
+    private Object[] values; // null marks an empty slot
+
+    private int mask;
+    private int size = 0;
+    private int threshold;
+
+    public Short2ObjectMap() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public Short2ObjectMap(int expectedSize) {
+        allocate(Long2ObjectMap.tableSizeFor(expectedSize));
+    }
+
+    static int mix(int key) {
+        int h = key * 0x9E37_79B9;
+
+        return h ^ (h >>> 16);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public boolean containsKey(int key) {
+        return indexOf(key) >= 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(int key) {
+        int index = indexOf(key);
+
+        return index < 0 ? null : (V) values[index];
+    }
+
+    /**
+     * @return The previous value associated with {@code key}, or {@code null}
+     */
+    @SuppressWarnings("unchecked")
+    public V put(int key, V value) {
+        checkKey(key);
+        Objects.requireNonNull(value);
+
+        int index = mix(key) & mask;
+
+        while (values[index] != null) {
+            if ((keys[index] & 0xFFFF) == key) {
+                V previous = (V) values[index];
+                values[index] = value;
+
+                return previous;
+            }
+
+            index = (index + 1) & mask;
+        }
+
+        keys[index] = (short) key;
+        values[index] = value;
+
+        if (++size > threshold) {
+            rehash(keys.length << 1);
+        }
+
+        return null;
+    }
+
+    /**
+     * @return The value previously associated with {@code key}, or {@code null}
+     */
+    @SuppressWarnings("unchecked")
+    public V remove(int key) {
+        int index = indexOf(key);
+
+        if (index < 0) {
+            return null;
+        }
+
+        V previous = (V) values[index];
+
+        removeAt(index);
+
+        return previous;
+    }
+
+    public void clear() {
+        if (size == 0) {
+            return;
+        }
+
+        Arrays.fill(values, null);
+
+        size = 0;
+    }
+
+    /**
+     * @return A snapshot of all keys currently contained in this map, in no particular order
+     */
+    public int[] keys() {
+        int[] result = new int[size];
+
+        for (int i = 0, j = 0; i < keys.length; ++i) {
+            if (values[i] != null) {
+                result[j++] = keys[i] & 0xFFFF;
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Calls the {@link EntryConsumer} for every entry, the map must not be modified while iterating.
+     */
+    @SuppressWarnings("unchecked")
+    public void forEach(EntryConsumer<? super V> consumer) {
+        for (int i = 0; i < keys.length; ++i) {
+            if (values[i] != null) {
+                consumer.accept(keys[i] & 0xFFFF, (V) values[i]);
+            }
+        }
+    }
+
+    private static void checkKey(int key) {
+        if (key < 0 || key > MAX_KEY) {
+            throw new IllegalArgumentException(String.format("Key %d out of range [0, %d]", key, MAX_KEY));
+        }
+    }
+
+    private int indexOf(int key) {
+        int index = mix(key) & mask;
+
+        while (values[index] != null) {
+            if ((keys[index] & 0xFFFF) == key) {
+                return index;
+            }
+
+            index = (index + 1) & mask;
+        }
+
+        return -1;
+    }
+
+    private void removeAt(int index) {
+        // Backward shift deletion, keeps probe sequences intact without tombstones
+
+        int hole = index;
+        int next = (hole + 1) & mask;
+
+        while (values[next] != null) {
+            int home = mix(keys[next] & 0xFFFF) & mask;
+
+            if (((next - home) & mask) >= ((next - hole) & mask)) {
+                keys[hole] = keys[next];
+                values[hole] = values[next];
+
+                hole = next;
+            }
+
+            next = (next + 1) & mask;
+        }
+
+        values[hole] = null;
+
+        --size;
+    }
+
+    private void rehash(int capacity) {
+        short[] oldKeys = keys;
+        Object[] oldValues = values;
+
+        allocate(capacity);
+
+        for (int i = 0; i < oldKeys.length; ++i) {
+            if (oldValues[i] == null) {
+                continue;
+            }
+
+            int index = mix(oldKeys[i] & 0xFFFF) & mask;
+
+            while (values[index] != null) {
+                index = (index + 1) & mask;
+            }
+
+            keys[index] = oldKeys[i];
+            values[index] = oldValues[i];
+        }
+    }
+
+    private void allocate(int capacity) {
+        this.keys = new short[capacity];
+        this.values = new Object[capacity];
+
+        this.mask = capacity - 1;
+        this.threshold = (int) (capacity * LOAD_FACTOR);
+    }
+
+    @FunctionalInterface
+    public interface EntryConsumer<V> {
+        void accept(int key, V value);
+    }
+}
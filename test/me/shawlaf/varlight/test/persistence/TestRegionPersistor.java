@@ -14,8 +14,13 @@ import org.junit.jupiter.api.io.TempDir;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 import java.util.zip.GZIPOutputStream;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -194,6 +199,79 @@ public class TestRegionPersistor {
         assertEquals(0, r.getCache(ChunkCoords.ORIGIN).size());
     }
 
+    @Test
+    public void testDirtyChunks(@TempDir File tempDir) throws Exception {
+        RegionPersistorBasic r = new RegionPersistorBasic(tempDir, 0, 0, false);
+
+        for (int i = 0; i < 100; ++i) {
+            r.put(new BasicCustomLightSource(new IntPosition(i % 16, i, 0), 1 + i % 15, true, "minecraft:stone"));
+        }
+
+        r.put(new BasicCustomLightSource(new IntPosition(16, 0, 0), 15, true, "minecraft:stone"));
+
+        assertEquals(2, r.getDirtyChunkCount());
+        assertEquals(2, (int) r.flushAllAsync(Runnable::run).get());
+        assertEquals(0, r.getDirtyChunkCount());
+        assertFalse(r.isDirty(ChunkCoords.ORIGIN));
+        assertTrue(r.file.hasChunkData(new ChunkCoords(1, 0)));
+
+        // Removing the last Light source of a chunk removes the chunk from the file
+
+        r.removeLightSource(new IntPosition(16, 0, 0));
+        r.flushAll();
+
+        assertFalse(r.file.hasChunkData(new ChunkCoords(1, 0)));
+        assertEquals(100, r.loadAll().size());
+    }
+
+    @Test
+    public void testBackgroundFlushing(@TempDir File tempDir) throws Exception {
+        RegionPersistorBasic r = new RegionPersistorBasic(tempDir, 0, 0, false);
+        ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+
+        try {
+            ScheduledFuture<?> flusher = r.startBackgroundFlushing(executor, 10, TimeUnit.MILLISECONDS);
+
+            Thread[] writers = new Thread[4];
+
+            for (int t = 0; t < writers.length; ++t) {
+                final int cx = t;
+
+                writers[t] = new Thread(() -> {
+                    try {
+                        for (int y = 0; y < 256; ++y) {
+                            r.put(new BasicCustomLightSource(new IntPosition(cx * 16, y, 0), 15, true, "minecraft:stone"));
+                        }
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+
+                writers[t].start();
+            }
+
+            for (Thread writer : writers) {
+                writer.join();
+            }
+
+            long deadline = System.currentTimeMillis() + 5000;
+
+            while (r.getDirtyChunkCount() > 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(5);
+            }
+
+            flusher.cancel(false);
+
+            assertEquals(0, r.getDirtyChunkCount());
+
+            for (int cx = 0; cx < writers.length; ++cx) {
+                assertEquals(256, r.file.readChunk(cx, 0).length);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
     private static class RegionPersistorBasic extends RegionPersistor<BasicCustomLightSource> {
         public RegionPersistorBasic(@NotNull File vldbRoot, int regionX, int regionZ) throws IOException {
             this(vldbRoot, regionX, regionZ, true);
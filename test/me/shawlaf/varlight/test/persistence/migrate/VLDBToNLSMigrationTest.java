@@ -0,0 +1,79 @@
+package me.shawlaf.varlight.test.persistence.migrate;
+
+import me.shawlaf.varlight.persistence.BasicCustomLightSource;
+import me.shawlaf.varlight.persistence.migrate.VLDBToNLSMigration;
+import me.shawlaf.varlight.persistence.nls.NLSFile;
+import me.shawlaf.varlight.persistence.vldb.VLDBFile;
+import me.shawlaf.varlight.persistence.vldb.VLDBOutputStream;
+import me.shawlaf.varlight.util.IntPosition;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class VLDBToNLSMigrationTest {
+
+    private static File writeVLDB(File directory, BasicCustomLightSource... lightSources) throws IOException {
+        File file = new File(directory, VLDBFile.getFileName(lightSources));
+
+        try (VLDBOutputStream out = new VLDBOutputStream(new GZIPOutputStream(new FileOutputStream(file)))) {
+            out.write(lightSources);
+        }
+
+        return file;
+    }
+
+    @Test
+    public void testMigrateSingleFile(@TempDir File tempDir) throws Exception {
+        File first = writeVLDB(tempDir, new BasicCustomLightSource(new IntPosition(0, 0, 0), 15, true, "minecraft:stone"));
+        File second = writeVLDB(tempDir, new BasicCustomLightSource(new IntPosition(-1, 10, -513), 7, true, "minecraft:glowstone"));
+
+        VLDBToNLSMigration migration = new VLDBToNLSMigration(2, true);
+
+        assertFalse(migration.migrate(new File(tempDir, "unrelated.txt")));
+        assertTrue(migration.migrate(first));
+
+        assertFalse(first.exists());
+        assertTrue(second.exists()); // Only the passed file is converted
+        assertFalse(new File(tempDir, "r.-1.-2.nls").exists());
+
+        assertTrue(migration.migrate(second));
+        assertFalse(migration.migrate(second));
+
+        assertEquals(15, NLSFile.existingFile(new File(tempDir, "r.0.0.nls")).getCustomLuminance(new IntPosition(0, 0, 0)));
+        assertEquals(7, NLSFile.existingFile(new File(tempDir, "r.-1.-2.nls")).getCustomLuminance(new IntPosition(-1, 10, -513)));
+    }
+
+    @Test
+    public void testConvertDirectory(@TempDir File tempDir) throws Exception {
+        File first = writeVLDB(tempDir,
+                new BasicCustomLightSource(new IntPosition(0, 0, 0), 15, true, "minecraft:stone"),
+                new BasicCustomLightSource(new IntPosition(17, 255, 31), 3, false, "minecraft:dirt"),
+                new BasicCustomLightSource(new IntPosition(511, 64, 511), 0, false, "minecraft:air") // Not converted
+        );
+
+        File second = writeVLDB(tempDir,
+                new BasicCustomLightSource(new IntPosition(-1, 10, -513), 7, true, "minecraft:glowstone")
+        );
+
+        assertEquals(2, new VLDBToNLSMigration(2, true).convertDirectory(tempDir));
+
+        assertFalse(first.exists());
+        assertFalse(second.exists());
+
+        NLSFile region00 = NLSFile.existingFile(new File(tempDir, "r.0.0.nls"));
+
+        assertEquals(15, region00.getCustomLuminance(new IntPosition(0, 0, 0)));
+        assertEquals(3, region00.getCustomLuminance(new IntPosition(17, 255, 31)));
+        assertEquals(2, region00.getAllLightSources().size());
+
+        NLSFile region = NLSFile.existingFile(new File(tempDir, "r.-1.-2.nls"));
+
+        assertEquals(7, region.getCustomLuminance(new IntPosition(-1, 10, -513)));
+    }
+}
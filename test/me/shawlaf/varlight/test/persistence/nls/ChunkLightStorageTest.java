@@ -41,4 +41,15 @@ public class ChunkLightStorageTest {
         assertThrows(PositionOutOfBoundsException.class, () -> cls.setCustomLuminance(new IntPosition(0, 256, 0), 5)); // y too high
     }
 
+    @Test
+    public void testIllegalValueKeepsNoEmptySection() {
+        ChunkLightStorage cls = new ChunkLightStorage(0, 0);
+
+        cls.setCustomLuminance(new IntPosition(0, 0, 0), 5);
+
+        assertThrows(IllegalArgumentException.class, () -> cls.setCustomLuminance(new IntPosition(0, 100, 0), 16));
+        assertThrows(IllegalArgumentException.class, () -> cls.setCustomLuminance(new IntPosition(0, 100, 0), -1));
+
+        assertEquals(1, cls.getMask());
+    }
 }
@@ -0,0 +1,85 @@
+package me.shawlaf.varlight.test.persistence.nls;
+
+import me.shawlaf.varlight.persistence.nls.ChunkPayloadCache;
+import me.shawlaf.varlight.persistence.nls.NLSFile;
+import me.shawlaf.varlight.persistence.nls.NibbleOrder;
+import me.shawlaf.varlight.util.ChunkCoords;
+import me.shawlaf.varlight.util.IntPosition;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ChunkPayloadCacheTest {
+
+    @Test
+    public void testStampInvalidation(@TempDir File tempDir) {
+        NLSFile file = NLSFile.newFile(new File(tempDir, "r.0.0.nls"), 0, 0);
+        ChunkPayloadCache cache = new ChunkPayloadCache(1 << 20, NibbleOrder.NATIVE, false);
+
+        assertNull(cache.get(file, 0, 0));
+
+        file.setCustomLuminance(new IntPosition(0, 17, 0), 7);
+
+        byte[] payload = cache.get(file, 0, 0);
+
+        assertEquals(2 + 2048, payload.length);
+        assertEquals(0, payload[0]);
+        assertEquals(0b10, payload[1]); // Mask: section 1
+        assertEquals(0x07, payload[2 + 128]); // Index 256, native order
+
+        assertSame(payload, cache.get(file, 0, 0));
+        assertEquals(1 / 3.0, cache.getHitRate(), 1e-9); // The request for the empty chunk was a miss as well
+
+        file.setCustomLuminance(new IntPosition(0, 17, 0), 8);
+
+        byte[] modified = cache.get(file, 0, 0);
+
+        assertNotSame(payload, modified);
+        assertEquals(0x08, modified[2 + 128]);
+        assertEquals(1, cache.getEntryCount());
+
+        file.clearChunk(new ChunkCoords(0, 0));
+
+        assertNull(cache.get(file, 0, 0));
+        assertEquals(0, cache.getEntryCount());
+        assertEquals(0, cache.getUsedBytes());
+    }
+
+    @Test
+    public void testBoundedAndCompressed(@TempDir File tempDir) throws DataFormatException {
+        NLSFile file = NLSFile.newFile(new File(tempDir, "r.0.0.nls"), 0, 0);
+
+        for (int cx = 0; cx < 8; ++cx) {
+            file.setCustomLuminance(new IntPosition(cx * 16, 0, 0), 15);
+        }
+
+        ChunkPayloadCache uncompressed = new ChunkPayloadCache(3 * 2050, NibbleOrder.VARLIGHT, false);
+
+        for (int cx = 0; cx < 8; ++cx) {
+            uncompressed.get(file, cx, 0);
+        }
+
+        assertEquals(3, uncompressed.getEntryCount());
+        assertEquals(5, uncompressed.getEvictions());
+
+        ChunkPayloadCache compressed = new ChunkPayloadCache(1 << 20, NibbleOrder.VARLIGHT, true);
+        byte[] payload = compressed.get(file, 3, 0);
+
+        assertTrue(payload.length < 100);
+
+        Inflater inflater = new Inflater();
+        inflater.setInput(payload);
+
+        byte[] inflated = new byte[2050];
+
+        assertEquals(2050, inflater.inflate(inflated));
+        assertEquals((byte) 0xF0, inflated[2]);
+
+        inflater.end();
+    }
+}
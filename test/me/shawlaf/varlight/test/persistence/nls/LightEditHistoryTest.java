@@ -0,0 +1,138 @@
+package me.shawlaf.varlight.test.persistence.nls;
+
+import me.shawlaf.varlight.persistence.nls.LightEditHistory;
+import me.shawlaf.varlight.persistence.nls.NLSFile;
+import me.shawlaf.varlight.persistence.world.WorldLightStore;
+import me.shawlaf.varlight.util.IntPosition;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LightEditHistoryTest {
+
+    private static void fill(NLSFile.Editor editor, int y, int value) {
+        for (int z = 0; z < 16; ++z) {
+            for (int x = 0; x < 256; ++x) {
+                editor.setCustomLuminance(x, y, z, value);
+            }
+        }
+    }
+
+    @Test
+    public void testUndoRedo(@TempDir File tempDir) {
+        NLSFile file = NLSFile.newFile(new File(tempDir, "r.0.0.nls"), 0, 0);
+        LightEditHistory history = new LightEditHistory(file, 1024 * 1024);
+
+        file.setCustomLuminance(new IntPosition(10, 20, 5), 3);
+
+        assertEquals(256 * 16, history.edit(editor -> fill(editor, 20, 7)));
+        assertEquals((16 + 2) * 11, history.getUsedBytes()); // One run per row, the row containing the existing light source is split in three
+
+        assertEquals(7, file.getCustomLuminance(new IntPosition(10, 20, 5)));
+
+        assertTrue(history.undo());
+        assertEquals(3, file.getCustomLuminance(new IntPosition(10, 20, 5)));
+        assertEquals(0, file.getCustomLuminance(new IntPosition(11, 20, 5)));
+        assertTrue(history.canRedo());
+
+        assertTrue(history.redo());
+        assertEquals(7, file.getCustomLuminance(new IntPosition(10, 20, 5)));
+        assertEquals(7, file.getCustomLuminance(new IntPosition(255, 20, 15)));
+
+        history.edit(editor -> editor.setCustomLuminance(0, 0, 0, 1));
+
+        assertFalse(history.canRedo());
+        assertEquals(2, history.getUndoCount());
+
+        assertEquals(0, history.edit(editor -> editor.setCustomLuminance(0, 0, 0, 1))); // No change, not recorded
+        assertEquals(2, history.getUndoCount());
+
+        assertTrue(history.undo());
+        assertTrue(history.undo());
+        assertFalse(history.undo());
+
+        assertEquals(0, file.getCustomLuminance(new IntPosition(0, 0, 0)));
+        assertEquals(3, file.getCustomLuminance(new IntPosition(10, 20, 5)));
+    }
+
+    @Test
+    public void testBudget(@TempDir File tempDir) {
+        NLSFile file = NLSFile.newFile(new File(tempDir, "r.0.0.nls"), 0, 0);
+        LightEditHistory history = new LightEditHistory(file, 3 * 16 * 11);
+
+        for (int i = 1; i <= 5; ++i) {
+            final int value = i;
+            history.edit(editor -> fill(editor, 0, value));
+        }
+
+        assertEquals(3, history.getUndoCount());
+        assertEquals(3 * 16 * 11, history.getUsedBytes());
+
+        while (history.undo()) ;
+
+        assertEquals(2, file.getCustomLuminance(new IntPosition(0, 0, 0))); // Edits 1 and 2 were forgotten
+    }
+
+    @Test
+    public void testFailedUndoIsKept(@TempDir File tempDir) {
+        NLSFile file = NLSFile.newFile(new File(tempDir, "r.0.0.nls"), 0, 0);
+        boolean[] fail = new boolean[1];
+
+        LightEditHistory history = new LightEditHistory(action -> {
+            if (fail[0]) {
+                throw new IllegalStateException("Failed to edit");
+            }
+
+            file.edit(action);
+        }, 1024);
+
+        history.edit(editor -> editor.setCustomLuminance(0, 0, 0, 5));
+        long usedBytes = history.getUsedBytes();
+
+        fail[0] = true;
+
+        assertThrows(IllegalStateException.class, history::undo);
+        assertEquals(1, history.getUndoCount());
+        assertEquals(usedBytes, history.getUsedBytes());
+
+        fail[0] = false;
+
+        assertTrue(history.undo());
+        assertEquals(0, file.getCustomLuminance(new IntPosition(0, 0, 0)));
+
+        fail[0] = true;
+
+        assertThrows(IllegalStateException.class, history::redo);
+        assertEquals(1, history.getRedoCount());
+        assertEquals(usedBytes, history.getUsedBytes());
+    }
+
+    @Test
+    public void testStoreHistory(@TempDir File tempDir) throws IOException {
+        WorldLightStore store = new WorldLightStore(tempDir, 64);
+        store.openJournal();
+
+        LightEditHistory history = store.createEditHistory(0, 0, 1024 * 1024);
+
+        history.edit(editor -> fill(editor, 20, 7));
+
+        assertEquals(16, store.getHeldSections()); // One section in each of 16 chunks
+
+        assertTrue(history.undo());
+        assertEquals(0, store.getHeldSections());
+
+        assertTrue(history.redo());
+        store.getJournal().sync();
+
+        // Crash: the store is never saved
+
+        WorldLightStore recovered = new WorldLightStore(tempDir, 64);
+
+        assertEquals(256 * 16 * 3, recovered.openJournal()); // Edit, undo and redo
+        assertEquals(7, recovered.getCustomLuminance(new IntPosition(255, 20, 15)));
+    }
+}
@@ -0,0 +1,135 @@
+package me.shawlaf.varlight.test.persistence.nls;
+
+import me.shawlaf.varlight.persistence.nls.NLSUtil;
+import me.shawlaf.varlight.persistence.nls.io.NLSChannelReader;
+import me.shawlaf.varlight.persistence.nls.io.NLSChannelWriter;
+import me.shawlaf.varlight.persistence.nls.io.NLSInputStream;
+import me.shawlaf.varlight.persistence.nls.io.NLSOutputStream;
+import me.shawlaf.varlight.util.FileUtil;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class NLSChannelCodecTest {
+
+    private static final int SECTION_BYTES = 2048;
+    private static final int CHUNKS = 256;
+    private static final int MASK = 0b0000_0000_0000_1111;
+
+    private byte[][] buildSections(int amount) {
+        Random random = new Random(1337);
+        byte[][] sections = new byte[amount][SECTION_BYTES];
+
+        for (byte[] section : sections) {
+            random.nextBytes(section);
+        }
+
+        return sections;
+    }
+
+    private void writeWithStreams(File file, boolean deflate, byte[][] sections) throws IOException {
+        FileOutputStream fos = new FileOutputStream(file);
+
+        try (NLSOutputStream out = new NLSOutputStream(deflate ? new GZIPOutputStream(fos) : fos)) {
+            out.writeHeader(0, 0);
+
+            for (int i = 0, s = 0; i < CHUNKS; ++i) {
+                out.writeInt16(i);
+                out.writeInt16(MASK);
+
+                for (int y = 0; y < Integer.bitCount(MASK); ++y) {
+                    out.write(sections[s++]);
+                }
+            }
+        }
+    }
+
+    private void writeWithChannel(File file, boolean deflate, byte[][] sections) throws IOException {
+        try (NLSChannelWriter out = NLSChannelWriter.open(file, deflate)) {
+            out.writeHeader(0, 0);
+
+            for (int i = 0, s = 0; i < CHUNKS; ++i) {
+                out.writeInt16(i);
+                out.writeInt16(MASK);
+
+                for (int y = 0; y < Integer.bitCount(MASK); ++y) {
+                    out.write(sections[s++]);
+                }
+            }
+        }
+    }
+
+    private byte[][] readWithStreams(File file) throws IOException {
+        byte[][] sections = new byte[CHUNKS * Integer.bitCount(MASK)][];
+
+        try (NLSInputStream in = new NLSInputStream(FileUtil.openStreamInflate(file))) {
+            in.verifyNLSMagic();
+
+            assertEquals(NLSUtil.CURRENT_VERSION, in.readInt32());
+            assertEquals(0, in.readInt32());
+            assertEquals(0, in.readInt32());
+
+            for (int i = 0, s = 0; i < CHUNKS; ++i) {
+                assertEquals(i, in.readInt16());
+                assertEquals(MASK, in.readInt16());
+
+                for (int y = 0; y < Integer.bitCount(MASK); ++y) {
+                    sections[s++] = in.readNibbleArray(SECTION_BYTES * 2).toByteArray();
+                }
+            }
+        }
+
+        return sections;
+    }
+
+    private byte[][] readWithChannel(File file) throws IOException {
+        byte[][] sections = new byte[CHUNKS * Integer.bitCount(MASK)][];
+
+        try (NLSChannelReader in = NLSChannelReader.open(file)) {
+            in.verifyNLSMagic();
+
+            assertEquals(NLSUtil.CURRENT_VERSION, in.readInt32());
+            assertEquals(0, in.readInt32());
+            assertEquals(0, in.readInt32());
+
+            for (int i = 0, s = 0; i < CHUNKS; ++i) {
+                assertEquals(i, in.readInt16());
+                assertEquals(MASK, in.readInt16());
+
+                for (int y = 0; y < Integer.bitCount(MASK); ++y) {
+                    in.readFully(sections[s++] = new byte[SECTION_BYTES]);
+                }
+            }
+
+            assertThrows(EOFException.class, in::readInt16);
+        }
+
+        return sections;
+    }
+
+    @Test
+    public void testCompatibility(@TempDir File tempDir) throws IOException {
+        byte[][] sections = buildSections(CHUNKS * Integer.bitCount(MASK));
+
+        for (boolean deflate : new boolean[]{true, false}) {
+            File streamFile = new File(tempDir, "stream-" + deflate + ".nls");
+            File channelFile = new File(tempDir, "channel-" + deflate + ".nls");
+
+            writeWithStreams(streamFile, deflate, sections);
+            writeWithChannel(channelFile, deflate, sections);
+
+            assertArrayEquals(FileUtil.readFileFullyInflate(streamFile), FileUtil.readFileFullyInflate(channelFile));
+
+            assertArrayEquals(sections, readWithChannel(streamFile));
+            assertArrayEquals(sections, readWithStreams(channelFile));
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package me.shawlaf.varlight.test.persistence.nls;
 
 import me.shawlaf.varlight.persistence.nls.NLSFile;
+import me.shawlaf.varlight.persistence.nls.NibbleOrder;
 import me.shawlaf.varlight.util.ChunkCoords;
 import me.shawlaf.varlight.util.IntPosition;
 import org.junit.jupiter.api.Test;
@@ -328,4 +329,71 @@ public class NLSFileTest {
         assertThrows(IllegalArgumentException.class, () -> NLSFile.existingFile(file, true));
     }
 
+    @Test
+    public void testNativeSectionExport(@TempDir File tempDir) throws IOException {
+        File file = new File(tempDir, "r.0.0.nls");
+        NLSFile nlsFile = NLSFile.newFile(file, 0, 0, true, NibbleOrder.NATIVE);
+
+        nlsFile.setCustomLuminance(new IntPosition(16, 1, 0), 5); // Index 256 of section 0 of chunk 1, 0
+        nlsFile.setCustomLuminance(new IntPosition(17, 1, 0), 9);
+
+        byte[] section = new byte[2048];
+
+        assertTrue(nlsFile.exportSection(1, 0, 0, section, 0, NibbleOrder.NATIVE));
+        assertEquals((byte) 0x95, section[128]);
+
+        assertTrue(nlsFile.exportSection(1, 0, 0, section, 0, NibbleOrder.VARLIGHT));
+        assertEquals((byte) 0x59, section[128]);
+
+        assertFalse(nlsFile.exportSection(1, 1, 0, section, 0, NibbleOrder.NATIVE));
+
+        nlsFile.save();
+
+        // The file on disk uses the VarLight order regardless
+
+        NLSFile reloaded = NLSFile.existingFile(file);
+
+        assertEquals(5, reloaded.getCustomLuminance(new IntPosition(16, 1, 0)));
+        assertEquals(9, reloaded.getCustomLuminance(new IntPosition(17, 1, 0)));
+
+        byte[] imported = new byte[2048];
+        imported[0] = 0x0C; // Index 0 in the native order
+
+        reloaded.importSection(2, 3, 4, imported, 0, NibbleOrder.NATIVE);
+
+        assertEquals(12, reloaded.getCustomLuminance(new IntPosition(32, 48, 64)));
+        assertEquals(1 << 3, reloaded.getMask(2, 4));
+
+        reloaded.importSection(2, 3, 4, new byte[2048], 0, NibbleOrder.NATIVE);
+
+        assertFalse(reloaded.hasChunkData(new ChunkCoords(2, 4)));
+    }
+
+    @Test
+    public void testUnloadedFileRejectsChanges(@TempDir File tempDir) throws IOException {
+        File file = new File(tempDir, String.format(NLSFile.FILE_NAME_FORMAT, 0, 0));
+        NLSFile nlsFile = NLSFile.newFile(file, 0, 0);
+
+        nlsFile.setCustomLuminance(new IntPosition(1, 1, 1), 7);
+
+        assertTrue(nlsFile.saveAndUnload());
+        assertTrue(nlsFile.isUnloaded());
+
+        assertThrows(IllegalStateException.class, () -> nlsFile.setCustomLuminance(new IntPosition(2, 2, 2), 3));
+        assertThrows(IllegalStateException.class, () -> nlsFile.edit(editor -> editor.setCustomLuminance(2, 2, 2, 3)));
+        assertThrows(IllegalStateException.class, () -> nlsFile.clearChunk(ChunkCoords.ORIGIN));
+        assertThrows(IllegalStateException.class, () -> nlsFile.importSection(0, 0, 0, new byte[2048], 0, NibbleOrder.VARLIGHT));
+        assertFalse(nlsFile.save()); // Nothing to write, the file was saved before it was unloaded
+
+        assertEquals(7, NLSFile.existingFile(file).getCustomLuminance(new IntPosition(1, 1, 1)));
+
+        NLSFile dirty = NLSFile.newFile(new File(tempDir, String.format(NLSFile.FILE_NAME_FORMAT, 1, 0)), 1, 0);
+
+        dirty.setCustomLuminance(new IntPosition(512, 1, 1), 7);
+        dirty.unload();
+
+        assertThrows(IllegalStateException.class, dirty::save);
+        assertFalse(dirty.file.exists());
+    }
+
 }
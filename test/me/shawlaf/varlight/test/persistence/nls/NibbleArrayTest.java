@@ -1,6 +1,7 @@
 package me.shawlaf.varlight.test.persistence.nls;
 
 import me.shawlaf.varlight.persistence.nls.NibbleArray;
+import me.shawlaf.varlight.persistence.nls.NibbleOrder;
 import org.junit.jupiter.api.Test;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -73,4 +74,32 @@ public class NibbleArrayTest {
         assertEquals(3, nibbleArray.get(1));
     }
 
+    @Test
+    public void testNativeOrder() {
+        NibbleArray nibbleArray = new NibbleArray(18, NibbleOrder.NATIVE);
+
+        for (int i = 0; i < 18; i++) {
+            nibbleArray.set(i, i & 0xF);
+        }
+
+        for (int i = 0; i < 18; i++) {
+            assertEquals(i & 0xF, nibbleArray.get(i));
+        }
+
+        byte[] nativeBytes = new byte[]{0x10, 0x32, 0x54, 0x76, (byte) 0x98, (byte) 0xBA, (byte) 0xDC, (byte) 0xFE, 0x10};
+        byte[] varLightBytes = new byte[]{0x01, 0x23, 0x45, 0x67, (byte) 0x89, (byte) 0xAB, (byte) 0xCD, (byte) 0xEF, 0x01};
+
+        assertArrayEquals(nativeBytes, nibbleArray.toByteArray());
+        assertArrayEquals(varLightBytes, nibbleArray.toByteArray(NibbleOrder.VARLIGHT)); // Word-wide swap plus a trailing byte
+
+        NibbleArray converted = nibbleArray.withOrder(NibbleOrder.VARLIGHT);
+
+        assertSame(nibbleArray, nibbleArray.withOrder(NibbleOrder.NATIVE));
+        assertArrayEquals(varLightBytes, converted.toByteArray());
+
+        for (int i = 0; i < 18; i++) {
+            assertEquals(i & 0xF, converted.get(i));
+        }
+    }
+
 }
@@ -1,6 +1,7 @@
 package me.shawlaf.varlight.test.persistence.vldb;
 
 import me.shawlaf.varlight.persistence.BasicCustomLightSource;
+import me.shawlaf.varlight.persistence.vldb.MaterialDictionary;
 import me.shawlaf.varlight.persistence.vldb.VLDBFile;
 import me.shawlaf.varlight.persistence.vldb.VLDBInputStream;
 import me.shawlaf.varlight.persistence.vldb.VLDBOutputStream;
@@ -510,4 +511,203 @@ public class TestVLDB {
 
 
     }
+
+    @Test
+    public void testDecodedChunkCache(@TempDir File tempDir) throws IOException {
+        VLDBFile<BasicCustomLightSource> file = new VLDBFile<BasicCustomLightSource>(new File(tempDir, "r.0.0.vldb2"), 0, 0, true) {
+            @NotNull
+            @Override
+            protected BasicCustomLightSource[] createArray(int size) {
+                return new BasicCustomLightSource[size];
+            }
+
+            @NotNull
+            @Override
+            protected BasicCustomLightSource createInstance(IntPosition position, int lightLevel, boolean migrated, String material) {
+                return new BasicCustomLightSource(position, lightLevel, migrated, material);
+            }
+        };
+
+        file.setDecodedCacheSize(2);
+
+        for (int cx = 0; cx < 3; ++cx) {
+            file.putChunk(new BasicCustomLightSource[]{new BasicCustomLightSource(new IntPosition(cx * 16, 0, 0), 15, true, "STONE")});
+        }
+
+        BasicCustomLightSource[] first = file.readChunk(0, 0);
+
+        first[0] = null; // Modifying a returned array must not affect the cache
+
+        assertEquals(new IntPosition(0, 0, 0), file.readChunk(0, 0)[0].getPosition());
+        assertEquals(1, file.getCacheHits());
+
+        file.readChunk(1, 0);
+        file.readChunk(2, 0); // Evicts 0, 0
+
+        assertEquals(2, file.getCachedChunkCount());
+
+        file.readChunk(0, 0);
+        assertEquals(4, file.getCacheMisses());
+
+        file.putChunk(new BasicCustomLightSource[]{new BasicCustomLightSource(new IntPosition(0, 0, 0), 7, true, "DIRT")});
+
+        assertEquals(7, file.readChunk(0, 0)[0].getCustomLuminance());
+        assertEquals(5, file.getCacheMisses());
+
+        file.removeChunk(new ChunkCoords(0, 0));
+
+        assertEquals(0, file.readChunk(0, 0).length);
+        assertEquals(1 / 6.0, file.getCacheHitRate(), 1e-9);
+    }
+
+    @Test
+    public void testReopenSlicedChunks(@TempDir File tempDir) throws IOException {
+        File target = new File(tempDir, "r.0.0.vldb2");
+
+        BasicCustomLightSource[] region = new BasicCustomLightSource[]{
+                new BasicCustomLightSource(new IntPosition(0, 0, 0), 15, true, "STONE"),
+                new BasicCustomLightSource(new IntPosition(17, 3, 40), 4, false, "DIRT"),
+                new BasicCustomLightSource(new IntPosition(500, 255, 511), 9, true, "GLOWSTONE")
+        };
+
+        try (VLDBOutputStream out = new VLDBOutputStream(new GZIPOutputStream(new FileOutputStream(target)))) {
+            out.write(region);
+        }
+
+        VLDBFile<BasicCustomLightSource> file = openBasic(target);
+
+        assertEquals(3, file.getChunksWithData().size());
+        assertEquals(region[1], file.readChunk(1, 2)[0]);
+        assertEquals(region[2], file.readChunk(31, 31)[0]);
+
+        // Replaced chunks are saved next to chunks still sliced from the loaded file
+
+        file.putChunk(new BasicCustomLightSource[]{new BasicCustomLightSource(new IntPosition(20, 1, 40), 6, true, "SAND")});
+        file.save();
+
+        VLDBFile<BasicCustomLightSource> reopened = openBasic(target);
+
+        assertEquals(region[0], reopened.readChunk(0, 0)[0]);
+        assertEquals(6, reopened.readChunk(1, 2)[0].getCustomLuminance());
+        assertEquals(region[2], reopened.readChunk(31, 31)[0]);
+    }
+
+    @Test
+    public void testWriteInterleavedChunks() throws IOException {
+        BasicCustomLightSource[] region = new BasicCustomLightSource[]{
+                new BasicCustomLightSource(new IntPosition(40, 1, 3), 1, true, "STONE"),
+                new BasicCustomLightSource(new IntPosition(0, 2, 0), 2, false, "DIRT"),
+                new BasicCustomLightSource(new IntPosition(41, 3, 4), 3, true, "SAND"),
+                new BasicCustomLightSource(new IntPosition(511, 4, 511), 4, true, "GLOWSTONE"),
+                new BasicCustomLightSource(new IntPosition(1, 5, 1), 5, false, "STONE")
+        };
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+
+        try (VLDBOutputStream out = new VLDBOutputStream(baos)) {
+            out.write(region);
+        }
+
+        byte[] buffer = baos.toByteArray();
+
+        try (VLDBInputStream in = new VLDBInputStream(new ByteArrayInputStream(buffer))) {
+            assertTrue(in.readVLDBMagic());
+
+            Map<ChunkCoords, Integer> header = in.readHeader(in.readInt32(), in.readInt32());
+
+            assertEquals(3, header.size());
+
+            int headerSize = 4 + 4 + 4 + 2 + 3 * (2 + 4);
+
+            assertEquals(headerSize, header.get(new ChunkCoords(0, 0)));
+            assertEquals(headerSize + (2 + 3) + 2 * (2 + 1 + 2) + 4 + 5, header.get(new ChunkCoords(2, 0)));
+            assertEquals(buffer.length - ((2 + 3) + (2 + 1 + 2) + 9), header.get(new ChunkCoords(31, 31)));
+        }
+
+        try (VLDBInputStream in = new VLDBInputStream(new ByteArrayInputStream(buffer))) {
+            assertTrue(in.readVLDBMagic());
+
+            List<BasicCustomLightSource> read = in.readAll(BasicCustomLightSource[]::new, BasicCustomLightSource::new);
+
+            assertEquals(region.length, read.size());
+            assertTrue(read.containsAll(Arrays.asList(region)));
+        }
+    }
+
+    private static VLDBFile<BasicCustomLightSource> openBasic(File file) throws IOException {
+        return new VLDBFile<BasicCustomLightSource>(file, true) {
+            @NotNull
+            @Override
+            protected BasicCustomLightSource[] createArray(int size) {
+                return new BasicCustomLightSource[size];
+            }
+
+            @NotNull
+            @Override
+            protected BasicCustomLightSource createInstance(IntPosition position, int lightLevel, boolean migrated, String material) {
+                return new BasicCustomLightSource(position, lightLevel, migrated, material);
+            }
+        };
+    }
+
+    @Test
+    public void testCompactFormat() throws IOException {
+        BasicCustomLightSource[] region = new BasicCustomLightSource[500];
+
+        for (int i = 0; i < region.length; ++i) {
+            region[i] = new BasicCustomLightSource(new IntPosition(i % 64, i / 64, i % 7), 1 + i % 15, i % 2 == 0, i % 3 == 0 ? "minecraft:glowstone" : "minecraft:sea_lantern");
+        }
+
+        ByteArrayOutputStream plain = new ByteArrayOutputStream();
+        ByteArrayOutputStream compact = new ByteArrayOutputStream();
+
+        try (VLDBOutputStream out = new VLDBOutputStream(plain)) {
+            out.write(region);
+        }
+
+        try (VLDBOutputStream out = new VLDBOutputStream(compact)) {
+            out.writeCompact(region);
+        }
+
+        assertTrue(compact.size() * 4 < plain.size());
+
+        for (ByteArrayOutputStream data : Arrays.asList(plain, compact)) {
+            List<BasicCustomLightSource> read;
+
+            try (VLDBInputStream in = new VLDBInputStream(new ByteArrayInputStream(data.toByteArray()))) {
+                read = in.readAllAnyFormat(BasicCustomLightSource[]::new, BasicCustomLightSource::new);
+            }
+
+            assertEquals(region.length, read.size());
+
+            read.sort(Comparator.comparingLong(lightSource -> lightSource.getPosition().encode()));
+            BasicCustomLightSource[] expected = region.clone();
+            Arrays.sort(expected, Comparator.comparingLong(lightSource -> lightSource.getPosition().encode()));
+
+            assertArrayEquals(expected, read.toArray(new BasicCustomLightSource[0]));
+
+            for (BasicCustomLightSource lightSource : read) {
+                assertSame(MaterialDictionary.SHARED.intern(lightSource.getType()), lightSource.getType());
+            }
+        }
+    }
+
+    @Test
+    public void testMaterialDictionary() {
+        MaterialDictionary dictionary = new MaterialDictionary();
+
+        byte[] data = "xxminecraft:stonexx".getBytes();
+
+        String stone = dictionary.intern(data, 2, 15);
+
+        assertEquals("minecraft:stone", stone);
+        assertSame(stone, dictionary.intern(new String("minecraft:stone")));
+
+        for (int i = 0; i < 1000; ++i) {
+            dictionary.intern("material_" + i);
+        }
+
+        assertEquals(1001, dictionary.size());
+        assertSame(stone, dictionary.intern("minecraft:stone"));
+    }
 }
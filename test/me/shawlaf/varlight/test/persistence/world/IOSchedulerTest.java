@@ -0,0 +1,66 @@
+package me.shawlaf.varlight.test.persistence.world;
+
+import me.shawlaf.varlight.persistence.world.IOScheduler;
+import me.shawlaf.varlight.persistence.world.WorldLightStore;
+import me.shawlaf.varlight.util.IntPosition;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class IOSchedulerTest {
+
+    @Test
+    public void testSlowLaneDoesNotStallOthers(@TempDir File tempDir) throws Exception {
+        IOScheduler scheduler = new IOScheduler(1, 4);
+
+        File slowDisk = new File(tempDir, "slow");
+        File fastDisk = new File(tempDir, "fast");
+
+        IOScheduler.Lane slow = scheduler.lane(slowDisk);
+
+        assertSame(slow, scheduler.lane(new File(slowDisk, "../slow")));
+        assertNotSame(slow, scheduler.lane(fastDisk));
+        assertEquals(2, scheduler.getLanes().size());
+
+        CountDownLatch release = new CountDownLatch(1);
+
+        for (int i = 0; i < 3; ++i) {
+            slow.execute(() -> {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+        }
+
+        assertEquals(2, slow.getQueueDepth()); // One running, two waiting
+
+        WorldLightStore store = new WorldLightStore(fastDisk, 1024, scheduler);
+
+        store.setCustomLuminance(new IntPosition(0, 0, 0), 5);
+        store.setCustomLuminance(new IntPosition(600, 0, 0), 6);
+
+        assertEquals(2, (int) store.saveAsync().get(5, TimeUnit.SECONDS));
+        assertEquals(0, (int) store.saveAsync().get(5, TimeUnit.SECONDS));
+        assertEquals(0, slow.getCompletedTasks());
+
+        release.countDown();
+        scheduler.shutdown();
+
+        IOScheduler.Lane fast = scheduler.getLanes().get(0) == slow ? scheduler.getLanes().get(1) : scheduler.getLanes().get(0);
+
+        assertTrue(slow.awaitTermination(5, TimeUnit.SECONDS));
+        assertTrue(fast.awaitTermination(5, TimeUnit.SECONDS));
+        assertEquals(4, fast.getCompletedTasks()); // Two loads and two saves
+        assertEquals(3, slow.getCompletedTasks());
+        assertTrue(slow.getMaxLatencyMillis() >= slow.getAverageLatencyMillis());
+
+        assertEquals(6, new WorldLightStore(fastDisk, 1024).getCustomLuminance(new IntPosition(600, 0, 0)));
+    }
+}
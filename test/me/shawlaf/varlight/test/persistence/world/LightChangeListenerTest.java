@@ -0,0 +1,91 @@
+package me.shawlaf.varlight.test.persistence.world;
+
+import me.shawlaf.varlight.persistence.nls.LightChangeBatch;
+import me.shawlaf.varlight.persistence.nls.LightChangeListener;
+import me.shawlaf.varlight.persistence.nls.NLSFile;
+import me.shawlaf.varlight.persistence.world.WorldLightStore;
+import me.shawlaf.varlight.util.ChunkCoords;
+import me.shawlaf.varlight.util.IntPosition;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LightChangeListenerTest {
+
+    @Test
+    public void testFileCoalescesChanges(@TempDir File tempDir) {
+        NLSFile file = NLSFile.newFile(new File(tempDir, "r.0.0.nls"), 0, 0);
+        List<LightChangeBatch> batches = new ArrayList<>();
+
+        file.setCustomLuminance(new IntPosition(1, 1, 1), 4); // Not recorded, no listener yet
+        file.addChangeListener(batches::add);
+
+        file.setCustomLuminance(new IntPosition(1, 1, 1), 5);
+        file.setCustomLuminance(new IntPosition(1, 1, 1), 9);
+        file.setCustomLuminance(new IntPosition(0, 200, 3), 2);
+        file.setCustomLuminance(new IntPosition(40, 2, 40), 7);
+        file.setCustomLuminance(new IntPosition(40, 2, 40), 0); // Changed back, dropped
+
+        assertEquals(2, file.flushChanges());
+        assertEquals(0, file.flushChanges());
+        assertEquals(1, batches.size());
+
+        LightChangeBatch batch = batches.get(0);
+
+        assertEquals(new IntPosition(1, 1, 1), batch.getPosition(0));
+        assertEquals(4, batch.getOldLightLevel(0));
+        assertEquals(9, batch.getNewLightLevel(0));
+
+        assertEquals(new IntPosition(0, 200, 3), batch.getPosition(1));
+        assertEquals(0, batch.getOldLightLevel(1));
+        assertEquals(2, batch.getNewLightLevel(1));
+
+        file.clearChunk(new ChunkCoords(0, 0));
+
+        assertEquals(2, file.flushChanges());
+        assertEquals(0, batches.get(1).getNewLightLevel(0));
+        assertEquals(0, batches.get(1).getNewLightLevel(1));
+    }
+
+    @Test
+    public void testStoreDeliversOneBatch(@TempDir File tempDir) throws IOException {
+        WorldLightStore store = new WorldLightStore(tempDir, 0); // Every Region but the most recent one is unloaded immediately
+        List<LightChangeBatch> batches = new ArrayList<>();
+        LightChangeListener listener = batches::add;
+
+        store.setCustomLuminance(new IntPosition(0, 0, 0), 1);
+        store.addChangeListener(listener);
+
+        store.setCustomLuminance(new IntPosition(0, 0, 0), 2);
+        store.setCustomLuminance(new IntPosition(-600, 10, 0), 3);
+        store.setCustomLuminance(new IntPosition(600, 10, 0), 4);
+
+        assertEquals(3, store.flushChanges());
+        assertEquals(1, batches.size());
+
+        LightChangeBatch batch = batches.get(0);
+        List<IntPosition> positions = new ArrayList<>();
+
+        for (int i = 0; i < batch.size(); ++i) {
+            positions.add(batch.getPosition(i));
+        }
+
+        assertTrue(positions.contains(new IntPosition(0, 0, 0)));
+        assertTrue(positions.contains(new IntPosition(-600, 10, 0)));
+        assertTrue(positions.contains(new IntPosition(600, 10, 0)));
+
+        store.removeChangeListener(listener);
+        store.setCustomLuminance(new IntPosition(1, 1, 1), 5);
+
+        assertEquals(0, store.flushChanges());
+        assertEquals(1, batches.size());
+
+        store.getPendingEvictions().join();
+    }
+}
@@ -0,0 +1,203 @@
+package me.shawlaf.varlight.test.persistence.world;
+
+import me.shawlaf.varlight.persistence.nls.NLSFile;
+import me.shawlaf.varlight.persistence.nls.NibbleOrder;
+import me.shawlaf.varlight.persistence.world.LightJournal;
+import me.shawlaf.varlight.persistence.world.WorldLightStore;
+import me.shawlaf.varlight.util.ChunkCoords;
+import me.shawlaf.varlight.util.IntPosition;
+import me.shawlaf.varlight.util.RegionCoords;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LightJournalTest {
+
+    @Test
+    public void testReplayAfterCrash(@TempDir File tempDir) throws IOException {
+        File journalFile = new File(tempDir, "test.journal");
+
+        LightJournal journal = new LightJournal(journalFile, 4, Long.MAX_VALUE);
+
+        for (int i = 0; i < 10; ++i) {
+            journal.append(new IntPosition(-i, i, i * 1000), i % 16);
+        }
+
+        assertEquals(2, journal.getSyncs()); // Two full batches, two records pending
+
+        // No sync or close: simulate a crash losing the pending records, plus a torn write
+
+        try (RandomAccessFile raf = new RandomAccessFile(journalFile, "rw")) {
+            raf.seek(raf.length());
+            raf.write(new byte[]{1, 2, 3});
+        }
+
+        List<IntPosition> replayed = new ArrayList<>();
+
+        try (LightJournal reopened = new LightJournal(journalFile)) {
+            assertEquals(8, reopened.replay((x, y, z, lightLevel) -> {
+                assertEquals(y % 16, lightLevel);
+                replayed.add(new IntPosition(x, y, z));
+            }));
+        }
+
+        for (int i = 0; i < 8; ++i) {
+            assertEquals(new IntPosition(-i, i, i * 1000), replayed.get(i));
+        }
+    }
+
+    @Test
+    public void testCompact(@TempDir File tempDir) throws IOException {
+        try (LightJournal journal = new LightJournal(new File(tempDir, "test.journal"))) {
+            for (int i = 0; i < 100; ++i) {
+                journal.append(new IntPosition(1, 1, 1), i % 16);
+                journal.append(new IntPosition(1000, 1, 1), 15);
+            }
+
+            long keep = RegionCoords.encode(0, 0);
+
+            assertEquals(1, journal.compact(region -> region == keep));
+
+            assertEquals(1, journal.replay((x, y, z, lightLevel) -> {
+                assertEquals(new IntPosition(1, 1, 1), new IntPosition(x, y, z));
+                assertEquals(99 % 16, lightLevel);
+            }));
+        }
+    }
+
+    @Test
+    public void testStoreRecoversUnsavedChanges(@TempDir File tempDir) throws IOException {
+        WorldLightStore store = new WorldLightStore(tempDir, 64);
+        store.openJournal();
+
+        store.setCustomLuminance(new IntPosition(5, 5, 5), 10);
+        store.save();
+
+        assertEquals(8, store.getJournal().getSize()); // Only the header is left after saving
+
+        store.setCustomLuminance(new IntPosition(5, 5, 5), 11);
+        store.setCustomLuminance(new IntPosition(700, 5, 5), 12);
+        store.setCustomLuminance(new IntPosition(700, 5, 5), 12); // No change, not recorded
+        store.getJournal().sync();
+
+        // Crash: the store is never saved
+
+        WorldLightStore recovered = new WorldLightStore(tempDir, 64);
+
+        assertEquals(2, recovered.openJournal());
+        assertEquals(11, recovered.getCustomLuminance(new IntPosition(5, 5, 5)));
+        assertEquals(12, recovered.getCustomLuminance(new IntPosition(700, 5, 5)));
+
+        recovered.saveAndUnloadAll();
+        recovered.closeJournal();
+
+        assertEquals(0, new WorldLightStore(tempDir, 64).openJournal());
+    }
+
+    @Test
+    public void testTruncateKeepsLaterRecords(@TempDir File tempDir) throws IOException {
+        try (LightJournal journal = new LightJournal(new File(tempDir, "test.journal"))) {
+            journal.append(new IntPosition(1, 1, 1), 1);
+            journal.append(new IntPosition(2, 2, 2), 2);
+
+            long end = journal.getSize();
+
+            journal.append(new IntPosition(1, 1, 1), 3); // Made while saving
+
+            journal.truncate(end);
+
+            assertEquals(1, journal.replay((x, y, z, lightLevel) -> {
+                assertEquals(new IntPosition(1, 1, 1), new IntPosition(x, y, z));
+                assertEquals(3, lightLevel);
+            }));
+
+            journal.truncate(journal.getSize());
+
+            assertEquals(0, journal.replay((x, y, z, lightLevel) -> fail()));
+        }
+    }
+
+    @Test
+    public void testSyncIfDue(@TempDir File tempDir) throws IOException, InterruptedException {
+        try (LightJournal journal = new LightJournal(new File(tempDir, "test.journal"), 512, 10)) {
+            assertFalse(journal.syncIfDue()); // Nothing pending
+
+            Thread.sleep(20);
+
+            journal.append(new IntPosition(1, 1, 1), 1); // Synced, the interval has passed
+            journal.append(new IntPosition(1, 1, 1), 2);
+
+            assertEquals(1, journal.getSyncs());
+
+            Thread.sleep(20);
+
+            assertTrue(journal.syncIfDue());
+            assertEquals(2, journal.getSyncs());
+        }
+    }
+
+    @Test
+    public void testInvalidValuesAreNotRecorded(@TempDir File tempDir) throws IOException {
+        WorldLightStore store = new WorldLightStore(tempDir, 64);
+        store.openJournal();
+
+        store.setCustomLuminance(new IntPosition(5, 5, 5), 10);
+
+        assertThrows(IllegalArgumentException.class, () -> store.setCustomLuminance(new IntPosition(5, 5, 5), 16));
+        assertThrows(IllegalArgumentException.class, () -> store.setCustomLuminance(new IntPosition(6, 5, 5), 16));
+
+        store.getJournal().sync();
+
+        WorldLightStore recovered = new WorldLightStore(tempDir, 64);
+
+        assertEquals(1, recovered.openJournal());
+        assertEquals(10, recovered.getCustomLuminance(new IntPosition(5, 5, 5)));
+    }
+
+    @Test
+    public void testRecordsDirectChanges(@TempDir File tempDir) throws IOException {
+        WorldLightStore store = new WorldLightStore(tempDir, 64);
+        store.openJournal();
+
+        NLSFile file = store.getRegion(0, 0);
+
+        file.edit(editor -> editor.setCustomLuminance(1, 1, 1, 7));
+
+        byte[] section = new byte[2048];
+        section[0] = (byte) 0xF0; // Light level 15 at the first block of the section
+
+        file.importSection(1, 0, 0, section, 0, NibbleOrder.VARLIGHT);
+        file.setCustomLuminance(new IntPosition(40, 2, 2), 9);
+        file.clearChunk(new ChunkCoords(2, 0));
+
+        store.getJournal().sync();
+
+        // Crash: the store is never saved
+
+        WorldLightStore recovered = new WorldLightStore(tempDir, 64);
+
+        assertEquals(4, recovered.openJournal());
+        assertEquals(7, recovered.getCustomLuminance(new IntPosition(1, 1, 1)));
+        assertEquals(15, recovered.getCustomLuminance(new IntPosition(16, 0, 0)));
+        assertEquals(0, recovered.getCustomLuminance(new IntPosition(40, 2, 2)));
+    }
+
+    @Test
+    public void testSaveAsyncTruncates(@TempDir File tempDir) throws IOException {
+        WorldLightStore store = new WorldLightStore(tempDir, 64);
+        store.openJournal();
+
+        store.setCustomLuminance(new IntPosition(5, 5, 5), 10);
+        store.setCustomLuminance(new IntPosition(700, 5, 5), 12);
+
+        assertEquals(2, store.saveAsync().join());
+        assertEquals(8, store.getJournal().getSize());
+    }
+}
@@ -0,0 +1,94 @@
+package me.shawlaf.varlight.test.persistence.world;
+
+import me.shawlaf.varlight.persistence.nls.NLSFile;
+import me.shawlaf.varlight.persistence.world.RegionLoader;
+import me.shawlaf.varlight.persistence.world.WorldLightStore;
+import me.shawlaf.varlight.util.IntPosition;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RegionLoaderTest {
+
+    @Test
+    public void testConcurrentLoadsAreShared(@TempDir File tempDir) throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        CountDownLatch gate = new CountDownLatch(1);
+
+        executor.execute(() -> {
+            try {
+                gate.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+
+        RegionLoader loader = new RegionLoader(tempDir, true, executor, RegionLoader.DEFAULT_FAILURE_TTL_MILLIS);
+        WorldLightStore store = new WorldLightStore(loader, 64);
+
+        CompletableFuture<NLSFile> first = store.getRegionAsync(0, 0);
+        CompletableFuture<NLSFile> second = store.getRegionAsync(0, 0);
+        CompletableFuture<NLSFile> prefetched = store.prefetchRegion(0, 0);
+        CompletableFuture<NLSFile> other = store.getRegionAsync(1, 0);
+
+        // The store shares one installing future per Region, the loader shares loads requested directly
+
+        CompletableFuture<NLSFile> direct = loader.load(2, 0);
+
+        assertSame(direct, loader.load(2, 0));
+        assertEquals(3, loader.getInFlightCount());
+
+        gate.countDown();
+
+        assertSame(first.get(), second.get());
+        assertSame(first.get(), prefetched.get());
+        assertNotSame(first.get(), other.get());
+        assertNotNull(direct.get());
+
+        assertEquals(3, loader.getLoads());
+        assertEquals(1, loader.getSharedLoads());
+        assertEquals(0, loader.getInFlightCount());
+        assertEquals(2, store.getLoadedRegionCount());
+
+        assertSame(first.get(), store.getRegion(0, 0));
+
+        loader.shutdown();
+    }
+
+    @Test
+    public void testFailuresAreCached(@TempDir File tempDir) throws IOException {
+        RegionLoader loader = new RegionLoader(tempDir, true, 1, 60_000);
+        WorldLightStore store = new WorldLightStore(loader, 64);
+
+        try (FileOutputStream out = new FileOutputStream(loader.getRegionFile(0, 0))) {
+            out.write(new byte[]{1, 2, 3, 4, 5, 6, 7, 8});
+        }
+
+        assertThrows(CompletionException.class, () -> loader.load(0, 0).join());
+        assertThrows(IllegalStateException.class, () -> store.getRegion(0, 0));
+
+        assertEquals(1, loader.getLoads());
+        assertEquals(1, loader.getCachedFailures());
+
+        loader.clearFailures();
+
+        assertTrue(loader.getRegionFile(0, 0).delete());
+
+        store.setCustomLuminance(new IntPosition(0, 0, 0), 15);
+
+        assertEquals(2, loader.getLoads());
+        assertEquals(15, store.getCustomLuminance(new IntPosition(0, 0, 0)));
+
+        loader.shutdown();
+    }
+}
@@ -0,0 +1,85 @@
+package me.shawlaf.varlight.test.persistence.world;
+
+import me.shawlaf.varlight.persistence.world.RegionLoader;
+import me.shawlaf.varlight.persistence.world.RegionPrefetcher;
+import me.shawlaf.varlight.persistence.world.WorldLightStore;
+import me.shawlaf.varlight.util.IntPosition;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RegionPrefetcherTest {
+
+    private static void awaitIdle(RegionPrefetcher prefetcher) throws InterruptedException {
+        for (int i = 0; i < 500 && (prefetcher.getInFlightCount() > 0 || prefetcher.getQueuedCount() > 0); ++i) {
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    public void testPrefetchAhead(@TempDir File tempDir) throws Exception {
+        WorldLightStore store = new WorldLightStore(tempDir, 1024);
+        RegionPrefetcher prefetcher = new RegionPrefetcher(store, 64, 0, 2);
+
+        prefetcher.update("viewer", new IntPosition(8, 64, 8), new IntPosition(16, 0, 0)); // 1024 blocks ahead
+
+        awaitIdle(prefetcher);
+
+        assertEquals(3, prefetcher.getIssued());
+
+        assertTrue(store.isLoaded(0, 0));
+        assertTrue(store.isLoaded(1, 0));
+        assertTrue(store.isLoaded(2, 0));
+        assertFalse(store.isLoaded(-1, 0));
+        assertFalse(store.isLoaded(0, 1));
+
+        store.getRegion(1, 0);
+        store.getRegion(3, 0);
+
+        assertEquals(1, store.getPrefetchHits());
+        assertEquals(0.5, prefetcher.getHitRate());
+    }
+
+    @Test
+    public void testCancelIrrelevant(@TempDir File tempDir) throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        CountDownLatch gate = new CountDownLatch(1);
+
+        executor.execute(() -> {
+            try {
+                gate.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+
+        WorldLightStore store = new WorldLightStore(new RegionLoader(tempDir, true, executor, 0), 1024);
+        RegionPrefetcher prefetcher = new RegionPrefetcher(store, 64, 0, 1);
+
+        prefetcher.update("viewer", new IntPosition(8, 64, 8), new IntPosition(16, 0, 0));
+
+        assertEquals(1, prefetcher.getInFlightCount()); // The closest Region
+        assertEquals(2, prefetcher.getQueuedCount());
+
+        prefetcher.update("viewer", new IntPosition(8, 64, 8), new IntPosition(-16, 0, 0)); // Turned around
+
+        assertEquals(2, prefetcher.getCancelled());
+        assertEquals(2, prefetcher.getQueuedCount());
+
+        gate.countDown();
+        awaitIdle(prefetcher);
+
+        assertTrue(store.isLoaded(-2, 0));
+        assertFalse(store.isLoaded(1, 0));
+        assertFalse(store.isLoaded(2, 0));
+
+        prefetcher.remove("viewer");
+        executor.shutdown();
+    }
+}
@@ -0,0 +1,110 @@
+package me.shawlaf.varlight.test.persistence.world;
+
+import me.shawlaf.varlight.persistence.nls.NLSFile;
+import me.shawlaf.varlight.persistence.world.WorldArchive;
+import me.shawlaf.varlight.persistence.world.WorldLightStore;
+import me.shawlaf.varlight.util.IntPosition;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class WorldArchiveTest {
+
+    private static IntPosition inRegion(int regionX, int regionZ) {
+        return new IntPosition(regionX * 512 + 3, 64, regionZ * 512 + 5);
+    }
+
+    @Test
+    public void testExportAndRestoreAll(@TempDir File tempDir) throws IOException {
+        File world = new File(tempDir, "world");
+        File restored = new File(tempDir, "restored");
+        File archive = new File(tempDir, "world.vlar");
+
+        WorldLightStore store = new WorldLightStore(world, 1024);
+
+        for (int i = 0; i < 6; ++i) {
+            store.setCustomLuminance(inRegion(i - 3, 2 * i), i + 1);
+        }
+
+        store.saveAndUnloadAll();
+
+        assertEquals(6, WorldArchive.export(world, archive));
+
+        try (WorldArchive in = WorldArchive.open(archive)) {
+            assertEquals(6, in.getRegionCount());
+            assertTrue(in.contains(-3, 0));
+            assertFalse(in.contains(0, 0));
+
+            assertEquals(6, in.restoreAll(restored));
+        }
+
+        for (int i = 0; i < 6; ++i) {
+            File original = store.getRegionFile(i - 3, 2 * i);
+
+            assertArrayEquals(Files.readAllBytes(original.toPath()), Files.readAllBytes(new File(restored, original.getName()).toPath()));
+        }
+
+        WorldLightStore restoredStore = new WorldLightStore(restored, 1024);
+
+        assertEquals(4, restoredStore.getCustomLuminance(inRegion(0, 6)));
+    }
+
+    @Test
+    public void testRestoreSingleRegion(@TempDir File tempDir) throws IOException {
+        File world = new File(tempDir, "world");
+        File archive = new File(tempDir, "world.vlar");
+
+        WorldLightStore store = new WorldLightStore(world, 1024, false);
+
+        store.setCustomLuminance(inRegion(1, 1), 9);
+        store.setCustomLuminance(inRegion(2, 1), 10);
+        store.saveAndUnloadAll();
+
+        WorldArchive.export(world, archive);
+
+        File partial = new File(tempDir, "partial");
+
+        try (WorldArchive in = WorldArchive.open(archive)) {
+            NLSFile file = in.restoreRegion(2, 1, partial);
+
+            assertEquals(10, file.getCustomLuminance(inRegion(2, 1)));
+            assertFalse(new File(partial, String.format(NLSFile.FILE_NAME_FORMAT, 1, 1)).exists());
+
+            assertThrows(IllegalArgumentException.class, () -> in.restoreRegionFile(5, 5, partial));
+
+            // Restoring into the World directory drops the Region from the occupancy index of the store
+
+            assertTrue(store.getOccupancyIndex().isIndexed(2, 1));
+
+            in.restoreRegionFile(2, 1, world, store.getOccupancyIndex());
+
+            assertFalse(store.getOccupancyIndex().isIndexed(2, 1));
+            assertEquals(10, store.getCustomLuminance(inRegion(2, 1)));
+        }
+    }
+
+    @Test
+    public void testDamagedArchive(@TempDir File tempDir) throws IOException {
+        File world = new File(tempDir, "world");
+        File archive = new File(tempDir, "world.vlar");
+
+        WorldLightStore store = new WorldLightStore(world, 1024);
+
+        store.setCustomLuminance(inRegion(0, 0), 1);
+        store.saveAndUnloadAll();
+
+        WorldArchive.export(world, archive);
+
+        try (RandomAccessFile raf = new RandomAccessFile(archive, "rw")) {
+            raf.setLength(raf.length() - 1);
+        }
+
+        assertThrows(IllegalStateException.class, () -> WorldArchive.open(archive));
+    }
+}
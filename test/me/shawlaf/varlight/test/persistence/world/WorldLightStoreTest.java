@@ -0,0 +1,294 @@
+package me.shawlaf.varlight.test.persistence.world;
+
+import me.shawlaf.varlight.persistence.nls.NLSFile;
+import me.shawlaf.varlight.persistence.world.RegionLoader;
+import me.shawlaf.varlight.persistence.world.WorldLightStore;
+import me.shawlaf.varlight.util.BlockVolume;
+import me.shawlaf.varlight.util.DistanceMetric;
+import me.shawlaf.varlight.util.IntPosition;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class WorldLightStoreTest {
+
+    private static IntPosition inRegion(int regionX, int regionZ) {
+        return new IntPosition(regionX * 512, 0, regionZ * 512);
+    }
+
+    @Test
+    public void testHitsAndMisses(@TempDir File tempDir) throws IOException {
+        WorldLightStore store = new WorldLightStore(tempDir, 16);
+
+        NLSFile first = store.getRegion(0, 0);
+
+        assertSame(first, store.getRegion(0, 0));
+        assertEquals(1, store.getHits());
+        assertEquals(1, store.getMisses());
+        assertEquals(0, store.getEvictions());
+        assertNull(store.getRegionIfLoaded(1, 0));
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyUsed(@TempDir File tempDir) throws IOException {
+        WorldLightStore store = new WorldLightStore(tempDir, 2);
+
+        store.setCustomLuminance(inRegion(0, 0), 15);
+        store.setCustomLuminance(inRegion(1, 0), 14);
+
+        assertEquals(2, store.getHeldSections());
+        assertEquals(2, store.getLoadedRegionCount());
+
+        store.getRegion(0, 0); // (1, 0) is now the least recently used Region
+
+        store.setCustomLuminance(inRegion(2, 0), 13);
+
+        assertEquals(2, store.getLoadedRegionCount());
+        assertFalse(store.isLoaded(1, 0));
+        assertTrue(store.isLoaded(0, 0));
+        assertTrue(store.isLoaded(2, 0));
+
+        store.getPendingEvictions().join();
+
+        assertEquals(1, store.getEvictions());
+        assertEquals(1, store.getEvictionSaves());
+        assertTrue(store.getRegionFile(1, 0).exists());
+
+        assertEquals(14, store.getCustomLuminance(inRegion(1, 0)));
+
+        store.getPendingEvictions().join();
+
+        assertEquals(2, store.getHeldSections());
+    }
+
+    @Test
+    public void testSavesEvictedRegionsOutsideOfTheLock(@TempDir File tempDir) throws IOException {
+        List<Runnable> tasks = new ArrayList<>();
+        WorldLightStore store = new WorldLightStore(new RegionLoader(tempDir, true, Executors.newSingleThreadExecutor(), 0) {
+            @Override
+            public Executor getExecutor() {
+                return tasks::add;
+            }
+        }, 1);
+
+        store.setCustomLuminance(inRegion(0, 0), 15);
+        store.setCustomLuminance(inRegion(1, 0), 14);
+
+        // (0, 0) waits for its save, until then the budget is exceeded
+
+        assertFalse(store.isLoaded(0, 0));
+        assertEquals(2, store.getHeldSections());
+        assertEquals(0, store.getEvictions());
+        assertFalse(store.getRegionFile(0, 0).exists());
+        assertFalse(store.getPendingEvictions().isDone());
+        assertEquals(1, tasks.size());
+
+        tasks.remove(0).run();
+
+        assertTrue(store.getPendingEvictions().isDone());
+        assertEquals(1, store.getHeldSections());
+        assertEquals(1, store.getEvictions());
+        assertEquals(1, store.getEvictionSaves());
+        assertTrue(store.getRegionFile(0, 0).exists());
+
+        // Accessing a Region before its save finished keeps it loaded
+
+        store.setCustomLuminance(inRegion(2, 0), 13);
+
+        NLSFile rescued = store.getRegion(1, 0);
+
+        assertFalse(rescued.isUnloaded());
+        assertEquals(14, store.getCustomLuminance(inRegion(1, 0)));
+
+        while (!tasks.isEmpty()) {
+            tasks.remove(0).run();
+        }
+
+        store.getPendingEvictions().join();
+
+        assertFalse(rescued.isUnloaded());
+        assertTrue(store.isLoaded(1, 0));
+
+        store.getLoader().shutdown();
+    }
+
+    @Test
+    public void testPrefersCleanRegions(@TempDir File tempDir) throws IOException {
+        WorldLightStore store = new WorldLightStore(tempDir, 3);
+
+        store.setCustomLuminance(inRegion(0, 0), 15);
+        store.setCustomLuminance(inRegion(1, 0), 14);
+
+        assertEquals(2, store.save());
+
+        store.setCustomLuminance(inRegion(0, 0).getRelative(0, 16, 0), 12);
+        store.getRegion(1, 0); // (0, 0) is dirty and least recently used
+
+        store.setCustomLuminance(inRegion(2, 0), 13);
+
+        assertTrue(store.isLoaded(0, 0));
+        assertFalse(store.isLoaded(1, 0));
+        assertEquals(0, store.getEvictionSaves());
+    }
+
+    @Test
+    public void testSaveAndUnloadAll(@TempDir File tempDir) throws IOException {
+        WorldLightStore store = new WorldLightStore(tempDir, 64);
+
+        for (int rx = 0; rx < 4; ++rx) {
+            store.setCustomLuminance(inRegion(rx, -rx), rx + 1);
+        }
+
+        store.saveAndUnloadAll();
+
+        assertEquals(0, store.getLoadedRegionCount());
+        assertEquals(0, store.getHeldSections());
+
+        for (int rx = 0; rx < 4; ++rx) {
+            assertEquals(rx + 1, store.getCustomLuminance(inRegion(rx, -rx)));
+        }
+    }
+
+    @Test
+    public void testVolumeQueries(@TempDir File tempDir) throws IOException {
+        WorldLightStore store = new WorldLightStore(tempDir, 8);
+        Random random = new Random(7);
+        Map<IntPosition, Integer> lights = new HashMap<>();
+
+        for (int i = 0; i < 500; ++i) {
+            IntPosition position = new IntPosition(random.nextInt(1024) - 512, random.nextInt(256), random.nextInt(1024) - 512);
+            int lightLevel = 1 + random.nextInt(15);
+
+            store.setCustomLuminance(position, lightLevel);
+            lights.put(position, lightLevel);
+        }
+
+        assertQuery(store, lights, BlockVolume.box(new IntPosition(-100, 20, -300), new IntPosition(200, 200, 40)));
+        assertQuery(store, lights, BlockVolume.sphere(new IntPosition(3, 64, -7), 150));
+        assertQuery(store, lights, BlockVolume.sphere(new IntPosition(-511, 0, 511), 0));
+
+        store.getPendingEvictions().join();
+    }
+
+    @Test
+    public void testQuerySkipsMissingRegions(@TempDir File tempDir) throws IOException {
+        WorldLightStore store = new WorldLightStore(tempDir, 64);
+
+        store.setCustomLuminance(inRegion(0, 0), 15);
+
+        assertEquals(1, store.forEachLightSource(BlockVolume.sphere(IntPosition.ORIGIN, 2048), (x, y, z, lightLevel) -> {
+        }));
+
+        assertEquals(1, store.getLoadedRegionCount());
+    }
+
+    private void assertQuery(WorldLightStore store, Map<IntPosition, Integer> lights, BlockVolume volume) throws IOException {
+        Map<IntPosition, Integer> found = new HashMap<>();
+
+        int visited = store.forEachLightSource(volume, (x, y, z, lightLevel) -> {
+            assertNull(found.put(new IntPosition(x, y, z), lightLevel));
+        });
+
+        Map<IntPosition, Integer> expected = new HashMap<>();
+
+        lights.forEach((position, lightLevel) -> {
+            if (volume.contains(position.x, position.y, position.z)) {
+                expected.put(position, lightLevel);
+            }
+        });
+
+        assertEquals(expected, found);
+        assertEquals(expected.size(), visited);
+    }
+
+    @Test
+    public void testNearestLightSources(@TempDir File tempDir) throws IOException {
+        WorldLightStore store = new WorldLightStore(tempDir, 16);
+        Random random = new Random(13);
+        Map<IntPosition, Integer> lights = new HashMap<>();
+
+        for (int i = 0; i < 300; ++i) {
+            IntPosition position = new IntPosition(random.nextInt(1200) - 600, random.nextInt(256), random.nextInt(1200) - 600);
+
+            store.setCustomLuminance(position, 15);
+            lights.put(position, 15);
+        }
+
+        IntPosition center = new IntPosition(17, 70, -40);
+
+        for (DistanceMetric metric : DistanceMetric.values()) {
+            assertNearest(store, lights, center, 10, metric, 10_000);
+            assertNearest(store, lights, center, 50, metric, 200);
+            assertNearest(store, lights, center, 500, metric, 10_000);
+        }
+
+        store.getPendingEvictions().join();
+    }
+
+    @Test
+    public void testNearestLightSourcesFarAway(@TempDir File tempDir) throws IOException {
+        WorldLightStore store = new WorldLightStore(tempDir, 64);
+
+        store.setCustomLuminance(new IntPosition(1, 1, 1), 5);
+        store.setCustomLuminance(inRegion(3, -2), 15);
+        store.setCustomLuminance(new IntPosition(29_999_000, 64, -29_999_000), 7);
+        store.saveAndUnloadAll();
+
+        WorldLightStore reopened = new WorldLightStore(tempDir, 64); // Nothing is indexed yet
+        List<Integer> found = new ArrayList<>();
+
+        assertEquals(3, reopened.findNearestLightSources(IntPosition.ORIGIN, 10, DistanceMetric.EUCLIDEAN, Integer.MAX_VALUE, (x, y, z, lightLevel) -> found.add(lightLevel)));
+        assertEquals(Arrays.asList(5, 15, 7), found);
+
+        // Read without evicting the Regions in use, but indexed on the way
+
+        assertEquals(0, reopened.getLoadedRegionCount());
+        assertEquals(3, reopened.getOccupancyIndex().getNonEmptyRegionCount());
+
+        found.clear();
+
+        assertEquals(2, reopened.findNearestLightSources(new IntPosition(29_998_000, 0, -29_998_000), 2, DistanceMetric.MANHATTAN, Integer.MAX_VALUE, (x, y, z, lightLevel) -> found.add(lightLevel)));
+        assertEquals(Arrays.asList(7, 15), found);
+    }
+
+    private void assertNearest(WorldLightStore store, Map<IntPosition, Integer> lights, IntPosition center, int count, DistanceMetric metric, int maxDistance) throws IOException {
+        List<Long> expected = new ArrayList<>();
+
+        for (IntPosition position : lights.keySet()) {
+            long distance = distance(metric, center, position.x, position.y, position.z);
+
+            if (distance <= metric.fromBlocks(maxDistance)) {
+                expected.add(distance);
+            }
+        }
+
+        Collections.sort(expected);
+
+        List<Long> found = new ArrayList<>();
+
+        int visited = store.findNearestLightSources(center, count, metric, maxDistance, (x, y, z, lightLevel) -> {
+            assertEquals(lights.get(new IntPosition(x, y, z)), lightLevel);
+            found.add(distance(metric, center, x, y, z));
+        });
+
+        assertEquals(expected.subList(0, Math.min(count, expected.size())), found);
+        assertEquals(found.size(), visited);
+    }
+
+    private long distance(DistanceMetric metric, IntPosition center, int x, int y, int z) {
+        return metric.distance(x - center.x, y - center.y, z - center.z);
+    }
+}
@@ -0,0 +1,133 @@
+package me.shawlaf.varlight.test.persistence.world;
+
+import me.shawlaf.varlight.persistence.nls.NLSFile;
+import me.shawlaf.varlight.persistence.world.WorldLightStore;
+import me.shawlaf.varlight.persistence.world.WorldOccupancyIndex;
+import me.shawlaf.varlight.util.ChunkCoords;
+import me.shawlaf.varlight.util.IntPosition;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class WorldOccupancyIndexTest {
+
+    @Test
+    public void testFollowsMutations(@TempDir File tempDir) throws IOException {
+        WorldLightStore store = new WorldLightStore(tempDir, 64);
+        WorldOccupancyIndex index = store.getOccupancyIndex();
+
+        IntPosition position = new IntPosition(-20, 40, 700); // Chunk (-2, 43), Section 2, Region (-1, 1)
+
+        assertFalse(index.isIndexed(-1, 1));
+
+        store.setCustomLuminance(position, 15);
+
+        assertTrue(index.isIndexed(-1, 1));
+        assertTrue(index.hasRegion(-1, 1));
+        assertTrue(index.hasChunk(-2, 43));
+        assertTrue(index.hasSection(-2, 2, 43));
+        assertFalse(index.hasSection(-2, 3, 43));
+        assertEquals(1 << 2, index.getMask(-2, 43));
+        assertEquals(1, index.getNonEmptyRegionCount());
+
+        long[] chunkMap = index.getChunkMap(-1, 1);
+        int chunkIndex = (43 & 0x1F) << 5 | (-2 & 0x1F);
+
+        assertNotEquals(0, chunkMap[chunkIndex >>> 6] & (1L << chunkIndex));
+
+        store.setCustomLuminance(position.getRelative(0, 16, 0), 3);
+        assertEquals(1 << 2 | 1 << 3, index.getMask(-2, 43));
+
+        store.setCustomLuminance(position, 0);
+        assertEquals(1 << 3, index.getMask(-2, 43));
+
+        store.setCustomLuminance(position.getRelative(0, 16, 0), 0);
+
+        assertFalse(index.hasChunk(-2, 43));
+        assertFalse(index.hasRegion(-1, 1));
+        assertTrue(index.isIndexed(-1, 1));
+        assertEquals(0, index.getNonEmptyRegionCount());
+    }
+
+    @Test
+    public void testSurvivesUnload(@TempDir File tempDir) throws IOException {
+        WorldLightStore store = new WorldLightStore(tempDir, 64);
+        WorldOccupancyIndex index = store.getOccupancyIndex();
+
+        store.setCustomLuminance(new IntPosition(1, 1, 1), 15);
+        store.setCustomLuminance(new IntPosition(600, 1, 1), 15);
+
+        store.saveAndUnloadAll();
+
+        assertEquals(0, store.getLoadedRegionCount());
+        assertEquals(2, index.getNonEmptyRegionCount());
+        assertTrue(index.hasChunk(0, 0));
+        assertTrue(index.hasChunk(37, 0));
+
+        // Changes to an unloaded NLSFile are no longer tracked
+
+        NLSFile file = NLSFile.existingFile(store.getRegionFile(0, 0));
+        file.clearChunk(new ChunkCoords(0, 0));
+
+        assertTrue(index.hasChunk(0, 0));
+    }
+
+    @Test
+    public void testIndexesExistingFiles(@TempDir File tempDir) throws IOException {
+        NLSFile file = NLSFile.newFile(new File(tempDir, String.format(NLSFile.FILE_NAME_FORMAT, 0, 0)), 0, 0);
+
+        file.setCustomLuminance(new IntPosition(17, 255, 33), 7);
+        file.save();
+
+        WorldLightStore store = new WorldLightStore(tempDir, 64);
+        WorldOccupancyIndex index = store.getOccupancyIndex();
+
+        assertFalse(index.hasChunk(1, 2));
+
+        store.getRegion(0, 0);
+
+        assertTrue(index.hasSection(1, 15, 2));
+        assertFalse(index.hasChunk(0, 0));
+    }
+
+    @Test
+    public void testRebuildsChangedFiles(@TempDir File tempDir) throws IOException {
+        WorldLightStore store = new WorldLightStore(tempDir, 64);
+        WorldOccupancyIndex index = store.getOccupancyIndex();
+
+        store.setCustomLuminance(new IntPosition(1, 1, 1), 15);
+        store.saveAndUnloadAll();
+
+        // The Region file is replaced on disk while the Region is not loaded
+
+        NLSFile file = NLSFile.existingFile(store.getRegionFile(0, 0));
+        file.clearChunk(new ChunkCoords(0, 0));
+        file.setCustomLuminance(new IntPosition(40, 1, 1), 15);
+        file.saveAndUnload();
+
+        assertTrue(index.hasChunk(0, 0));
+
+        index.invalidate(0, 0);
+
+        assertFalse(index.isIndexed(0, 0));
+        assertEquals(0, index.getNonEmptyRegionCount());
+
+        // Tracking the file again rebuilds the Region from its contents
+
+        index.track(NLSFile.existingFile(store.getRegionFile(0, 0)));
+
+        assertFalse(index.hasChunk(0, 0));
+        assertTrue(index.hasChunk(2, 0));
+        assertEquals(1, index.getNonEmptyRegionCount());
+
+        store.getRegion(0, 0);
+
+        assertFalse(index.hasChunk(0, 0));
+        assertTrue(index.hasChunk(2, 0));
+        assertEquals(1, index.getNonEmptyRegionCount());
+    }
+}
@@ -0,0 +1,100 @@
+package me.shawlaf.varlight.test.persistence.world;
+
+import me.shawlaf.varlight.persistence.nls.NLSFile;
+import me.shawlaf.varlight.persistence.nls.NLSSnapshot;
+import me.shawlaf.varlight.persistence.world.WorldLightStore;
+import me.shawlaf.varlight.util.IntPosition;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class WorldSnapshotTest {
+
+    private static IntPosition inRegion(int regionX, int regionZ) {
+        return new IntPosition(regionX * 512 + 7, 12, regionZ * 512 + 9);
+    }
+
+    @Test
+    public void testSnapshotIsCopyOnWrite(@TempDir File tempDir) throws IOException {
+        File file = new File(tempDir, String.format(NLSFile.FILE_NAME_FORMAT, 0, 0));
+        NLSFile nlsFile = NLSFile.newFile(file, 0, 0);
+
+        IntPosition a = new IntPosition(1, 2, 3);
+        IntPosition b = new IntPosition(100, 200, 300);
+
+        nlsFile.setCustomLuminance(a, 5);
+
+        NLSSnapshot snapshot = nlsFile.createSnapshot();
+
+        nlsFile.setCustomLuminance(a, 6);
+        nlsFile.setCustomLuminance(b, 7);
+
+        File snapshotFile = new File(tempDir, "snapshot.nls");
+        snapshot.write(snapshotFile);
+
+        NLSFile restored = NLSFile.existingFile(snapshotFile);
+
+        assertEquals(5, restored.getCustomLuminance(a));
+        assertEquals(0, restored.getCustomLuminance(b));
+        assertEquals(6, nlsFile.getCustomLuminance(a));
+        assertEquals(7, nlsFile.getCustomLuminance(b));
+    }
+
+    @Test
+    public void testStoreSnapshot(@TempDir File tempDir) throws Exception {
+        File world = new File(tempDir, "world");
+        File backup = new File(tempDir, "backup");
+
+        WorldLightStore store = new WorldLightStore(world, 1024);
+
+        store.setCustomLuminance(inRegion(0, 0), 1);
+        store.setCustomLuminance(inRegion(1, 0), 2);
+        store.saveAndUnloadAll(); // On disk, not loaded
+
+        store.setCustomLuminance(inRegion(2, 0), 3);
+        store.save(); // Loaded and clean
+
+        store.setCustomLuminance(inRegion(3, 0), 4); // Loaded and modified
+
+        CountDownLatch written = new CountDownLatch(1);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+
+        Future<?> blocker = executor.submit(() -> {
+            written.await(); // Hold back writing until all modifications below have been made
+            return null;
+        });
+
+        CompletableFuture<Integer> snapshot = store.snapshot(backup, executor);
+
+        store.setCustomLuminance(inRegion(3, 0), 14);
+        store.setCustomLuminance(inRegion(2, 0), 13);
+        store.setCustomLuminance(inRegion(4, 0), 15);
+        store.saveAndUnloadAll();
+
+        written.countDown();
+        blocker.get();
+
+        assertEquals(4, (int) snapshot.get());
+
+        WorldLightStore restored = new WorldLightStore(backup, 1024);
+
+        assertEquals(1, restored.getCustomLuminance(inRegion(0, 0)));
+        assertEquals(2, restored.getCustomLuminance(inRegion(1, 0)));
+        assertEquals(3, restored.getCustomLuminance(inRegion(2, 0)));
+        assertEquals(4, restored.getCustomLuminance(inRegion(3, 0)));
+        assertFalse(restored.getRegionFile(4, 0).exists());
+
+        assertEquals(13, store.getCustomLuminance(inRegion(2, 0)));
+
+        executor.shutdown();
+    }
+}
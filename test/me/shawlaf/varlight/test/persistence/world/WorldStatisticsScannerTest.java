@@ -0,0 +1,85 @@
+package me.shawlaf.varlight.test.persistence.world;
+
+import me.shawlaf.varlight.persistence.world.WorldLightStore;
+import me.shawlaf.varlight.persistence.world.WorldStatistics;
+import me.shawlaf.varlight.persistence.world.WorldStatisticsScanner;
+import me.shawlaf.varlight.util.IntPosition;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class WorldStatisticsScannerTest {
+
+    @Test
+    public void testTotals(@TempDir File tempDir) throws IOException {
+        WorldLightStore store = new WorldLightStore(tempDir, 1024);
+
+        store.setCustomLuminance(new IntPosition(0, 0, 0), 15);
+        store.setCustomLuminance(new IntPosition(1, 0, 0), 15);
+        store.setCustomLuminance(new IntPosition(0, 100, 0), 7);
+        store.setCustomLuminance(new IntPosition(-1, 0, 0), 1);
+        store.setCustomLuminance(new IntPosition(5000, 255, -5000), 3);
+
+        store.saveAndUnloadAll();
+
+        try (OutputStream out = new FileOutputStream(new File(tempDir, "r.9.9.nls"))) {
+            out.write(new byte[]{1, 2, 3, 4, 5});
+        }
+
+        WorldStatistics statistics = new WorldStatisticsScanner(tempDir).scan();
+
+        assertEquals(3, statistics.getRegions());
+        assertEquals(1, statistics.getFailedRegions());
+        assertEquals(3, statistics.getNonEmptyChunks());
+        assertEquals(4, statistics.getNonEmptySections());
+        assertEquals(5, statistics.getLightSources());
+        assertEquals(2, statistics.getLightSources(15));
+        assertEquals(1, statistics.getLightSources(7));
+        assertEquals(0, statistics.getLightSources(14));
+
+        assertEquals(store.getRegionFile(0, 0).length(), statistics.getRegionSize(0, 0));
+        assertEquals(-1, statistics.getRegionSize(9, 9));
+        assertEquals(3, statistics.getScannedRegions().length);
+        assertEquals(
+                store.getRegionFile(0, 0).length() + store.getRegionFile(-1, 0).length() + store.getRegionFile(9, -10).length(),
+                statistics.getTotalBytes()
+        );
+    }
+
+    @Test
+    public void testCancel(@TempDir File tempDir) throws IOException {
+        WorldLightStore store = new WorldLightStore(tempDir, 1024);
+
+        for (int rx = 0; rx < 8; ++rx) {
+            store.setCustomLuminance(new IntPosition(rx * 512, 0, 0), 15);
+        }
+
+        store.saveAndUnloadAll();
+
+        WorldStatisticsScanner[] scanner = new WorldStatisticsScanner[1];
+
+        scanner[0] = new WorldStatisticsScanner(tempDir, new ForkJoinPool(1), (scanned, total) -> {
+            assertEquals(8, total);
+            scanner[0].cancel();
+        });
+
+        assertThrows(CancellationException.class, scanner[0]::scan);
+        assertTrue(scanner[0].getScannedRegions() < 8);
+
+        WorldStatisticsScanner next = new WorldStatisticsScanner(tempDir, new ForkJoinPool(1), (scanned, total) -> {
+        });
+
+        next.cancel(); // Cancelling while idle must not affect the next scan
+
+        assertEquals(8, next.scan().getRegions());
+        assertFalse(next.isCancelled());
+    }
+}
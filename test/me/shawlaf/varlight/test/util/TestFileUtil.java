@@ -0,0 +1,123 @@
+package me.shawlaf.varlight.test.util;
+
+import me.shawlaf.varlight.util.CompressedFileInput;
+import me.shawlaf.varlight.util.FileCompression;
+import me.shawlaf.varlight.util.FileUtil;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestFileUtil {
+
+    private static final byte[] DATA = "VarLight".getBytes();
+
+    @Test
+    public void testOpenInflated(@TempDir File tempDir) throws IOException {
+        File raw = new File(tempDir, "raw");
+        File gzip = new File(tempDir, "gzip");
+
+        try (OutputStream out = new FileOutputStream(raw)) {
+            out.write(DATA);
+        }
+
+        try (OutputStream out = new GZIPOutputStream(new FileOutputStream(gzip))) {
+            out.write(DATA);
+        }
+
+        try (CompressedFileInput in = FileUtil.openInflated(raw)) {
+            assertEquals(FileCompression.RAW, in.getCompression());
+        }
+
+        try (CompressedFileInput in = FileUtil.openInflated(gzip)) {
+            assertEquals(FileCompression.GZIP, in.getCompression());
+
+            InputStream stream = in.getStream();
+
+            for (byte b : DATA) {
+                assertEquals(b, stream.read());
+            }
+
+            assertEquals(-1, stream.read());
+            assertThrows(IllegalStateException.class, in::getChannel);
+        }
+
+        assertFalse(FileUtil.isDeflated(raw));
+        assertTrue(FileUtil.isDeflated(gzip));
+
+        assertArrayEquals(DATA, FileUtil.readFileFullyInflate(raw));
+        assertArrayEquals(DATA, FileUtil.readFileFullyInflate(gzip));
+    }
+
+    @Test
+    public void testReadFully(@TempDir File tempDir) throws IOException {
+        byte[] data = new byte[200_000]; // Larger than a single read
+
+        new Random(3).nextBytes(data);
+
+        File raw = new File(tempDir, "raw");
+        File gzip = new File(tempDir, "gzip");
+        File members = new File(tempDir, "members");
+
+        try (OutputStream out = new FileOutputStream(raw)) {
+            out.write(data);
+        }
+
+        try (OutputStream out = new GZIPOutputStream(new FileOutputStream(gzip))) {
+            out.write(data);
+        }
+
+        // The trailer of the last member only holds the size of that member
+
+        try (OutputStream out = new FileOutputStream(members)) {
+            for (int offset = 0; offset < data.length; offset += 50_000) {
+                GZIPOutputStream member = new GZIPOutputStream(out);
+
+                member.write(data, offset, 50_000);
+                member.finish();
+            }
+        }
+
+        assertArrayEquals(data, FileUtil.readFileFullyInflate(raw));
+        assertArrayEquals(data, FileUtil.readFileFullyInflate(gzip));
+        assertArrayEquals(data, FileUtil.readFileFullyInflate(members));
+
+        File empty = new File(tempDir, "empty");
+
+        assertTrue(empty.createNewFile());
+        assertArrayEquals(new byte[0], FileUtil.readFileFullyInflate(empty));
+    }
+
+    @Test
+    public void testShortFile(@TempDir File tempDir) throws IOException {
+        File file = new File(tempDir, "short");
+
+        try (OutputStream out = new FileOutputStream(file)) {
+            out.write(0x1F);
+        }
+
+        assertFalse(FileUtil.isDeflated(file));
+        assertArrayEquals(new byte[]{0x1F}, FileUtil.readFileFullyInflate(file));
+    }
+
+    @Test
+    public void testTruncatedGzipHeader(@TempDir File tempDir) throws IOException {
+        File file = new File(tempDir, "truncated");
+
+        try (OutputStream out = new FileOutputStream(file)) {
+            out.write(new byte[]{0x1F, (byte) 0x8B, 0x08, 0x00}); // Header cut off after the flags
+        }
+
+        assertTrue(FileUtil.isDeflated(file));
+        assertThrows(IOException.class, () -> FileUtil.openStreamInflate(file));
+        assertTrue(file.delete());
+    }
+}
@@ -0,0 +1,80 @@
+package me.shawlaf.varlight.test.util;
+
+import me.shawlaf.varlight.util.ChunkCoords;
+import me.shawlaf.varlight.util.Long2IntMap;
+import me.shawlaf.varlight.util.Long2ObjectMap;
+import me.shawlaf.varlight.util.RegionCoords;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestLong2ObjectMap {
+
+    @Test
+    public void testAgainstHashMap() {
+        Random random = new Random(42);
+
+        Long2ObjectMap<Integer> map = new Long2ObjectMap<>();
+        Map<Long, Integer> expected = new HashMap<>();
+
+        for (int i = 0; i < 20_000; ++i) {
+            long key = RegionCoords.encode(random.nextInt(64) - 32, random.nextInt(64) - 32);
+
+            if (random.nextInt(3) == 0) {
+                assertEquals(expected.remove(key), map.remove(key));
+            } else {
+                assertEquals(expected.put(key, i), map.put(key, i));
+            }
+
+            assertEquals(expected.size(), map.size());
+        }
+
+        for (Map.Entry<Long, Integer> entry : expected.entrySet()) {
+            assertEquals(entry.getValue(), map.get(entry.getKey()));
+        }
+
+        assertEquals(expected.size(), map.keys().length);
+    }
+
+    @Test
+    public void testRemoveIf() {
+        Long2ObjectMap<String> map = new Long2ObjectMap<>(4);
+
+        for (int x = -8; x < 8; ++x) {
+            map.put(ChunkCoords.encode(x, 0), "chunk");
+        }
+
+        assertEquals(8, map.removeIf(key -> (int) (key >> 32) < 0));
+        assertEquals(8, map.size());
+
+        for (int x = -8; x < 8; ++x) {
+            assertEquals(x >= 0, map.containsKey(ChunkCoords.encode(x, 0)));
+        }
+    }
+
+    @Test
+    public void testLong2IntMap() {
+        Long2IntMap map = new Long2IntMap(0, -1);
+
+        long key = ChunkCoords.encode(-3, 7);
+
+        assertEquals(-1, map.get(key));
+        assertEquals(4, map.addTo(key, 5));
+        assertEquals(6, map.addTo(key, 2));
+        assertEquals(6, map.remove(key));
+        assertFalse(map.containsKey(key));
+    }
+
+    @Test
+    public void testEncodingRoundTrip() {
+        ChunkCoords chunk = new ChunkCoords(-123456, 654321);
+        RegionCoords region = new RegionCoords(-5, Integer.MIN_VALUE);
+
+        assertEquals(chunk, new ChunkCoords(chunk.encode()));
+        assertEquals(region, new RegionCoords(region.encode()));
+    }
+}
@@ -0,0 +1,54 @@
+package me.shawlaf.varlight.test.util;
+
+import me.shawlaf.varlight.util.Short2ObjectMap;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestShort2ObjectMap {
+
+    @Test
+    public void testAgainstHashMap() {
+        Random random = new Random(42);
+
+        Short2ObjectMap<Integer> map = new Short2ObjectMap<>();
+        Map<Integer, Integer> expected = new HashMap<>();
+
+        for (int i = 0; i < 20_000; ++i) {
+            int key = random.nextBoolean() ? random.nextInt(512) : 0xFFFF - random.nextInt(512); // Exercises keys with the sign bit set
+
+            if (random.nextInt(3) == 0) {
+                assertEquals(expected.remove(key), map.remove(key));
+            } else {
+                assertEquals(expected.put(key, i), map.put(key, i));
+            }
+
+            assertEquals(expected.size(), map.size());
+        }
+
+        for (Map.Entry<Integer, Integer> entry : expected.entrySet()) {
+            assertEquals(entry.getValue(), map.get(entry.getKey()));
+        }
+
+        assertEquals(expected.size(), map.keys().length);
+    }
+
+    @Test
+    public void testKeyRange() {
+        Short2ObjectMap<String> map = new Short2ObjectMap<>(0);
+
+        assertThrows(IllegalArgumentException.class, () -> map.put(-1, "a"));
+        assertThrows(IllegalArgumentException.class, () -> map.put(0x10000, "a"));
+        assertThrows(NullPointerException.class, () -> map.put(0, null));
+
+        map.put(0xFFFF, "max");
+
+        assertEquals("max", map.get(0xFFFF));
+        assertNull(map.get(-1));
+        assertArrayEquals(new int[]{0xFFFF}, map.keys());
+    }
+}